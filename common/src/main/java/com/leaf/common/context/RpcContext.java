@@ -2,6 +2,7 @@ package com.leaf.common.context;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 /**
  * rpc 上下文
@@ -10,29 +11,35 @@ import java.util.Map;
  */
 public class RpcContext {
 
-    private final static ThreadLocal<Map<String, String>> attachment = ThreadLocal.withInitial(() -> new HashMap());
-
-    private final static ThreadLocal<Long> timeouts = ThreadLocal.withInitial(() -> 0L);
+    /**
+     * 调用上下文放在同一个对象中, 每次访问只查一次 ThreadLocal
+     */
+    private final static ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
 
     public static Map<String, String> getAttachments() {
-        return attachment.get();
+        Context context = contexts.get();
+        if (context.attachment == null) {
+            context.attachment = new HashMap<>();
+        }
+        return context.attachment;
     }
 
     public static void setAttachments(Map<String, String> map) {
-        attachment.set(map);
+        contexts.get().attachment = map;
     }
 
     public static String getAttachment(String key) {
-        return attachment.get().get(key);
+        return getAttachments().get(key);
     }
 
     public static void putAttachment(String key, String value) {
-        attachment.get().put(key, value);
+        getAttachments().put(key, value);
     }
 
     public static void clearAttachments() {
-        if (attachment.get() != null) {
-            attachment.get().clear();
+        Map<String, String> attachment = contexts.get().attachment;
+        if (attachment != null) {
+            attachment.clear();
         }
     }
 
@@ -42,14 +49,69 @@ public class RpcContext {
      * @param timeout
      */
     public static void setTimeout(Long timeout) {
-        timeouts.set(timeout);
+        contexts.get().timeout = timeout;
     }
 
     public static Long getTimeout() {
-        return timeouts.get();
+        return contexts.get().timeout;
     }
 
     public static void resetTimeout() {
-        timeouts.set(0L);
+        contexts.get().timeout = 0L;
+    }
+
+    /**
+     * 消费端发起调用之后清理本次调用的 attachment 和超时时间
+     */
+    public static void clearInvoke() {
+        Context context = contexts.get();
+        if (context.attachment != null) {
+            context.attachment.clear();
+        }
+        context.timeout = 0L;
+    }
+
+    /**
+     * 服务端: 当前处理的请求是否已经被消费端取消 (超时或者主动取消), 耗时的业务逻辑可以据此提前结束
+     */
+    public static boolean isCancelled() {
+        BooleanSupplier signal = contexts.get().cancelSignal;
+        return signal != null && signal.getAsBoolean();
+    }
+
+    public static void setCancelSignal(BooleanSupplier signal) {
+        contexts.get().cancelSignal = signal;
+    }
+
+    public static void clearCancelSignal() {
+        contexts.get().cancelSignal = null;
+    }
+
+    /**
+     * 服务端处理请求时设置为该请求的截止时间 (System.currentTimeMillis), 业务线程中发起的嵌套调用继承剩余的时间
+     *
+     * @return 0 表示没有截止时间
+     */
+    public static long getDeadline() {
+        return contexts.get().deadline;
+    }
+
+    public static void setDeadline(long deadline) {
+        contexts.get().deadline = deadline;
+    }
+
+    public static void clearDeadline() {
+        contexts.get().deadline = 0L;
+    }
+
+    private static final class Context {
+
+        Map<String, String> attachment;
+
+        Long timeout = 0L;
+
+        BooleanSupplier cancelSignal;
+
+        long deadline;
     }
 }
@@ -0,0 +1,30 @@
+package com.leaf.example.demo.stream;
+
+import com.leaf.common.UnresolvedAddress;
+import com.leaf.rpc.DefaultProxyFactory;
+import com.leaf.rpc.consumer.DefaultLeafClient;
+import com.leaf.rpc.consumer.LeafClient;
+
+import java.util.Iterator;
+
+public class ConsumerExample {
+
+    public static void main(String[] args) {
+        LeafClient leafClient = new DefaultLeafClient("consumer");
+
+        ReportService reportService = DefaultProxyFactory.factory(ReportService.class)
+                .consumer(leafClient)
+                .providers(new UnresolvedAddress("127.0.0.1", 9180))
+                .newProxy();
+
+        int count = 0;
+        Iterator<String> rows = reportService.export("report", 100000);
+        while (rows.hasNext()) {
+            String row = rows.next();
+            if (count++ % 10000 == 0) {
+                System.out.println(row);
+            }
+        }
+        System.out.println("rows: " + count);
+    }
+}
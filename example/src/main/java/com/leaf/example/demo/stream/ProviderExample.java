@@ -0,0 +1,17 @@
+package com.leaf.example.demo.stream;
+
+import com.leaf.rpc.provider.DefaultLeafServer;
+import com.leaf.rpc.provider.LeafServer;
+
+public class ProviderExample {
+
+    public static void main(String[] args) {
+        LeafServer leafServer = new DefaultLeafServer(9180);
+        leafServer.start();
+
+        leafServer.serviceRegistry()
+                .provider(new ReportServiceImpl())
+                .interfaceClass(ReportService.class)
+                .register();
+    }
+}
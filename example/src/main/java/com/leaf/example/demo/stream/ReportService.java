@@ -0,0 +1,11 @@
+package com.leaf.example.demo.stream;
+
+import java.util.Iterator;
+
+/**
+ * 返回值为 Iterator 的方法按流式调用, 每一行作为一个帧返回
+ */
+public interface ReportService {
+
+    Iterator<String> export(String name, Integer rows);
+}
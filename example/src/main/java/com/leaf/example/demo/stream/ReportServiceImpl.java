@@ -0,0 +1,29 @@
+package com.leaf.example.demo.stream;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class ReportServiceImpl implements ReportService {
+
+    @Override
+    public Iterator<String> export(final String name, final Integer rows) {
+        // 按需生成, 不在内存中构造整个结果
+        return new Iterator<String>() {
+
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < rows;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return name + "," + row++;
+            }
+        };
+    }
+}
@@ -26,6 +26,7 @@ public class SerializationBenchmark {
     private static final Serializer protostuffSerializer = SerializerFactory.serializer(SerializerType.PROTO_STUFF);
     private static final Serializer hessianSerializer = SerializerFactory.serializer(SerializerType.HESSIAN);
     private static final Serializer jsonSerializer = SerializerFactory.serializer(SerializerType.FAST_JSON);
+    private static final Serializer kryoSerializer = SerializerFactory.serializer(SerializerType.KRYO);
 
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
@@ -68,4 +69,10 @@ public class SerializationBenchmark {
         byte[] bytes = jsonSerializer.serialize(newUser());
         jsonSerializer.deserialize(bytes, User.class);
     }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public void kryoSerializer() {
+        byte[] bytes = kryoSerializer.serialize(newUser());
+        kryoSerializer.deserialize(bytes, User.class);
+    }
 }
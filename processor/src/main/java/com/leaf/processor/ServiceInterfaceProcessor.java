@@ -0,0 +1,363 @@
+package com.leaf.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 为 @ServiceInterface 接口生成 (和接口在同一个包中, 类名为接口的二进制名加后缀):
+ * <ul>
+ * <li>消费端 stub (接口名$$LeafStub): 实现接口, 每个方法按下标调用 StubInvoker, 代替运行时生成的代理类</li>
+ * <li>服务端 skeleton (接口名$$LeafSkeleton): 按方法下标 switch, 参数强制转换成声明类型后直接调用服务对象</li>
+ * </ul>
+ * 两个类的 METHODS 常量按下标列出方法 (方法名(参数类型列表)), 参数类型为擦除后的二进制名, 和运行时的方法签名一致
+ * <p>
+ * 覆盖接口的全部抽象方法和接口自己声明的 default 方法; 运行时由 com.leaf.rpc.stub.Stubs 按类名查找
+ *
+ * @author yefei
+ */
+@SupportedAnnotationTypes(ServiceInterfaceProcessor.SERVICE_INTERFACE)
+public class ServiceInterfaceProcessor extends AbstractProcessor {
+
+    static final String SERVICE_INTERFACE = "com.leaf.common.annotation.ServiceInterface";
+
+    static final String STUB_SUFFIX = "$$LeafStub";
+
+    static final String SKELETON_SUFFIX = "$$LeafSkeleton";
+
+    private static final String STUB_INVOKER = "com.leaf.rpc.stub.StubInvoker";
+
+    private static final String SERVICE_SKELETON = "com.leaf.rpc.stub.ServiceSkeleton";
+
+    private Elements elements;
+
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.INTERFACE) {
+                    warning(element, "@ServiceInterface on non-interface type, skip stub generation");
+                    continue;
+                }
+                if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                    warning(element, "private service interface, skip stub generation");
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                try {
+                    List<ExecutableElement> methods = methods(type);
+                    writeStub(type, methods);
+                    writeSkeleton(type, methods);
+                } catch (IOException | RuntimeException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "generate stub failed: " + e, element);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 全部抽象方法 (包括继承的) 和接口自己声明的 default 方法, 不包括 static 方法和 Object 的方法
+     */
+    private List<ExecutableElement> methods(TypeElement type) {
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (Element member : elements.getAllMembers(type)) {
+            if (member.getKind() != ElementKind.METHOD
+                    || member.getEnclosingElement().getKind() != ElementKind.INTERFACE
+                    || member.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (member.getModifiers().contains(Modifier.DEFAULT) && !member.getEnclosingElement().equals(type)) {
+                continue;
+            }
+            methods.add((ExecutableElement) member);
+        }
+        return methods;
+    }
+
+    private void writeStub(TypeElement type, List<ExecutableElement> methods) throws IOException {
+        String simpleName = generatedSimpleName(type, STUB_SUFFIX);
+        DeclaredType interfaceType = (DeclaredType) type.asType();
+        String typeParameters = typeParameters(type.getTypeParameters());
+
+        StringBuilder buf = new StringBuilder();
+        header(buf, type);
+        buf.append("@SuppressWarnings({\"unchecked\", \"cast\"})\n");
+        buf.append("public final class ").append(simpleName).append(typeParameters)
+                .append(" implements ").append(interfaceType).append(" {\n\n");
+        methodsField(buf, methods);
+        buf.append("    private static final Object[] NO_ARGS = new Object[0];\n\n");
+        buf.append("    private final ").append(STUB_INVOKER).append(" invoker;\n\n");
+        buf.append("    public ").append(simpleName).append("(").append(STUB_INVOKER).append(" invoker) {\n");
+        buf.append("        this.invoker = invoker;\n");
+        buf.append("    }\n");
+
+        for (int index = 0; index < methods.size(); index++) {
+            ExecutableElement method = methods.get(index);
+            ExecutableType methodType = (ExecutableType) types.asMemberOf(interfaceType, method);
+            List<? extends TypeMirror> parameterTypes = methodType.getParameterTypes();
+            TypeMirror returnType = methodType.getReturnType();
+
+            buf.append("\n    @Override\n");
+            buf.append("    public ");
+            if (!method.getTypeParameters().isEmpty()) {
+                buf.append(typeParameters(method.getTypeParameters())).append(' ');
+            }
+            buf.append(returnType).append(' ').append(method.getSimpleName()).append('(');
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                if (i > 0) {
+                    buf.append(", ");
+                }
+                TypeMirror parameterType = parameterTypes.get(i);
+                if (method.isVarArgs() && i == parameterTypes.size() - 1) {
+                    buf.append(((ArrayType) parameterType).getComponentType()).append("...");
+                } else {
+                    buf.append(parameterType);
+                }
+                buf.append(" a").append(i);
+            }
+            buf.append(") {\n");
+
+            StringBuilder call = new StringBuilder("invoker.invoke(").append(index).append(", ");
+            if (parameterTypes.isEmpty()) {
+                call.append("NO_ARGS");
+            } else {
+                call.append("new Object[]{");
+                for (int i = 0; i < parameterTypes.size(); i++) {
+                    if (i > 0) {
+                        call.append(", ");
+                    }
+                    call.append('a').append(i);
+                }
+                call.append('}');
+            }
+            call.append(')');
+
+            if (returnType.getKind() == TypeKind.VOID) {
+                buf.append("        ").append(call).append(";\n");
+            } else {
+                buf.append("        return (").append(boxed(returnType)).append(") ").append(call).append(";\n");
+            }
+            buf.append("    }\n");
+        }
+        buf.append("}\n");
+
+        write(type, simpleName, buf);
+    }
+
+    private void writeSkeleton(TypeElement type, List<ExecutableElement> methods) throws IOException {
+        String simpleName = generatedSimpleName(type, SKELETON_SUFFIX);
+        // 泛型接口按原始类型调用, 参数转换成擦除后的类型
+        DeclaredType rawType = (DeclaredType) types.erasure(type.asType());
+
+        StringBuilder buf = new StringBuilder();
+        header(buf, type);
+        buf.append("@SuppressWarnings({\"unchecked\", \"rawtypes\", \"cast\"})\n");
+        buf.append("public final class ").append(simpleName).append(" implements ").append(SERVICE_SKELETON).append(" {\n\n");
+        methodsField(buf, methods);
+        buf.append("    private final ").append(rawType).append(" service;\n\n");
+        buf.append("    public ").append(simpleName).append("(Object service) {\n");
+        buf.append("        this.service = (").append(rawType).append(") service;\n");
+        buf.append("    }\n\n");
+
+        buf.append("    @Override\n");
+        buf.append("    public Object invoke(int methodIndex, Object[] args) throws Throwable {\n");
+        buf.append("        switch (methodIndex) {\n");
+        for (int index = 0; index < methods.size(); index++) {
+            ExecutableElement method = methods.get(index);
+            ExecutableType methodType = (ExecutableType) types.asMemberOf(rawType, method);
+            List<? extends TypeMirror> parameterTypes = methodType.getParameterTypes();
+
+            StringBuilder call = new StringBuilder("service.").append(method.getSimpleName()).append('(');
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                if (i > 0) {
+                    call.append(", ");
+                }
+                TypeMirror parameterType = types.erasure(parameterTypes.get(i));
+                if (parameterType.getKind().isPrimitive()) {
+                    // 显式拆箱, 避免按包装类型选中其他重载方法
+                    call.append("((").append(boxed(parameterType)).append(") args[").append(i).append("]).")
+                            .append(parameterType).append("Value()");
+                } else {
+                    call.append('(').append(parameterType).append(") args[").append(i).append(']');
+                }
+            }
+            call.append(')');
+
+            buf.append("            case ").append(index).append(":\n");
+            if (methodType.getReturnType().getKind() == TypeKind.VOID) {
+                buf.append("                ").append(call).append(";\n");
+                buf.append("                return null;\n");
+            } else {
+                buf.append("                return ").append(call).append(";\n");
+            }
+        }
+        buf.append("            default:\n");
+        buf.append("                throw new IllegalArgumentException(\"unknown method index: \" + methodIndex);\n");
+        buf.append("        }\n");
+        buf.append("    }\n");
+        buf.append("}\n");
+
+        write(type, simpleName, buf);
+    }
+
+    private void header(StringBuilder buf, TypeElement type) {
+        buf.append("// generated by ").append(getClass().getName()).append(", do not edit\n");
+        String packageName = packageName(type);
+        if (!packageName.isEmpty()) {
+            buf.append("package ").append(packageName).append(";\n");
+        }
+        buf.append('\n');
+    }
+
+    private void methodsField(StringBuilder buf, List<ExecutableElement> methods) {
+        buf.append("    public static final String[] METHODS = {");
+        for (int i = 0; i < methods.size(); i++) {
+            buf.append(i > 0 ? ",\n" : "\n");
+            buf.append("            \"").append(methodKey(methods.get(i))).append('"');
+        }
+        buf.append("\n    };\n\n");
+    }
+
+    /**
+     * 方法名(参数类型列表), 参数类型按方法声明擦除, 和反射得到的 Method.getParameterTypes 一致
+     */
+    private String methodKey(ExecutableElement method) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(method.getSimpleName()).append('(');
+        List<? extends TypeMirror> parameterTypes = ((ExecutableType) method.asType()).getParameterTypes();
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(className(types.erasure(parameterTypes.get(i))));
+        }
+        return buf.append(')').toString();
+    }
+
+    /**
+     * 和 Class.getName 相同的名称
+     */
+    private String className(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return type.toString();
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return "[" + descriptor(((ArrayType) type).getComponentType());
+        }
+        return elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+    }
+
+    private String descriptor(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "Z";
+            case BYTE:
+                return "B";
+            case CHAR:
+                return "C";
+            case SHORT:
+                return "S";
+            case INT:
+                return "I";
+            case LONG:
+                return "J";
+            case FLOAT:
+                return "F";
+            case DOUBLE:
+                return "D";
+            case ARRAY:
+                return "[" + descriptor(((ArrayType) type).getComponentType());
+            default:
+                return "L" + className(type) + ";";
+        }
+    }
+
+    private String boxed(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return types.boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    private static String typeParameters(List<? extends TypeParameterElement> typeParameters) {
+        if (typeParameters.isEmpty()) {
+            return "";
+        }
+        StringBuilder buf = new StringBuilder("<");
+        for (int i = 0; i < typeParameters.size(); i++) {
+            TypeParameterElement typeParameter = typeParameters.get(i);
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(typeParameter.getSimpleName());
+            List<? extends TypeMirror> bounds = typeParameter.getBounds();
+            if (bounds.size() == 1 && "java.lang.Object".equals(bounds.get(0).toString())) {
+                continue;
+            }
+            for (int j = 0; j < bounds.size(); j++) {
+                buf.append(j == 0 ? " extends " : " & ").append(bounds.get(j));
+            }
+        }
+        return buf.append('>').toString();
+    }
+
+    private String packageName(TypeElement type) {
+        PackageElement packageElement = elements.getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    /**
+     * 接口二进制名去掉包名再加后缀, 嵌套接口生成的也是顶层类 (Outer$Inner$$LeafStub)
+     */
+    private String generatedSimpleName(TypeElement type, String suffix) {
+        String binaryName = elements.getBinaryName(type).toString();
+        String packageName = packageName(type);
+        return (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + suffix;
+    }
+
+    private void write(TypeElement type, String simpleName, StringBuilder source) throws IOException {
+        String packageName = packageName(type);
+        String name = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(name, type).openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    private void warning(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
@@ -3,6 +3,8 @@ package com.leaf.register.api.model;
 import com.leaf.common.UnresolvedAddress;
 import com.leaf.common.model.ServiceMeta;
 
+import java.util.Arrays;
+
 public class  RegisterMeta {
 
     private ServiceMeta serviceMeta;
@@ -15,6 +17,11 @@ public class  RegisterMeta {
 
     private volatile int weight;
 
+    /**
+     * 服务端支持的序列化类型 (SerializerType 的值), 按服务端的优先顺序; 旧版本的服务端没有这个字段
+     */
+    private byte[] serializerTypes;
+
     public RegisterMeta() {
     }
 
@@ -58,6 +65,14 @@ public class  RegisterMeta {
         this.methods = methods;
     }
 
+    public byte[] getSerializerTypes() {
+        return serializerTypes;
+    }
+
+    public void setSerializerTypes(byte[] serializerTypes) {
+        this.serializerTypes = serializerTypes;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -87,6 +102,7 @@ public class  RegisterMeta {
                 ", address=" + address +
                 ", connCount=" + connCount +
                 ", weight=" + weight +
+                ", serializerTypes=" + Arrays.toString(serializerTypes) +
                 '}';
     }
 }
@@ -234,7 +234,7 @@ public class DefaultRegisterClient {
             ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
                     ProtocolHead.ACK,
                     serializerType.value(),
-                    null,
+                    (byte[]) null,
                     request.getInvokeId()
             );
             return responseCommand;
@@ -205,7 +205,7 @@ public class RegisterRequestCommandProcess implements RequestCommandProcessor {
         ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
                 ProtocolHead.ACK,
                 request.getSerializerCode(),
-                null,
+                (byte[]) null,
                 request.getInvokeId()
         );
         return responseCommand;
@@ -228,7 +228,7 @@ public class RegisterRequestCommandProcess implements RequestCommandProcessor {
         ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
                 ProtocolHead.ACK,
                 request.getSerializerCode(),
-                null,
+                (byte[]) null,
                 request.getInvokeId()
         );
 
@@ -135,13 +135,7 @@ public class ZookeeperRegisterService extends AbstractRegisterService {
                         registerMeta.getServiceMeta().getServiceProviderName(),
                         registerMeta.getServiceMeta().getVersion()
                 );
-                String nodePath = String.format("%s/%s&%s&%s&%s",
-                        directory,
-                        registerMeta.getAddress(),
-                        registerMeta.getWeight(),
-                        registerMeta.getConnCount(),
-                        Arrays.toString(registerMeta.getMethods()).substring(1, Arrays.toString(registerMeta.getMethods()).length() - 1)
-                );
+                String nodePath = providerPath(directory, registerMeta);
                 try {
                     if (curatorFramework.checkExists().forPath(nodePath) == null) {
                         doRegister(registerMeta);
@@ -182,13 +176,7 @@ public class ZookeeperRegisterService extends AbstractRegisterService {
                         registers.add(registerMeta);
                     }
                 }
-            }).forPath(String.format("%s/%s&%s&%s&%s",
-                    directory,
-                    registerMeta.getAddress(),
-                    registerMeta.getWeight(),
-                    registerMeta.getConnCount(),
-                    Arrays.toString(registerMeta.getMethods()).substring(1, Arrays.toString(registerMeta.getMethods()).length() - 1)
-            ));
+            }).forPath(providerPath(directory, registerMeta));
         } catch (Exception e) {
             logger.error("create register meta mode fail: {}, e: {}", registerMeta.toString(), e.getMessage());
         }
@@ -215,13 +203,7 @@ public class ZookeeperRegisterService extends AbstractRegisterService {
                 public void processResult(CuratorFramework curatorFramework, CuratorEvent curatorEvent) throws Exception {
                     logger.info("zookeeper do unregister registerMeta: {} result: {}", registerMeta, curatorEvent.getResultCode());
                 }
-            }).forPath(String.format("%s/%s&%s&%s&%s",
-                    directory,
-                    registerMeta.getAddress(),
-                    registerMeta.getWeight(),
-                    registerMeta.getConnCount(),
-                    Arrays.toString(registerMeta.getMethods()).substring(1, Arrays.toString(registerMeta.getMethods()).length() - 1)
-            ));
+            }).forPath(providerPath(directory, registerMeta));
         } catch (Exception e) {
             logger.warn("create register meta mode fail: {}, e: {}", registerMeta.toString(), e.getMessage());
         }
@@ -469,13 +451,14 @@ public class ZookeeperRegisterService extends AbstractRegisterService {
      * | |                               +                                             |
      * | +----------------------------------------> /1.0.0                             |
      * | |                                            +                                |
-     * | +-------------------------------------------------> /ip:port&weight&connCount&m1,m2 |
+     * | +-------------------------------------------------> /ip:port&weight&connCount&m1,m2&s1,s2 |
      * +-------------------------------------------------------------------------------+
+     * 最后一段是服务端支持的序列化类型, 按服务端的优先顺序; 旧版本的服务端没有这一段
      *
      * @param path
      * @return
      */
-    private RegisterMeta parseProviderPath(String path) {
+    static RegisterMeta parseProviderPath(String path) {
         String[] strings0 = path.split("/");
         if (strings0.length == 6) {
             RegisterMeta registerMeta = new RegisterMeta();
@@ -492,12 +475,43 @@ public class ZookeeperRegisterService extends AbstractRegisterService {
             registerMeta.setWeight(Integer.valueOf(strings1[1]));
             registerMeta.setConnCount(Integer.valueOf(strings1[2]));
             registerMeta.setMethods(strings1[3].split(","));
+            if (strings1.length > 4) {
+                String[] types = strings1[4].split(",");
+                byte[] serializerTypes = new byte[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    serializerTypes[i] = Byte.parseByte(types[i]);
+                }
+                registerMeta.setSerializerTypes(serializerTypes);
+            }
             return registerMeta;
         } else {
             return null;
         }
     }
 
+    static String providerPath(String directory, RegisterMeta registerMeta) {
+        String methods = Arrays.toString(registerMeta.getMethods());
+        String path = String.format("%s/%s&%s&%s&%s",
+                directory,
+                registerMeta.getAddress(),
+                registerMeta.getWeight(),
+                registerMeta.getConnCount(),
+                methods.substring(1, methods.length() - 1)
+        );
+        byte[] serializerTypes = registerMeta.getSerializerTypes();
+        if (serializerTypes == null || serializerTypes.length == 0) {
+            return path;
+        }
+        StringBuilder sb = new StringBuilder(path).append('&');
+        for (int i = 0; i < serializerTypes.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(serializerTypes[i]);
+        }
+        return sb.toString();
+    }
+
     private SubscribeMeta parseConsumerPath(String path) {
         String[] strings0 = path.split("/");
         if (strings0.length >= 5) {
@@ -0,0 +1,76 @@
+package com.leaf.register.zookeeper;
+
+import com.leaf.common.UnresolvedAddress;
+import com.leaf.common.model.ServiceMeta;
+import com.leaf.register.api.model.RegisterMeta;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 服务端节点路径: /providers/group/service/version/ip:port&weight&connCount&m1,m2[&s1,s2]
+ */
+public class ZookeeperRegisterServiceTest {
+
+    private static final String DIRECTORY = "/providers/group/com.leaf.HelloService/1.0.0";
+
+    @Test
+    public void testProviderPath() {
+        RegisterMeta registerMeta = registerMeta("sayHello", "sayBye");
+        registerMeta.setSerializerTypes(new byte[]{3, 0});
+        assertEquals(DIRECTORY + "/127.0.0.1:9180&50&4&sayHello, sayBye&3,0",
+                ZookeeperRegisterService.providerPath(DIRECTORY, registerMeta));
+
+        // 没有声明序列化类型时和旧版本的路径相同
+        registerMeta.setSerializerTypes(null);
+        assertEquals(DIRECTORY + "/127.0.0.1:9180&50&4&sayHello, sayBye",
+                ZookeeperRegisterService.providerPath(DIRECTORY, registerMeta));
+        registerMeta.setSerializerTypes(new byte[0]);
+        assertEquals(DIRECTORY + "/127.0.0.1:9180&50&4&sayHello, sayBye",
+                ZookeeperRegisterService.providerPath(DIRECTORY, registerMeta));
+    }
+
+    @Test
+    public void testParseProviderPath() {
+        RegisterMeta registerMeta = registerMeta("sayHello");
+        registerMeta.setSerializerTypes(new byte[]{3, 0});
+        RegisterMeta parsed = ZookeeperRegisterService.parseProviderPath(
+                ZookeeperRegisterService.providerPath(DIRECTORY, registerMeta));
+
+        assertNotNull(parsed);
+        assertEquals(new ServiceMeta("group", "com.leaf.HelloService", "1.0.0"), parsed.getServiceMeta());
+        assertEquals(new UnresolvedAddress("127.0.0.1", 9180), parsed.getAddress());
+        assertEquals(50, parsed.getWeight());
+        assertEquals(4, parsed.getConnCount());
+        assertArrayEquals(new String[]{"sayHello"}, parsed.getMethods());
+        assertArrayEquals(new byte[]{3, 0}, parsed.getSerializerTypes());
+    }
+
+    @Test
+    public void testParseLegacyProviderPath() {
+        // 旧版本的服务端只有四段, 没有序列化类型
+        RegisterMeta parsed = ZookeeperRegisterService.parseProviderPath(DIRECTORY + "/127.0.0.1:9180&50&4&sayHello");
+
+        assertNotNull(parsed);
+        assertEquals(new UnresolvedAddress("127.0.0.1", 9180), parsed.getAddress());
+        assertEquals(50, parsed.getWeight());
+        assertEquals(4, parsed.getConnCount());
+        assertArrayEquals(new String[]{"sayHello"}, parsed.getMethods());
+        assertNull(parsed.getSerializerTypes());
+    }
+
+    @Test
+    public void testParseInvalidPath() {
+        assertNull(ZookeeperRegisterService.parseProviderPath(DIRECTORY));
+    }
+
+    private static RegisterMeta registerMeta(String... methods) {
+        RegisterMeta registerMeta = new RegisterMeta();
+        registerMeta.setServiceMeta(new ServiceMeta("group", "com.leaf.HelloService", "1.0.0"));
+        registerMeta.setAddress(new UnresolvedAddress("127.0.0.1", 9180));
+        registerMeta.setWeight(50);
+        registerMeta.setConnCount(4);
+        registerMeta.setMethods(methods);
+        return registerMeta;
+    }
+}
@@ -11,6 +11,21 @@ package com.leaf.remoting.api;
  *           │       │        │           │             │
  *  └ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ┘
  *
+ *                                          ProtocolHead v2
+ *  ┌ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ┐
+ *       2   │   1   │    1   │   1   │   1~10    │    1~5      │
+ *  ├ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ┤
+ *           │       │        │       │           │             │
+ *  │  MAGIC   Sign    Status   Flags   Invoke Id   Body Length             Body Content              │
+ *  │ (0xcaf2)                          (varint)     (varint)
+ *           │       │        │       │           │             │
+ *  └ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ─ ┘
+ *
+ * v2 flags 带 FLAG_DEADLINE 时, Body Length 之后是 varint 编码的请求剩余超时时间 (毫秒, 1~5 字节)
+ *
+ * magic 第二个字节的低四位是协议版本, v1 固定为 0xcaff.
+ * 消费端在 v1 请求的 status 中带上 V2_ACCEPT 标记, 服务端收到标记之后用 v2 响应, 消费端收到 v2 帧之后,
+ * 该连接后续的帧都使用 v2. v1 响应不带标记, 老版本的消费端直接比较响应状态
  */
 public class ProtocolHead {
 
@@ -18,6 +33,23 @@ public class ProtocolHead {
 
     public static final short MAGIC = (short) (0xcaff);
 
+    public static final short MAGIC_V2 = (short) (0xcaf2);
+
+    /**
+     * magic 的高 12 位固定为 0xcaf, 低四位为版本 (v1 为 0xf)
+     */
+    public static final int MAGIC_PREFIX_MASK = 0xFFF0;
+    public static final int VERSION_MASK = 0x0F;
+
+    public static final byte VERSION_1 = 0x0F;
+    public static final byte VERSION_2 = 0x02;
+
+    /**
+     * v2 协议头的最小/最大长度
+     */
+    public static final int HEADER_V2_MIN_SIZE = 7;
+    public static final int HEADER_V2_MAX_SIZE = 25;
+
     /**
      * messageType 1bit
      *
@@ -36,9 +68,50 @@ public class ProtocolHead {
     public static final byte SUBSCRIBE_SERVICE =        0x05;   // 监听服务
     public static final byte SUBSCRIBE_RECEIVE =        0x06;   // 监听服务
     public static final byte OFFLINE_SERVICE =          0x07;   // 服务端下线
+    public static final byte CANCEL =                   0x08;   // 取消调用 (消费端超时或者主动取消)
     public static final byte CANCEL_REGISTER_SERVICE =  0x09;   // 取消注册服务
     public static final byte ONEWAY_REQUEST =           0x0A;   // 单向调用
     public static final byte LOOKUP_SERVICE =           0x0B;   // 查找服务
+    public static final byte STREAM_REQUEST =           0x0C;   // 流式调用请求
+    public static final byte STREAM_RESPONSE =          0x0D;   // 流式响应的一个元素, 状态不是 SUCCESS 时为结束帧
+    public static final byte STREAM_CREDIT =            0x0E;   // 消费端发放的 credit
+
+    /**
+     * status 高两位: 消息体压缩方式 (0 表示未压缩), 第三位: 发送方支持 v2 协议 (只用于 v1 请求), 低五位: 响应状态
+     */
+    public static final int COMPRESS_MASK = 0xC0;
+    public static final int COMPRESS_SHIFT = 6;
+    public static final int V2_ACCEPT = 0x20;
+    public static final int STATUS_MASK = 0x1F;
+
+    /**
+     * 请求 status 低五位: 消息体以路由元数据开头 (服务目录, 方法名, attachment), 之后才是序列化的参数,
+     * 服务端不需要反序列化参数就可以做流控, 查找服务和过滤
+     */
+    public static final int REQUEST_META = 0x01;
+
+    /**
+     * 请求 status 低五位: 消息体以路由前缀开头, varint tag + 可选的路由键 (varint UTF-8 字节数 + UTF-8 字节);
+     * tag 为 0 时是不进入字典的路由键, (id << 1) | 1 时定义 id 并带上路由键, id << 1 时引用已经定义的 id.
+     * 分片的消息只有第一个分片带路由前缀
+     */
+    public static final int REQUEST_ROUTE = 0x02;
+
+    /**
+     * 单个连接的路由字典 id 上限
+     */
+    public static final int ROUTE_ID_MAX = 65535;
+
+    /**
+     * v2 flags: 分片帧, 同一个 invoke id 的分片按顺序到达, 带 FLAG_LAST_FRAGMENT 的分片之后由解码端拼成完整的消息
+     */
+    public static final int FLAG_FRAGMENT = 0x01;
+    public static final int FLAG_LAST_FRAGMENT = 0x02;
+
+    /**
+     * v2 flags: 协议头带有请求剩余的超时时间
+     */
+    public static final int FLAG_DEADLINE = 0x04;
 
     /**
      * serializerCode 3bit
@@ -56,10 +129,22 @@ public class ProtocolHead {
 
     private byte status;
 
+    private byte version = VERSION_1;
+
+    /**
+     * v2 扩展标记, v1 固定为 0
+     */
+    private byte flags;
+
     private long invokeId;
 
     private int bodyLength;
 
+    /**
+     * 请求剩余的超时时间, 只有 FLAG_DEADLINE 时有效
+     */
+    private int timeoutMillis;
+
     public ProtocolHead() {
 
     }
@@ -85,6 +170,61 @@ public class ProtocolHead {
         this.status = status;
     }
 
+    public static byte toStatus(byte status, byte compressCode) {
+        return (byte) ((compressCode << COMPRESS_SHIFT) | (status & ~COMPRESS_MASK));
+    }
+
+    public boolean isV2Accepted() {
+        return version == VERSION_2 || (messageType == REQUEST && (status & V2_ACCEPT) != 0);
+    }
+
+    public byte getVersion() {
+        return version;
+    }
+
+    public void setVersion(byte version) {
+        this.version = version;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public void setFlags(byte flags) {
+        this.flags = flags;
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public boolean hasDeadline() {
+        return (flags & FLAG_DEADLINE) != 0;
+    }
+
+    public boolean isFragment() {
+        return (flags & FLAG_FRAGMENT) != 0;
+    }
+
+    public boolean isLastFragment() {
+        return (flags & FLAG_LAST_FRAGMENT) != 0;
+    }
+
+    /**
+     * status 低五位, 响应为响应状态, 请求为 REQUEST_META 等标记
+     */
+    public byte getResponseStatus() {
+        return (byte) (status & STATUS_MASK);
+    }
+
+    public byte getCompressCode() {
+        return (byte) ((status & COMPRESS_MASK) >> COMPRESS_SHIFT);
+    }
+
     public long getInvokeId() {
         return invokeId;
     }
@@ -7,6 +7,8 @@ import com.leaf.remoting.api.exception.RemotingConnectException;
 import com.leaf.remoting.api.exception.RemotingException;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.StreamListener;
+import com.leaf.remoting.api.stream.StreamSubscription;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -55,6 +57,30 @@ public interface RemotingClient extends RemotingService {
             throws RemotingException, InterruptedException;
 
 
+    /**
+     * 流式调用, 服务端按 credit 逐个返回元素, 元素和结束帧都交给 listener
+     *
+     * @param address
+     * @param request       STREAM_REQUEST
+     * @param timeoutMillis
+     * @param listener
+     * @return
+     * @throws RemotingException
+     * @throws InterruptedException
+     */
+    StreamSubscription invokeStream(final UnresolvedAddress address, final RequestCommand request,
+                                    long timeoutMillis, StreamListener listener)
+            throws RemotingException, InterruptedException;
+
+
+    /**
+     * 取消等待响应的调用, 并通知服务端丢弃或者中止该请求
+     *
+     * @param invokeId
+     * @return 调用已经完成 (或者不存在) 时返回 false
+     */
+    boolean cancel(long invokeId);
+
     /**
      *
      *
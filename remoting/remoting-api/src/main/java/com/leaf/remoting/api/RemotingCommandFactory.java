@@ -2,9 +2,14 @@ package com.leaf.remoting.api;
 
 import com.leaf.remoting.api.payload.ResponseCommand;
 import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.serialization.api.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 public class RemotingCommandFactory {
 
+    private static final byte[] EMPTY_BODY = new byte[0];
+
     public static RequestCommand createRequestCommand(byte serializerCode, byte[] body) {
         RequestCommand requestCommand = new RequestCommand(
                 serializerCode,
@@ -52,4 +57,97 @@ public class RemotingCommandFactory {
         );
         return responseCommand;
     }
+
+    public static RequestCommand createRequestCommand(byte messageCode, byte serializerCode,
+                                                      ByteBuf body, long invokeId) {
+        RequestCommand requestCommand = new RequestCommand(
+                messageCode,
+                serializerCode,
+                body,
+                invokeId
+        );
+        return requestCommand;
+    }
+
+    public static ResponseCommand createResponseCommand(byte messageCode, byte serializerCode,
+                                                        ByteBuf body, long invokeId) {
+        ResponseCommand responseCommand = new ResponseCommand(
+                messageCode,
+                serializerCode,
+                body,
+                invokeId
+        );
+        return responseCommand;
+    }
+
+    /**
+     * 消息体直接序列化到池化的 ByteBuf, 写出后由 encoder 释放
+     */
+    public static RequestCommand createRequestCommand(byte messageCode, Serializer serializer, Object body) {
+        RequestCommand requestCommand = new RequestCommand(
+                messageCode,
+                serializer.serializerType().value(),
+                writeBody(serializer, body)
+        );
+        return requestCommand;
+    }
+
+    /**
+     * 消息体直接序列化到池化的 ByteBuf, 写出后由 encoder 释放
+     */
+    public static ResponseCommand createResponseCommand(Serializer serializer, Object body, long invokeId) {
+        ResponseCommand responseCommand = new ResponseCommand(
+                ProtocolHead.PRC_RESPONSE,
+                serializer.serializerType().value(),
+                writeBody(serializer, body),
+                invokeId
+        );
+        return responseCommand;
+    }
+
+    /**
+     * 消息体直接序列化到池化的 ByteBuf, 写出后由 encoder 释放
+     */
+    public static ResponseCommand createResponseCommand(byte messageCode, Serializer serializer, Object body, long invokeId) {
+        ResponseCommand responseCommand = new ResponseCommand(
+                messageCode,
+                serializer.serializerType().value(),
+                writeBody(serializer, body),
+                invokeId
+        );
+        return responseCommand;
+    }
+
+    /**
+     * 流式调用的 credit, 消息体是 4 字节的 credit 数
+     */
+    public static RequestCommand createStreamCreditCommand(long invokeId, int credits) {
+        ByteBuf body = ByteBufAllocator.DEFAULT.ioBuffer(4);
+        body.writeInt(credits);
+        RequestCommand requestCommand = new RequestCommand(
+                ProtocolHead.STREAM_CREDIT,
+                (byte) 0,
+                body,
+                invokeId
+        );
+        return requestCommand;
+    }
+
+    /**
+     * 取消调用, 没有消息体
+     */
+    public static RequestCommand createCancelCommand(long invokeId) {
+        return new RequestCommand(ProtocolHead.CANCEL, (byte) 0, EMPTY_BODY, invokeId);
+    }
+
+    private static ByteBuf writeBody(Serializer serializer, Object body) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            serializer.writeObject(buf, body);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return buf;
+    }
 }
@@ -3,6 +3,7 @@ package com.leaf.remoting.api;
 import com.leaf.remoting.api.exception.RemotingException;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.ResponseStream;
 import io.netty.channel.Channel;
 
 /**
@@ -49,4 +50,14 @@ public interface RemotingServer extends RemotingService {
      */
     void invokeOneWay(final Channel channel, final RequestCommand request, long timeoutMillis)
             throws RemotingException, InterruptedException;
+
+    /**
+     * 为一个流式请求 (STREAM_REQUEST) 打开响应流, 元素写完后由处理器返回结束帧
+     *
+     * @param channel
+     * @param invokeId 请求的 invokeId
+     * @param window   初始 credit
+     * @return
+     */
+    ResponseStream openStream(final Channel channel, long invokeId, int window);
 }
@@ -12,7 +12,9 @@ public enum ResponseStatus {
 
     FLOW_CONTROL((byte) 0x08, "FLOW_CONTROL"),
     SERVICE_NOT_FOUND((byte) 0x09, "GLOBAL_FLOW_CONTROL"),
-    SEND_REQUEST_ERROR((byte) 0x10, "GLOBAL_FLOW_CONTROL")
+    SEND_REQUEST_ERROR((byte) 0x10, "GLOBAL_FLOW_CONTROL"),
+
+    STREAM_COMPLETE((byte) 0x11, "STREAM_COMPLETE")
     ;
 
     private byte value;
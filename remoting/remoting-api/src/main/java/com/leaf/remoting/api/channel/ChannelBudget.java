@@ -0,0 +1,67 @@
+package com.leaf.remoting.api.channel;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个连接的请求预算: 未完成的请求数和请求字节数
+ * <p>
+ * 服务端变慢时请求在这里等待有限的时间或者直接失败, 而不是在连接的写缓冲区中无限堆积
+ *
+ * @author yefei
+ */
+public class ChannelBudget {
+
+    private final int maxInFlight;
+
+    private final int maxPendingBytes;
+
+    private final Semaphore inFlight;
+
+    private final Semaphore pendingBytes;
+
+    public ChannelBudget(int maxInFlight, int maxPendingBytes) {
+        this.maxInFlight = maxInFlight;
+        this.maxPendingBytes = maxPendingBytes;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.pendingBytes = new Semaphore(maxPendingBytes);
+    }
+
+    /**
+     * @return 获取成功后返回实际占用的字节数, 失败返回 -1
+     */
+    public int tryAcquire(int bytes, long timeout, TimeUnit unit) throws InterruptedException {
+        // 超过上限的大请求按上限计算, 否则永远获取不到
+        int permits = Math.min(Math.max(bytes, 0), maxPendingBytes);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!inFlight.tryAcquire(timeout, unit)) {
+            return -1;
+        }
+        if (!pendingBytes.tryAcquire(permits, Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+            inFlight.release();
+            return -1;
+        }
+        return permits;
+    }
+
+    public void release(int permits) {
+        pendingBytes.release(permits);
+        inFlight.release();
+    }
+
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int pendingBytes() {
+        return maxPendingBytes - pendingBytes.availablePermits();
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelBudget{" +
+                "inFlight=" + inFlight() + "/" + maxInFlight +
+                ", pendingBytes=" + pendingBytes() + "/" + maxPendingBytes +
+                '}';
+    }
+}
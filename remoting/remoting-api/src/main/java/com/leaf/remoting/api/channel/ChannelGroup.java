@@ -60,6 +60,28 @@ public interface ChannelGroup {
      */
     void removeWeight(Directory directory);
 
+    /**
+     * 对端支持的序列化类型 (SerializerType 的值), 按对端的优先顺序, 从注册中心取得
+     *
+     * @param serializerTypes
+     */
+    void setSerializerTypes(byte[] serializerTypes);
+
+    /**
+     * 对端没有声明 (旧版本的服务端, 直连的地址) 时返回 null
+     *
+     * @return
+     */
+    byte[] getSerializerTypes();
+
+    /**
+     * 对端声明过支持 v2 协议 (路由元数据, 路由前缀等): 注册中心中带有能力声明, 或者某个连接已经收到对端的声明;
+     * 没有连接或者还没有收到声明时返回 false
+     *
+     * @return
+     */
+    boolean isPeerV2();
+
     /**
      *
      * @return
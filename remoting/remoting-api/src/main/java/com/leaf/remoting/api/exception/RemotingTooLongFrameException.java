@@ -0,0 +1,13 @@
+
+package com.leaf.remoting.api.exception;
+
+/**
+ * 消息超过了帧的最大长度, 发送端直接拒绝, 只有这一个请求 (或响应) 失败, 连接不受影响
+ */
+public class RemotingTooLongFrameException extends RemotingException {
+    private static final long serialVersionUID = -2718371565283730541L;
+
+    public RemotingTooLongFrameException(String message) {
+        super(message);
+    }
+}
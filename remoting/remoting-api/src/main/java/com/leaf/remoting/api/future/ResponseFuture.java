@@ -2,6 +2,9 @@ package com.leaf.remoting.api.future;
 
 import com.leaf.common.concurrent.SemaphoreReleaseOnce;
 import com.leaf.remoting.api.InvokeCallback;
+import com.leaf.remoting.api.channel.ChannelBudget;
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
@@ -18,6 +21,12 @@ public class ResponseFuture<T> {
 
     private SemaphoreReleaseOnce semaphoreReleaseOnce;
 
+    private ChannelBudget budget;
+
+    private int budgetPermits;
+
+    private AtomicBoolean budgetReleased;
+
     private InvokeCallback<T> invokeCallback;
 
     private Throwable cause;
@@ -26,6 +35,16 @@ public class ResponseFuture<T> {
 
     private long timeoutMillis;
 
+    /**
+     * 时间轮上的超时任务, 收到响应时取消
+     */
+    private volatile Timeout timeout;
+
+    /**
+     * 请求写出的连接, 超时或者取消时向该连接发送 CANCEL
+     */
+    private Channel channel;
+
     public void executeInvokeCallback() {
         if (invokeCallback != null) {
             // 异常 超时可能导致回调函数 多次执行
@@ -78,10 +97,41 @@ public class ResponseFuture<T> {
         return cause;
     }
 
+    /**
+     * 请求占用的连接预算, 随 {@link #release()} 一起归还
+     */
+    public void setBudget(ChannelBudget budget, int permits) {
+        this.budget = budget;
+        this.budgetPermits = permits;
+        this.budgetReleased = new AtomicBoolean(false);
+    }
+
     public void release() {
         if (semaphoreReleaseOnce != null) {
             semaphoreReleaseOnce.release();
         }
+        if (budget != null && budgetReleased.compareAndSet(false, true)) {
+            budget.release(budgetPermits);
+        }
+    }
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public void cancelTimeout() {
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public void setChannel(Channel channel) {
+        this.channel = channel;
     }
 
     public boolean isTimeout() {
@@ -1,6 +1,17 @@
 package com.leaf.remoting.api.payload;
 
-public abstract class ByteHolder {
+import com.leaf.serialization.api.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * 消息体可以是 byte[] 或者 ByteBuf
+ * <p>
+ * ByteBuf 消息体时引用计数委托给 ByteBuf: 写出时由 encoder 释放, 收到的消息由 remoting 层处理完后释放;
+ * byte[] 消息体不参与引用计数, retain/release 都是空操作
+ */
+public abstract class ByteHolder implements ReferenceCounted {
 
     protected byte messageCode;
 
@@ -8,21 +19,129 @@ public abstract class ByteHolder {
 
     private byte[] body;
 
+    private ByteBuf bodyBuf;
+
+    /**
+     * v2 协议头的 flags, 只在编码时使用 (比如分片标记), 不参与业务
+     */
+    private byte flags;
+
     public ByteHolder(byte messageCode, byte serializerCode, byte[] body) {
         this.messageCode = messageCode;
         this.serializerCode = serializerCode;
         this.body = body;
     }
 
+    public ByteHolder(byte messageCode, byte serializerCode, ByteBuf bodyBuf) {
+        this.messageCode = messageCode;
+        this.serializerCode = serializerCode;
+        this.bodyBuf = bodyBuf;
+    }
+
     public byte getSerializerCode() {
         return serializerCode;
     }
 
+    /**
+     * ByteBuf 消息体会拷贝一份到堆内存, 热点路径请使用 {@link #readBody(Serializer, Class)}
+     */
     public byte[] getBody() {
+        if (body == null && bodyBuf != null) {
+            body = ByteBufUtil.getBytes(bodyBuf, bodyBuf.readerIndex(), bodyBuf.readableBytes());
+        }
         return body;
     }
 
+    public ByteBuf getBodyBuf() {
+        return bodyBuf;
+    }
+
+    public int bodyLength() {
+        if (bodyBuf != null) {
+            return bodyBuf.readableBytes();
+        }
+        return body == null ? 0 : body.length;
+    }
+
+    public boolean isBodyBuf() {
+        return bodyBuf != null;
+    }
+
+    /**
+     * 反序列化消息体, ByteBuf 消息体直接从 ByteBuf 读取, 不移动原 ByteBuf 的 readerIndex
+     */
+    public <T> T readBody(Serializer serializer, Class<T> clazz) {
+        if (bodyBuf != null) {
+            return serializer.readObject(bodyBuf.duplicate(), clazz);
+        }
+        return serializer.deserialize(body, clazz);
+    }
+
     public byte getMessageCode() {
         return messageCode;
     }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public void setFlags(byte flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * clone 之后调用, 副本持有一份独立引用计数的 ByteBuf
+     */
+    protected void retainedDuplicateBody() {
+        if (bodyBuf != null) {
+            bodyBuf = bodyBuf.retainedDuplicate();
+        }
+    }
+
+    @Override
+    public int refCnt() {
+        return bodyBuf == null ? 1 : bodyBuf.refCnt();
+    }
+
+    @Override
+    public ByteHolder retain() {
+        if (bodyBuf != null) {
+            bodyBuf.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public ByteHolder retain(int increment) {
+        if (bodyBuf != null) {
+            bodyBuf.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteHolder touch() {
+        if (bodyBuf != null) {
+            bodyBuf.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public ByteHolder touch(Object hint) {
+        if (bodyBuf != null) {
+            bodyBuf.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return bodyBuf != null && bodyBuf.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return bodyBuf != null && bodyBuf.release(decrement);
+    }
 }
@@ -0,0 +1,36 @@
+package com.leaf.remoting.api.payload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * invokeId 生成
+ * <p>
+ * 每个线程一次从全局计数器取一段 id, 段内自增, 多线程不再争用同一个 AtomicLong
+ */
+final class InvokeIdGenerator {
+
+    private static final int STEP = 1024;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong(0L);
+
+    private static final ThreadLocal<long[]> RANGE = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            // [next, limit)
+            return new long[2];
+        }
+    };
+
+    private InvokeIdGenerator() {
+    }
+
+    static long next() {
+        long[] range = RANGE.get();
+        if (range[0] == range[1]) {
+            long start = SEQUENCE.getAndAdd(STEP) + 1;
+            range[0] = start;
+            range[1] = start + STEP;
+        }
+        return range[0]++;
+    }
+}
@@ -2,23 +2,41 @@ package com.leaf.remoting.api.payload;
 
 import com.leaf.remoting.api.ProtocolHead;
 import com.leaf.common.utils.AnyThrow;
-
-import java.util.concurrent.atomic.AtomicLong;
+import io.netty.buffer.ByteBuf;
 
 public class RequestCommand extends ByteHolder implements Cloneable {
 
-    private static final AtomicLong REQUEST_ID = new AtomicLong(0L);
-
     private long timestamp;
 
     private long invokeId;
 
+    /**
+     * 服务端收到消费端的 CANCEL 之后置位
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * 调用的截止时间 (本地 System.currentTimeMillis), 0 表示没有截止时间;
+     * 消费端按超时时间设置, 以剩余毫秒数写入 v2 协议头, 服务端收到时换算成本地时间
+     */
+    private long deadline;
+
+    /**
+     * 协议头 status 的低五位, 比如 ProtocolHead.REQUEST_META
+     */
+    private byte status;
+
+    /**
+     * 请求的路由键, 由 encoder 按连接上的字典写成路由前缀, 服务端由 decoder 还原
+     */
+    private RequestRoute route;
+
     public RequestCommand(byte serializerCode, byte[] body) {
         this(ProtocolHead.RPC_REQUEST, serializerCode, body);
     }
 
     public RequestCommand(byte messageCode, byte serializerCode, byte[] body) {
-        this(messageCode, serializerCode, body, REQUEST_ID.incrementAndGet());
+        this(messageCode, serializerCode, body, InvokeIdGenerator.next());
     }
 
     public RequestCommand(byte messageCode, byte serializerCode, byte[] body, Long invokeId) {
@@ -27,6 +45,16 @@ public class RequestCommand extends ByteHolder implements Cloneable {
         this.timestamp = System.currentTimeMillis();
     }
 
+    public RequestCommand(byte messageCode, byte serializerCode, ByteBuf body) {
+        this(messageCode, serializerCode, body, InvokeIdGenerator.next());
+    }
+
+    public RequestCommand(byte messageCode, byte serializerCode, ByteBuf body, long invokeId) {
+        super(messageCode, serializerCode, body);
+        this.invokeId = invokeId;
+        this.timestamp = System.currentTimeMillis();
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -43,6 +71,64 @@ public class RequestCommand extends ByteHolder implements Cloneable {
         return super.messageCode == ProtocolHead.ONEWAY_REQUEST;
     }
 
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return 剩余的毫秒数, 已经过期时返回 0, 没有截止时间时返回 -1
+     */
+    public long remainingMillis() {
+        if (deadline <= 0L) {
+            return -1L;
+        }
+        return Math.max(deadline - System.currentTimeMillis(), 0L);
+    }
+
+    public boolean isExpired() {
+        return deadline > 0L && System.currentTimeMillis() >= deadline;
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public void setStatus(byte status) {
+        this.status = status;
+    }
+
+    /**
+     * @return 消息体以路由元数据开头
+     */
+    public boolean hasMeta() {
+        return (status & ProtocolHead.REQUEST_META) != 0;
+    }
+
+    public RequestRoute getRoute() {
+        return route;
+    }
+
+    public void setRoute(RequestRoute route) {
+        this.route = route;
+        if (route != null) {
+            status |= ProtocolHead.REQUEST_ROUTE;
+        } else {
+            status &= ~ProtocolHead.REQUEST_ROUTE;
+        }
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     @Override
     public String toString() {
         return "RequestCommand{" +
@@ -60,7 +146,8 @@ public class RequestCommand extends ByteHolder implements Cloneable {
         } catch (CloneNotSupportedException e) {
             AnyThrow.throwUnchecked(e);
         }
-        clone.invokeId = REQUEST_ID.incrementAndGet();
+        clone.retainedDuplicateBody();
+        clone.invokeId = InvokeIdGenerator.next();
         clone.timestamp = System.currentTimeMillis();
         return clone;
     }
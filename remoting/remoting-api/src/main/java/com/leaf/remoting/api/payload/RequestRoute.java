@@ -0,0 +1,40 @@
+package com.leaf.remoting.api.payload;
+
+/**
+ * 请求的路由键 (由 rpc 层定义格式, 比如服务和方法), 写在消息体开头, 见 ProtocolHead.REQUEST_ROUTE
+ * <p>
+ * 编码端为每个连接维护路由键到整数 id 的字典: 第一次发送时带上路由键和新分配的 id, 之后只发送 id;
+ * 解码端按 id 下标取回同一个 RequestRoute 实例, 上层可以把解析结果缓存在 target 上, 同一个连接上只解析一次
+ */
+public class RequestRoute {
+
+    private final String key;
+
+    private volatile Object target;
+
+    public RequestRoute(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Object getTarget() {
+        return target;
+    }
+
+    public void setTarget(Object target) {
+        this.target = target;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestRoute{" +
+                "key='" + key + '\'' +
+                '}';
+    }
+}
@@ -2,6 +2,7 @@ package com.leaf.remoting.api.payload;
 
 import com.leaf.remoting.api.ProtocolHead;
 import com.leaf.remoting.api.ResponseStatus;
+import io.netty.buffer.ByteBuf;
 
 public class ResponseCommand extends ByteHolder {
 
@@ -22,6 +23,12 @@ public class ResponseCommand extends ByteHolder {
         this.invokeId = invokeId;
     }
 
+    public ResponseCommand(byte messageCode, byte serializerCode, ByteBuf body, long invokeId) {
+        super(messageCode, serializerCode, body);
+        this.status = ResponseStatus.SUCCESS.value();
+        this.invokeId = invokeId;
+    }
+
     public void setStatus(byte status) {
         this.status = status;
     }
@@ -38,6 +45,13 @@ public class ResponseCommand extends ByteHolder {
         return invokeId;
     }
 
+    /**
+     * 流式调用的结束帧: 状态不是 SUCCESS 的 STREAM_RESPONSE, 或者服务端直接返回的普通响应 (比如拒绝请求)
+     */
+    public boolean isStreamEnd() {
+        return messageCode != ProtocolHead.STREAM_RESPONSE || status != ResponseStatus.SUCCESS.value();
+    }
+
     @Override
     public String toString() {
         return "ResponseCommand{" +
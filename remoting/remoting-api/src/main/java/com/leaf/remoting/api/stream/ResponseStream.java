@@ -0,0 +1,32 @@
+package com.leaf.remoting.api.stream;
+
+import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.payload.ResponseCommand;
+
+/**
+ * 服务端的流式响应, 每个元素作为一个 STREAM_RESPONSE 帧写出
+ * <p>
+ * 每写出一个元素消耗一个 credit, credit 由消费端按消费进度发放 (STREAM_CREDIT),
+ * 没有 credit 时 write 阻塞, 慢速的消费端会让生产端同步变慢
+ *
+ * @author yefei
+ */
+public interface ResponseStream {
+
+    /**
+     * 等待 credit 后写出一个元素, 超时或者连接关闭时释放 element 并抛出异常
+     */
+    void write(ResponseCommand element, long timeoutMillis) throws RemotingException, InterruptedException;
+
+    /**
+     * 增加 credit
+     */
+    void grant(int credits);
+
+    /**
+     * 连接已关闭或者 stream 已结束
+     */
+    boolean isClosed();
+
+    long invokeId();
+}
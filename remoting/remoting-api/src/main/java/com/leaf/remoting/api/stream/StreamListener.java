@@ -0,0 +1,21 @@
+package com.leaf.remoting.api.stream;
+
+import com.leaf.remoting.api.payload.ResponseCommand;
+
+/**
+ * 消费端的流式响应监听, 在 event loop 中回调, 不能阻塞
+ *
+ * @author yefei
+ */
+public interface StreamListener {
+
+    /**
+     * 收到一个元素或者结束帧 (status 不是 SUCCESS), response 由监听方释放
+     */
+    void onResponse(ResponseCommand response);
+
+    /**
+     * 请求写出失败或者连接关闭
+     */
+    void onFailure(Throwable cause);
+}
@@ -0,0 +1,21 @@
+package com.leaf.remoting.api.stream;
+
+/**
+ * 消费端持有的流, 按消费进度向服务端发放 credit
+ *
+ * @author yefei
+ */
+public interface StreamSubscription {
+
+    /**
+     * 允许服务端再发送 n 个元素
+     */
+    void request(int n);
+
+    /**
+     * 不再接收后续元素
+     */
+    void cancel();
+
+    long invokeId();
+}
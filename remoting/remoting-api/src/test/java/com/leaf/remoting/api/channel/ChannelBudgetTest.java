@@ -0,0 +1,81 @@
+package com.leaf.remoting.api.channel;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChannelBudgetTest {
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        ChannelBudget budget = new ChannelBudget(2, 1000);
+        assertEquals(100, budget.tryAcquire(100, 0, TimeUnit.MILLISECONDS));
+        assertEquals(900, budget.tryAcquire(900, 0, TimeUnit.MILLISECONDS));
+        assertEquals(2, budget.inFlight());
+        assertEquals(1000, budget.pendingBytes());
+
+        budget.release(100);
+        budget.release(900);
+        assertEquals(0, budget.inFlight());
+        assertEquals(0, budget.pendingBytes());
+    }
+
+    @Test
+    public void testInFlightExhausted() throws Exception {
+        ChannelBudget budget = new ChannelBudget(1, 1000);
+        assertEquals(10, budget.tryAcquire(10, 0, TimeUnit.MILLISECONDS));
+        assertEquals(-1, budget.tryAcquire(10, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, budget.inFlight());
+        assertEquals(10, budget.pendingBytes());
+    }
+
+    @Test
+    public void testPendingBytesExhausted() throws Exception {
+        ChannelBudget budget = new ChannelBudget(10, 100);
+        assertEquals(80, budget.tryAcquire(80, 0, TimeUnit.MILLISECONDS));
+        assertEquals(-1, budget.tryAcquire(50, 10, TimeUnit.MILLISECONDS));
+        // 字节数获取失败时归还请求数
+        assertEquals(1, budget.inFlight());
+        assertEquals(80, budget.pendingBytes());
+    }
+
+    @Test
+    public void testOversizedRequest() throws Exception {
+        ChannelBudget budget = new ChannelBudget(2, 100);
+        assertEquals(100, budget.tryAcquire(5000, 0, TimeUnit.MILLISECONDS));
+        assertEquals(100, budget.pendingBytes());
+        budget.release(100);
+
+        assertEquals(0, budget.tryAcquire(-1, 0, TimeUnit.MILLISECONDS));
+        budget.release(0);
+        assertEquals(0, budget.inFlight());
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        final ChannelBudget budget = new ChannelBudget(1, 100);
+        final int permits = budget.tryAcquire(100, 0, TimeUnit.MILLISECONDS);
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                budget.release(permits);
+            }
+        });
+        releaser.start();
+        started.await();
+
+        assertEquals(60, budget.tryAcquire(60, 5, TimeUnit.SECONDS));
+        releaser.join();
+        assertEquals(1, budget.inFlight());
+        assertEquals(60, budget.pendingBytes());
+    }
+}
@@ -4,12 +4,14 @@ import com.leaf.common.UnresolvedAddress;
 import com.leaf.common.constants.Constants;
 import com.leaf.common.model.Directory;
 import com.leaf.remoting.api.channel.ChannelGroup;
+import com.leaf.remoting.netty.NettyEncoder;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -32,6 +34,17 @@ public class NettyChannelGroup implements ChannelGroup {
 
     private final ConcurrentMap<String, Integer> weights = new ConcurrentHashMap<>();
 
+    /**
+     * 序列化器是整个进程支持的, 同一个地址的所有服务相同
+     */
+    private volatile byte[] serializerTypes;
+
+    /**
+     * 对端支持 v2: 注册中心声明过能力, 或者任意一个连接已经协商过 (同一个地址的连接是同一个服务端进程),
+     * 之后该地址的所有连接都按 v2 编码
+     */
+    private volatile boolean peerV2;
+
     public NettyChannelGroup(UnresolvedAddress address) {
         this.address = address;
     }
@@ -41,6 +54,9 @@ public class NettyChannelGroup implements ChannelGroup {
         return address;
     }
 
+    /**
+     * 轮询, 跳过写缓冲区超过高水位的 channel, 全部不可写时返回轮询到的 channel, 由连接预算限流
+     */
     @Override
     public Channel next() {
         for (; ; ) {
@@ -52,13 +68,27 @@ public class NettyChannelGroup implements ChannelGroup {
                 return channels.get(0);
             }
             int offset = Math.abs(index.incrementAndGet() % length);
-            return channels.get(offset);
+            try {
+                for (int i = 0; i < length; i++) {
+                    Channel channel = channels.get((offset + i) % length);
+                    if (channel.isWritable()) {
+                        return channel;
+                    }
+                }
+                return channels.get(offset);
+            } catch (IndexOutOfBoundsException e) {
+                // channel 被并发移除, 重新选择
+            }
         }
     }
 
     @Override
     public boolean addChannel(Channel channel) {
         channels.add(channel);
+        // 先加入再检查, 和 markPeerV2 (先置位再遍历) 并发时不会漏掉
+        if (peerV2) {
+            NettyEncoder.setPeerV2(channel);
+        }
         //连接断开时自动被移除
         channel.closeFuture().addListener(new ChannelFutureListener() {
             @Override
@@ -72,7 +102,12 @@ public class NettyChannelGroup implements ChannelGroup {
 
     @Override
     public boolean removeChannel(Channel channel) {
-        return channels.remove(channel);
+        boolean removed = channels.remove(channel);
+        if (channels.isEmpty() && serializerTypes == null) {
+            // 没有注册中心的声明, 重连之后重新协商 (服务端可能已经换成了老版本)
+            peerV2 = false;
+        }
+        return removed;
     }
 
     @Override
@@ -97,6 +132,40 @@ public class NettyChannelGroup implements ChannelGroup {
         weights.remove(directory.directory());
     }
 
+    @Override
+    public void setSerializerTypes(byte[] serializerTypes) {
+        this.serializerTypes = serializerTypes;
+        if (serializerTypes != null) {
+            // 只有支持 v2 的服务端才会在注册中心声明序列化器
+            markPeerV2();
+        }
+    }
+
+    @Override
+    public byte[] getSerializerTypes() {
+        return serializerTypes;
+    }
+
+    @Override
+    public boolean isPeerV2() {
+        if (!peerV2) {
+            for (Channel channel : channels) {
+                if (NettyEncoder.isPeerV2(channel)) {
+                    markPeerV2();
+                    break;
+                }
+            }
+        }
+        return peerV2 && !channels.isEmpty();
+    }
+
+    private void markPeerV2() {
+        peerV2 = true;
+        for (Channel channel : channels) {
+            NettyEncoder.setPeerV2(channel);
+        }
+    }
+
     @Override
     public boolean isAvailable() {
         return !channels.isEmpty();
@@ -114,6 +183,7 @@ public class NettyChannelGroup implements ChannelGroup {
         sb.append(", address=").append(address);
         // weights =  {} DEFAULT_WEIGHT
         sb.append(", weights=").append(weights);
+        sb.append(", serializerTypes=").append(Arrays.toString(serializerTypes));
         sb.append('}');
         return sb.toString();
     }
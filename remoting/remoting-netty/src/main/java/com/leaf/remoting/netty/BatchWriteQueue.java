@@ -0,0 +1,104 @@
+package com.leaf.remoting.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * channel 级别的合并写
+ * <p>
+ * 业务线程写入的帧先进入队列, 只有第一个帧会向 event loop 提交任务 (可以延迟 linger 微秒等待更多的帧),
+ * event loop 批量 write, 每 maxBatchSize 个帧 flush 一次, 减少任务提交和 write 系统调用的次数
+ */
+public class BatchWriteQueue implements Runnable {
+
+    private final Channel channel;
+
+    private final int maxBatchSize;
+
+    private final long lingerNanos;
+
+    private final Queue<Entry> queue = PlatformDependent.newMpscQueue();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    public BatchWriteQueue(Channel channel, int maxBatchSize, long lingerMicros) {
+        this.channel = channel;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(lingerMicros, 0));
+    }
+
+    public ChannelFuture write(Object msg) {
+        ChannelPromise promise = channel.newPromise();
+        queue.offer(new Entry(msg, promise));
+        schedule(lingerNanos);
+        return promise;
+    }
+
+    private void schedule(long delayNanos) {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                if (delayNanos > 0) {
+                    channel.eventLoop().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    channel.eventLoop().execute(this);
+                }
+            } catch (RejectedExecutionException e) {
+                // event loop 已经关闭
+                failAll(e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        int pending = 0;
+        try {
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                channel.write(entry.msg, entry.promise);
+                if (++pending >= maxBatchSize) {
+                    channel.flush();
+                    pending = 0;
+                }
+            }
+        } finally {
+            if (pending > 0) {
+                channel.flush();
+            }
+            scheduled.set(false);
+        }
+        // 检查 set(false) 之前入队的帧
+        if (!queue.isEmpty()) {
+            schedule(0);
+        }
+    }
+
+    private void failAll(Throwable cause) {
+        scheduled.set(false);
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            ReferenceCountUtil.release(entry.msg);
+            entry.promise.tryFailure(cause);
+        }
+    }
+
+    static final class Entry {
+
+        final Object msg;
+
+        final ChannelPromise promise;
+
+        Entry(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.leaf.remoting.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息体压缩方式, 编号写在协议头 status 字节的高两位 (见 ProtocolHead.COMPRESS_MASK)
+ * <p>
+ * 压缩后的消息体: 4 字节原始长度 + 压缩数据, 解压前先校验原始长度, 避免解压炸弹
+ *
+ * @author yefei
+ */
+public enum Compression {
+
+    NONE((byte) 0x00) {
+        @Override
+        protected ByteBuf doCompress(ByteBufAllocator alloc, ByteBuf in, int length) {
+            return null;
+        }
+
+        @Override
+        protected void doDecompress(ByteBuf in, ByteBuf out) {
+            out.writeBytes(in);
+        }
+    },
+
+    /**
+     * jdk deflate, 压缩率高
+     */
+    DEFLATE((byte) 0x01) {
+        @Override
+        protected ByteBuf doCompress(ByteBufAllocator alloc, ByteBuf in, int length) {
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            if (in.hasArray()) {
+                deflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else {
+                byte[] bytes = new byte[length];
+                in.getBytes(in.readerIndex(), bytes);
+                deflater.setInput(bytes);
+            }
+            deflater.finish();
+
+            // 压缩后不比原始数据小就放弃
+            ByteBuf out = alloc.heapBuffer(LENGTH_SIZE + length, LENGTH_SIZE + length);
+            out.writeInt(length);
+            while (!deflater.finished()) {
+                if (!out.isWritable()) {
+                    out.release();
+                    return null;
+                }
+                int n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                out.writerIndex(out.writerIndex() + n);
+            }
+            return out;
+        }
+
+        @Override
+        protected void doDecompress(ByteBuf in, ByteBuf out) throws Exception {
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            int length = in.readableBytes();
+            if (in.hasArray()) {
+                inflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else {
+                byte[] bytes = new byte[length];
+                in.getBytes(in.readerIndex(), bytes);
+                inflater.setInput(bytes);
+            }
+            try {
+                while (!inflater.finished()) {
+                    if (!out.isWritable()) {
+                        throw new CorruptedFrameException("deflate body longer than declared length: " + out.capacity());
+                    }
+                    int n = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new CorruptedFrameException("truncated deflate body");
+                    }
+                    out.writerIndex(out.writerIndex() + n);
+                }
+            } catch (DataFormatException e) {
+                throw new CorruptedFrameException(e);
+            }
+        }
+    },
+
+    /**
+     * snappy (LZ77), 压缩率低于 deflate, 但是压缩和解压快得多, 适合 cpu 敏感的场景
+     * <p>
+     * 按 32K 分块压缩 (每块: 4 字节压缩后长度 + snappy 块), netty Snappy 的哈希表只能记录 short 范围内的偏移
+     */
+    SNAPPY((byte) 0x02) {
+        @Override
+        protected ByteBuf doCompress(ByteBufAllocator alloc, ByteBuf in, int length) {
+            Snappy snappy = SNAPPYS.get();
+            ByteBuf out = alloc.buffer(LENGTH_SIZE + length);
+            out.writeInt(length);
+            int offset = in.readerIndex();
+            int end = offset + length;
+            while (offset < end) {
+                int blockLength = Math.min(SNAPPY_BLOCK_SIZE, end - offset);
+                int lengthIndex = out.writerIndex();
+                out.writeInt(0);
+                snappy.reset();
+                snappy.encode(in.slice(offset, blockLength), out, blockLength);
+                out.setInt(lengthIndex, out.writerIndex() - lengthIndex - LENGTH_SIZE);
+                offset += blockLength;
+
+                if (out.readableBytes() >= LENGTH_SIZE + length) {
+                    out.release();
+                    return null;
+                }
+            }
+            return out;
+        }
+
+        @Override
+        protected void doDecompress(ByteBuf in, ByteBuf out) throws Exception {
+            Snappy snappy = SNAPPYS.get();
+            while (in.isReadable()) {
+                if (in.readableBytes() < LENGTH_SIZE) {
+                    throw new CorruptedFrameException("truncated snappy block");
+                }
+                int blockLength = in.readInt();
+                if (blockLength < 0 || blockLength > in.readableBytes()) {
+                    throw new CorruptedFrameException("invalid snappy block length: " + blockLength);
+                }
+                snappy.reset();
+                try {
+                    snappy.decode(in.readSlice(blockLength), out);
+                } catch (IndexOutOfBoundsException e) {
+                    // out 的 maxCapacity 是声明的原始长度
+                    throw new CorruptedFrameException("snappy body longer than declared length: " + out.maxCapacity());
+                }
+            }
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(Compression.class);
+
+    private static final int LENGTH_SIZE = 4;
+
+    private static final int SNAPPY_BLOCK_SIZE = 32 * 1024;
+
+    private static final FastThreadLocal<Deflater> DEFLATERS = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION);
+        }
+
+        @Override
+        protected void onRemoval(Deflater value) {
+            value.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> INFLATERS = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+
+        @Override
+        protected void onRemoval(Inflater value) {
+            value.end();
+        }
+    };
+
+    private static final FastThreadLocal<Snappy> SNAPPYS = new FastThreadLocal<Snappy>() {
+        @Override
+        protected Snappy initialValue() {
+            return new Snappy();
+        }
+    };
+
+    private final byte code;
+
+    Compression(byte code) {
+        this.code = code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    /**
+     * 压缩 in 中全部可读字节, 不改变 in 的读索引
+     *
+     * @return 压缩后的消息体, 压缩后没有变小时返回 null
+     */
+    public ByteBuf compress(ByteBufAllocator alloc, ByteBuf in) {
+        return doCompress(alloc, in, in.readableBytes());
+    }
+
+    /**
+     * 解压 compress 的结果
+     *
+     * @param maxLength 原始长度上限
+     */
+    public ByteBuf decompress(ByteBufAllocator alloc, ByteBuf in, int maxLength) throws Exception {
+        if (in.readableBytes() < LENGTH_SIZE) {
+            throw new CorruptedFrameException("compressed body too short: " + in.readableBytes());
+        }
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new CorruptedFrameException("decompressed length exceeds " + maxLength + ": " + length);
+        }
+        ByteBuf out = alloc.heapBuffer(length, length);
+        try {
+            doDecompress(in, out);
+            if (out.readableBytes() != length) {
+                throw new CorruptedFrameException("decompressed length mismatch, expect: " + length + ", actual: " + out.readableBytes());
+            }
+            return out;
+        } catch (Exception e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    protected abstract ByteBuf doCompress(ByteBufAllocator alloc, ByteBuf in, int length);
+
+    protected abstract void doDecompress(ByteBuf in, ByteBuf out) throws Exception;
+
+    public static Compression valueOf(byte code) {
+        for (Compression compression : values()) {
+            if (compression.code == code) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    public static Compression parse(String name) {
+        for (Compression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        logger.warn("unknown compression: {}, use {}", name, NONE);
+        return NONE;
+    }
+}
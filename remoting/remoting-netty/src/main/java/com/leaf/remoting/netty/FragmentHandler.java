@@ -0,0 +1,212 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.exception.RemotingTooLongFrameException;
+import com.leaf.remoting.api.payload.ByteHolder;
+import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+
+/**
+ * 大消息分片写出
+ * <p>
+ * 消息体超过 fragmentSize 的消息切成固定大小的分片 (消息体的 retained slice, 不拷贝), 每个分片是一个独立的 v2 帧,
+ * 和原消息使用相同的 invoke id, 由 NettyDecoder 按 invoke id 重新拼接
+ * <p>
+ * 每个连接同一时刻只有一个分片在出站缓冲区中, 上一个分片写入 socket 之后轮转到下一个大消息的分片,
+ * 期间写入的小消息直接进入出站缓冲区, 最多等待一个分片, 多个大消息之间也是轮流写出
+ * <p>
+ * 添加在 NettyEncoder 之后 (出站方向先经过这里), 每个连接一个实例; 对端不支持 v2 时不分片
+ * <p>
+ * 对端拼接分片时按 maxFrameLength 限制消息总长度, 超过的消息在这里直接拒绝, 只有这个消息的写失败
+ *
+ * @author yefei
+ */
+public class FragmentHandler extends ChannelDuplexHandler {
+
+    private final int fragmentSize;
+
+    private final int maxFrameLength;
+
+    /**
+     * 还有分片没有写出的消息, 只在 event loop 中访问
+     */
+    private final ArrayDeque<PendingMessage> pendingMessages = new ArrayDeque<>();
+
+    private boolean writing;
+
+    public FragmentHandler(int fragmentSize) {
+        this(fragmentSize, NettySystemConfig.IO_FRAME_MAX_LENGTH);
+    }
+
+    public FragmentHandler(int fragmentSize, int maxFrameLength) {
+        if (fragmentSize <= 0) {
+            throw new IllegalArgumentException("fragmentSize must be positive: " + fragmentSize);
+        }
+        this.fragmentSize = fragmentSize;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if ((msg instanceof RequestCommand || msg instanceof ResponseCommand)
+                && ((ByteHolder) msg).bodyLength() > fragmentSize
+                && ctx.channel().attr(NettyEncoder.PEER_V2).get() != null) {
+            int bodyLength = ((ByteHolder) msg).bodyLength();
+            if (bodyLength > maxFrameLength - ProtocolHead.HEADER_SIZE) {
+                ReferenceCountUtil.release(msg);
+                promise.setFailure(new EncoderException(new RemotingTooLongFrameException(
+                        "fragmented message length exceeds " + maxFrameLength + ": " + bodyLength)));
+                return;
+            }
+            pendingMessages.offer(new PendingMessage((ByteHolder) msg, promise));
+            writeNext(ctx);
+        } else {
+            ctx.write(msg, promise);
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        failAll(new ClosedChannelException());
+        ctx.close(promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failAll(new ClosedChannelException());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        failAll(new ClosedChannelException());
+    }
+
+    private void writeNext(final ChannelHandlerContext ctx) {
+        if (writing) {
+            return;
+        }
+        final PendingMessage message = pendingMessages.poll();
+        if (message == null) {
+            return;
+        }
+        ByteHolder fragment = message.nextFragment(fragmentSize);
+        final boolean last = message.isDone();
+        if (!last) {
+            // 放到队尾, 和其他大消息轮流写出
+            pendingMessages.offer(message);
+        }
+        writing = true;
+        ctx.writeAndFlush(fragment).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                writing = false;
+                if (!future.isSuccess()) {
+                    pendingMessages.remove(message);
+                    message.fail(future.cause());
+                } else if (last) {
+                    message.succeed();
+                }
+                writeNext(ctx);
+            }
+        });
+    }
+
+    private void failAll(Throwable cause) {
+        PendingMessage message;
+        while ((message = pendingMessages.poll()) != null) {
+            message.fail(cause);
+        }
+    }
+
+    static final class PendingMessage {
+
+        final ByteHolder message;
+
+        final ChannelPromise promise;
+
+        final ByteBuf body;
+
+        int offset;
+
+        boolean released;
+
+        PendingMessage(ByteHolder message, ChannelPromise promise) {
+            this.message = message;
+            this.promise = promise;
+            this.body = message.isBodyBuf() ? message.getBodyBuf() : Unpooled.wrappedBuffer(message.getBody());
+            this.offset = body.readerIndex();
+        }
+
+        boolean isDone() {
+            return offset >= body.writerIndex();
+        }
+
+        ByteHolder nextFragment(int fragmentSize) {
+            boolean first = offset == body.readerIndex();
+            int length = Math.min(fragmentSize, body.writerIndex() - offset);
+            ByteBuf slice = body.retainedSlice(offset, length);
+            offset += length;
+
+            ByteHolder fragment;
+            if (message instanceof RequestCommand) {
+                RequestCommand request = (RequestCommand) message;
+                RequestCommand requestFragment = new RequestCommand(request.getMessageCode(), request.getSerializerCode(),
+                        slice, request.getInvokeId());
+                requestFragment.setDeadline(request.getDeadline());
+                requestFragment.setStatus(request.getStatus());
+                if (first) {
+                    // 路由前缀只跟随第一个分片写出, 解码端收到第一个分片时就更新字典
+                    requestFragment.setRoute(request.getRoute());
+                }
+                fragment = requestFragment;
+            } else {
+                ResponseCommand response = (ResponseCommand) message;
+                ResponseCommand responseFragment = new ResponseCommand(response.getMessageCode(), response.getSerializerCode(),
+                        slice, response.getInvokeId());
+                responseFragment.setStatus(response.getStatus());
+                fragment = responseFragment;
+            }
+            int flags = message.getFlags() | ProtocolHead.FLAG_FRAGMENT;
+            if (isDone()) {
+                flags |= ProtocolHead.FLAG_LAST_FRAGMENT;
+            }
+            fragment.setFlags((byte) flags);
+            return fragment;
+        }
+
+        void succeed() {
+            release();
+            promise.trySuccess();
+        }
+
+        void fail(Throwable cause) {
+            release();
+            promise.tryFailure(cause);
+        }
+
+        private void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (message.isBodyBuf()) {
+                message.release();
+            } else {
+                body.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.payload.RequestCommand;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 服务端单连接上排队和执行中的请求
+ * <p>
+ * 收到消费端的 CANCEL 时: 还在业务线程池队列中的请求不再执行; 已经开始执行的请求标记为取消
+ * (RequestCommand.isCancelled, 由处理器决定是否提前结束), 开启 interrupt 时同时中断执行线程
+ */
+public class InFlightRequests {
+
+    private final ConcurrentMap<Long, Entry> requests = new ConcurrentHashMap<>();
+
+    private final boolean interrupt;
+
+    public InFlightRequests(boolean interrupt) {
+        this.interrupt = interrupt;
+    }
+
+    /**
+     * 请求提交到业务线程池之前调用
+     */
+    public void add(RequestCommand request) {
+        requests.put(request.getInvokeId(), new Entry(request));
+    }
+
+    /**
+     * 业务线程开始处理请求之前调用
+     *
+     * @return 请求已经被取消时返回 false, 不需要再处理
+     */
+    public boolean start(RequestCommand request) {
+        Entry entry = requests.get(request.getInvokeId());
+        if (entry == null) {
+            return !request.isCancelled();
+        }
+        synchronized (entry) {
+            if (request.isCancelled()) {
+                return false;
+            }
+            entry.thread = Thread.currentThread();
+            return true;
+        }
+    }
+
+    /**
+     * 请求处理完成 (或者被丢弃) 之后调用, 必须和 add 成对出现
+     */
+    public void finish(RequestCommand request) {
+        Entry entry = requests.remove(request.getInvokeId());
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            entry.thread = null;
+            // 中断只针对这一个请求, 不能带到线程池的下一个任务
+            if (entry.interrupted) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * @return 请求还在排队或者执行中
+     */
+    public boolean cancel(long invokeId) {
+        Entry entry = requests.get(invokeId);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            entry.request.cancel();
+            if (interrupt && entry.thread != null) {
+                entry.interrupted = true;
+                entry.thread.interrupt();
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    static final class Entry {
+
+        final RequestCommand request;
+
+        Thread thread;
+
+        boolean interrupted;
+
+        Entry(RequestCommand request) {
+            this.request = request;
+        }
+    }
+}
@@ -13,17 +13,21 @@ import com.leaf.remoting.api.exception.RemotingConnectTimeoutException;
 import com.leaf.remoting.api.exception.RemotingException;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.StreamListener;
+import com.leaf.remoting.api.stream.StreamSubscription;
 import com.leaf.remoting.channel.NettyChannelGroup;
 import com.leaf.remoting.netty.event.ChannelEvent;
 import com.leaf.remoting.netty.handler.client.NettyClientHandler;
 import com.leaf.remoting.netty.handler.client.NettyConnectManageHandler;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,11 +46,13 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
 
     private final Bootstrap bootstrap = new Bootstrap();
 
-    private final NettyEncoder encoder = new NettyEncoder();
+    private final NettyEncoder encoder;
 
     private final NettyConnectManageHandler nettyConnectManageHandler;
 
-    private final NioEventLoopGroup nioEventLoopGroupWorker = new NioEventLoopGroup();
+    private final NettyTransport transport;
+
+    private final EventLoopGroup eventLoopGroupWorker;
 
     private final NettyClientConfig config;
 
@@ -58,8 +64,6 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
 
     private final ExecutorService publicExecutorService;
 
-    private final ScheduledExecutorService scanResponseTableExecutorService;
-
     private final ConcurrentMap<UnresolvedAddress, CopyOnWriteArrayList<Connector>> connectorsMap = Maps.newConcurrentMap();
 
     public NettyClient(NettyClientConfig config) {
@@ -69,8 +73,25 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
     public NettyClient(NettyClientConfig config, ChannelEventListener listener) {
         super(config.getClientAsyncSemaphoreValue(), config.getClientOnewaySemaphoreValue());
         this.config = config;
+        this.encoder = new NettyEncoder(config.getCompression(), config.getCompressThreshold(), config.isProtocolV2Enable(),
+                config.getRouteDictionarySize(), config.getMaxFrameLength());
+        if (config.isWriteBatchEnable()) {
+            enableWriteBatch(config.getWriteBatchMaxSize(), config.getWriteBatchLingerMicros());
+        }
+        if (config.getChannelMaxInFlight() > 0) {
+            enableChannelBudget(
+                    config.getChannelMaxInFlight(),
+                    config.getChannelMaxPendingBytes(),
+                    config.getChannelBudgetWaitMillis()
+            );
+        }
+        if (config.isCancelOnTimeout()) {
+            enableCancelOnTimeout();
+        }
         this.channelEventListener = listener;
         this.nettyConnectManageHandler = new NettyConnectManageHandler(this);
+        this.transport = NettyTransport.select(config.getTransport());
+        this.eventLoopGroupWorker = transport.newEventLoopGroup(config.getWorkerThreads());
 
         this.publicExecutorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS, new ThreadFactory() {
 
@@ -83,15 +104,6 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
                 return thread;
             }
         });
-
-        scanResponseTableExecutorService = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setName("SCAN#PRC_RESPONSE#TABLE");
-                return thread;
-            }
-        });
     }
 
     @Override
@@ -133,7 +145,7 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
     @Override
     public ChannelGroup group(UnresolvedAddress address) {
 
-        ChannelGroup group = addressGroups.get(address);
+        ChannelGroup group = addressGroups.get(address.toString());
         if (group == null) {
             ChannelGroup newGroup = new NettyChannelGroup(address);
             group = addressGroups.putIfAbsent(address.toString(), newGroup);
@@ -178,23 +190,47 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
     }
 
 
+    /**
+     * 选不到 channel 时请求不会写出, 这里释放请求的消息体
+     */
+    private Channel next(UnresolvedAddress address, RequestCommand request) {
+        try {
+            return group(address).next();
+        } catch (RuntimeException e) {
+            request.release();
+            throw e;
+        }
+    }
+
     @Override
     public ResponseCommand invokeSync(final UnresolvedAddress address, RequestCommand request, long timeoutMillis)
             throws RemotingException, InterruptedException {
-        return invokeSync0(group(address).next(), request, timeoutMillis, TimeUnit.MILLISECONDS);
+        return invokeSync0(next(address, request), request, timeoutMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void invokeAsync(final UnresolvedAddress address, RequestCommand request,
                             long timeoutMillis, InvokeCallback<ResponseCommand> invokeCallback)
             throws RemotingException, InterruptedException {
-        invokeAsync0(group(address).next(), request, timeoutMillis, TimeUnit.MILLISECONDS, invokeCallback);
+        invokeAsync0(next(address, request), request, timeoutMillis, TimeUnit.MILLISECONDS, invokeCallback);
     }
 
     @Override
     public void invokeOneWay(UnresolvedAddress address, RequestCommand request, long timeoutMillis)
             throws RemotingException, InterruptedException {
-        invokeOneWay0(group(address).next(), request, timeoutMillis, TimeUnit.MILLISECONDS);
+        invokeOneWay0(next(address, request), request, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public StreamSubscription invokeStream(UnresolvedAddress address, RequestCommand request,
+                                           long timeoutMillis, StreamListener listener)
+            throws RemotingException, InterruptedException {
+        return invokeStream0(next(address, request), request, listener);
+    }
+
+    @Override
+    public boolean cancel(long invokeId) {
+        return cancel0(invokeId);
     }
 
     @Override
@@ -210,33 +246,35 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
 
     @Override
     public void start() {
-        bootstrap.group(nioEventLoopGroupWorker)
-                .channel(NioSocketChannel.class)
+        bootstrap.group(eventLoopGroupWorker)
+                .channel(transport.channelClass())
                 .option(ChannelOption.SO_KEEPALIVE, false)
                 .option(ChannelOption.SO_SNDBUF, config.getClientSocketSndBufSize())
                 .option(ChannelOption.SO_RCVBUF, config.getClientSocketRcvBufSize())
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel socketChannel) throws Exception {
+                        if (config.isWriteBatchEnable()) {
+                            // event loop 内一次读循环产生的 flush 合并到 readComplete
+                            socketChannel.pipeline().addLast(new FlushConsolidationHandler(config.getWriteBatchMaxSize()));
+                        }
                         socketChannel.pipeline().addLast(
                                 new IdleStateHandler(0, config.getIdleWriteSeconds(), config.getIdleAllSeconds()),
-                                encoder,
-                                new NettyDecoder(),
+                                encoder
+                        );
+                        if (config.isProtocolV2Enable() && config.getFragmentSize() > 0) {
+                            // 出站方向在 encoder 之前切分大消息
+                            socketChannel.pipeline().addLast(new FragmentHandler(config.getFragmentSize(), config.getMaxFrameLength()));
+                        }
+                        socketChannel.pipeline().addLast(
+                                new NettyDecoder(config.getMaxFrameLength()),
                                 nettyConnectManageHandler
                         );
                     }
                 });
-
-        this.scanResponseTableExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    scanResponseTable();
-                } catch (Throwable e) {
-                    logger.error("scanResponseTable exception", e);
-                }
-            }
-        }, 1000 * 3, 1000, TimeUnit.MILLISECONDS);
+        transport.clientOptions(bootstrap);
 
         if (channelEventListener != null) {
             new Thread(channelEventExecutor).start();
@@ -264,14 +302,12 @@ public class NettyClient extends NettyServiceAbstract implements RemotingClient
 
     @Override
     public void shutdownGracefully() {
-        nioEventLoopGroupWorker.shutdownGracefully().syncUninterruptibly();
+        eventLoopGroupWorker.shutdownGracefully().syncUninterruptibly();
 
         if (publicExecutorService != null) {
             publicExecutorService.shutdown();
         }
-        if (scanResponseTableExecutorService != null) {
-            scanResponseTableExecutorService.shutdown();
-        }
+        timeoutTimer.stop();
 
     }
 }
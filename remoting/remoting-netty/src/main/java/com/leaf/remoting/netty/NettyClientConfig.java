@@ -12,6 +12,33 @@ public class NettyClientConfig {
     private int idleAllSeconds = NettySystemConfig.IO_IDLE_ALL_TIME_SECONDS;
     private int idleWriteSeconds = NettySystemConfig.IO_IDLE_WRITE_TIME_SECONDS;
 
+    private int maxFrameLength = NettySystemConfig.IO_FRAME_MAX_LENGTH;
+
+    private NettyTransport transport = NettyTransport.parse(NettySystemConfig.IO_TRANSPORT);
+    private int workerThreads = NettySystemConfig.IO_WORKER_THREADS;
+
+    private boolean writeBatchEnable = NettySystemConfig.IO_WRITE_BATCH_ENABLE;
+    private int writeBatchMaxSize = NettySystemConfig.IO_WRITE_BATCH_MAX_SIZE;
+    private int writeBatchLingerMicros = NettySystemConfig.IO_WRITE_BATCH_LINGER_MICROS;
+
+    private Compression compression = Compression.parse(NettySystemConfig.IO_COMPRESSION);
+    private int compressThreshold = NettySystemConfig.IO_COMPRESS_THRESHOLD;
+
+    private boolean protocolV2Enable = NettySystemConfig.IO_PROTOCOL_V2_ENABLE;
+
+    private int fragmentSize = NettySystemConfig.IO_FRAGMENT_SIZE;
+
+    private int routeDictionarySize = NettySystemConfig.IO_ROUTE_DICTIONARY_SIZE;
+
+    private boolean cancelOnTimeout = NettySystemConfig.CLIENT_CANCEL_ON_TIMEOUT;
+
+    private int writeBufferLowWaterMark = NettySystemConfig.IO_WRITE_BUFFER_LOW_WATER_MARK;
+    private int writeBufferHighWaterMark = NettySystemConfig.IO_WRITE_BUFFER_HIGH_WATER_MARK;
+
+    private int channelMaxInFlight = NettySystemConfig.CLIENT_CHANNEL_MAX_IN_FLIGHT;
+    private int channelMaxPendingBytes = NettySystemConfig.CLIENT_CHANNEL_MAX_PENDING_BYTES;
+    private long channelBudgetWaitMillis = NettySystemConfig.CLIENT_CHANNEL_BUDGET_WAIT_MILLIS;
+
     private long connectTimeoutMillis = Constants.DEFAULT_CONNECT_TIMEOUT;
 
     private long invokeTimeoutMillis = Constants.DEFAULT_INVOKE_TIMEOUT;
@@ -79,4 +106,140 @@ public class NettyClientConfig {
     public void setIdleWriteSeconds(int idleWriteSeconds) {
         this.idleWriteSeconds = idleWriteSeconds;
     }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public NettyTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(NettyTransport transport) {
+        this.transport = transport;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public boolean isWriteBatchEnable() {
+        return writeBatchEnable;
+    }
+
+    public void setWriteBatchEnable(boolean writeBatchEnable) {
+        this.writeBatchEnable = writeBatchEnable;
+    }
+
+    public int getWriteBatchMaxSize() {
+        return writeBatchMaxSize;
+    }
+
+    public void setWriteBatchMaxSize(int writeBatchMaxSize) {
+        this.writeBatchMaxSize = writeBatchMaxSize;
+    }
+
+    public int getWriteBatchLingerMicros() {
+        return writeBatchLingerMicros;
+    }
+
+    public void setWriteBatchLingerMicros(int writeBatchLingerMicros) {
+        this.writeBatchLingerMicros = writeBatchLingerMicros;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public int getChannelMaxInFlight() {
+        return channelMaxInFlight;
+    }
+
+    public void setChannelMaxInFlight(int channelMaxInFlight) {
+        this.channelMaxInFlight = channelMaxInFlight;
+    }
+
+    public int getChannelMaxPendingBytes() {
+        return channelMaxPendingBytes;
+    }
+
+    public void setChannelMaxPendingBytes(int channelMaxPendingBytes) {
+        this.channelMaxPendingBytes = channelMaxPendingBytes;
+    }
+
+    public long getChannelBudgetWaitMillis() {
+        return channelBudgetWaitMillis;
+    }
+
+    public void setChannelBudgetWaitMillis(long channelBudgetWaitMillis) {
+        this.channelBudgetWaitMillis = channelBudgetWaitMillis;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public boolean isProtocolV2Enable() {
+        return protocolV2Enable;
+    }
+
+    public void setProtocolV2Enable(boolean protocolV2Enable) {
+        this.protocolV2Enable = protocolV2Enable;
+    }
+
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    public void setFragmentSize(int fragmentSize) {
+        this.fragmentSize = fragmentSize;
+    }
+
+    public int getRouteDictionarySize() {
+        return routeDictionarySize;
+    }
+
+    public void setRouteDictionarySize(int routeDictionarySize) {
+        this.routeDictionarySize = routeDictionarySize;
+    }
+
+    public boolean isCancelOnTimeout() {
+        return cancelOnTimeout;
+    }
+
+    public void setCancelOnTimeout(boolean cancelOnTimeout) {
+        this.cancelOnTimeout = cancelOnTimeout;
+    }
 }
@@ -3,83 +3,363 @@ package com.leaf.remoting.netty;
 import com.leaf.remoting.api.ProtocolHead;
 import com.leaf.remoting.api.RemotingCommandFactory;
 import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.remoting.api.payload.RequestRoute;
 import com.leaf.remoting.api.payload.ResponseCommand;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.Attribute;
+import io.netty.util.CharsetUtil;
+import io.netty.util.collection.LongObjectHashMap;
 
+import java.util.Arrays;
 import java.util.List;
 
-public class NettyDecoder extends ReplayingDecoder<NettyDecoder.State> {
+/**
+ * 基于 16 字节协议头 (v1) 或者变长协议头 (v2) 的帧解码, 同一个连接上两种版本可以混用
+ * <p>
+ * 协议头和消息体全部到达后才解码, 半包直接返回等待更多数据, 不会重复解析;
+ * bodyLength 超过 maxFrameLength 或 magic 不匹配时丢弃缓冲区并抛出异常, 由 pipeline 关闭连接
+ * <p>
+ * 协议头 status 高两位标记了压缩方式的消息体先解压, 解压后的长度同样不能超过 maxFrameLength
+ * <p>
+ * 收到 v2 帧或者带有 V2_ACCEPT 标记的 v1 请求后, 在 channel 上记录对端支持 v2, 由 NettyEncoder 切换版本并启用压缩等特性
+ * <p>
+ * 带分片标记的 v2 帧 (见 FragmentHandler) 按 invoke id 拼接, 最后一个分片到达后才产生消息,
+ * 拼接后的长度同样不能超过 maxFrameLength; 请求和响应的 invoke id 由不同的一端生成, 分开拼接
+ * <p>
+ * 带 FLAG_DEADLINE 的请求, 按解码时的本地时间加上剩余的超时时间设置截止时间
+ * <p>
+ * 带 REQUEST_ROUTE 的请求先读出消息体开头的路由前缀, 按 id 下标从连接的路由字典取回 RequestRoute;
+ * 分片的消息在第一个分片到达时读取, 保证字典的定义先于后续请求的引用生效
+ */
+public class NettyDecoder extends ByteToMessageDecoder {
 
     private final ProtocolHead head = new ProtocolHead();
 
+    private static final int VARINT_INCOMPLETE = -1;
+
+    private final int maxFrameLength;
+
+    private int varIntEnd;
+
+    /**
+     * 未到齐的分片, key 为 invoke id
+     */
+    private final LongObjectHashMap<CompositeByteBuf> requestFragments = new LongObjectHashMap<>();
+
+    private final LongObjectHashMap<CompositeByteBuf> responseFragments = new LongObjectHashMap<>();
+
+    /**
+     * 未到齐的分片消息的路由, key 为 invoke id
+     */
+    private final LongObjectHashMap<RequestRoute> fragmentRoutes = new LongObjectHashMap<>();
+
+    /**
+     * 连接的路由字典, 下标为 id
+     */
+    private RequestRoute[] routes = new RequestRoute[16];
+
     public NettyDecoder() {
-        super(State.HEADER_MAGIC);
+        this(NettySystemConfig.IO_FRAME_MAX_LENGTH);
+    }
+
+    public NettyDecoder(int maxFrameLength) {
+        if (maxFrameLength <= ProtocolHead.HEADER_SIZE) {
+            throw new IllegalArgumentException("maxFrameLength must be greater than header size: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        switch (state()) {
-            case HEADER_MAGIC:
-                checkMagic(in.readShort());
-                checkpoint(State.HEADER_SIGN);
-            case HEADER_SIGN:
-                head.setSign(in.readByte());
-                checkpoint(State.HEADER_STATUS);
-            case HEADER_STATUS:
-                head.setStatus(in.readByte());
-                checkpoint(State.HEADER_ID);
-            case HEADER_ID:
-                head.setInvokeId(in.readLong());
-                checkpoint(State.HEADER_BODY_LENGTH);
-            case HEADER_BODY_LENGTH:
-                head.setBodyLength(in.readInt());
-                checkpoint(State.BODY);
-            case BODY:
-                byte[] body = new byte[head.getBodyLength()];
-                in.readBytes(body);
-                switch (head.getMessageType()) {
-                    case ProtocolHead.REQUEST: {
-                        if (head.getMessageCode() == ProtocolHead.HEARTBEAT)
-                            break;
-                        RequestCommand requestCommand = RemotingCommandFactory.createRequestCommand(
-                                head.getMessageCode(),
-                                head.getSerializerCode(),
-                                body,
-                                head.getInvokeId()
-                        );
-                        out.add(requestCommand);
-                        break;
+        if (in.readableBytes() < 2) {
+            return;
+        }
+        int readerIndex = in.readerIndex();
+
+        short magic = in.getShort(readerIndex);
+        int headerLength;
+        if (magic == ProtocolHead.MAGIC) {
+            headerLength = decodeHeadV1(in, readerIndex);
+        } else if (magic == ProtocolHead.MAGIC_V2) {
+            headerLength = decodeHeadV2(in, readerIndex);
+        } else {
+            in.skipBytes(in.readableBytes());
+            if ((magic & ProtocolHead.MAGIC_PREFIX_MASK) == (ProtocolHead.MAGIC & ProtocolHead.MAGIC_PREFIX_MASK)) {
+                throw new CorruptedFrameException("unsupported protocol version: " + (magic & ProtocolHead.VERSION_MASK));
+            }
+            throw new CorruptedFrameException("unsupported magic: " + Integer.toHexString(magic));
+        }
+        // 协议头不完整
+        if (headerLength < 0) {
+            return;
+        }
+
+        int bodyLength = head.getBodyLength();
+        if (bodyLength < 0 || bodyLength > maxFrameLength - headerLength) {
+            in.skipBytes(in.readableBytes());
+            throw new TooLongFrameException("frame length exceeds " + maxFrameLength + ": " + bodyLength);
+        }
+
+        if (in.readableBytes() < headerLength + bodyLength) {
+            return;
+        }
+        in.skipBytes(headerLength);
+
+        if (head.isV2Accepted()) {
+            Attribute<Boolean> attr = ctx.channel().attr(NettyEncoder.PEER_V2);
+            if (attr.get() == null) {
+                attr.set(Boolean.TRUE);
+            }
+        }
+
+        switch (head.getMessageType()) {
+            case ProtocolHead.REQUEST: {
+                if (head.getMessageCode() == ProtocolHead.HEARTBEAT) {
+                    in.skipBytes(bodyLength);
+                    break;
+                }
+                // 消息体是累积缓冲区的 retained slice, 由 remoting 层处理完后释放
+                ByteBuf body = readBody(ctx, in, bodyLength);
+                RequestRoute route = null;
+                if ((head.getStatus() & ProtocolHead.REQUEST_ROUTE) != 0
+                        && (!head.isFragment() || !requestFragments.containsKey(head.getInvokeId()))) {
+                    route = readRoute(body, in);
+                }
+                if (head.isFragment()) {
+                    if (route != null) {
+                        fragmentRoutes.put(head.getInvokeId(), route);
                     }
-                    case ProtocolHead.RESPONSE: {
-                        ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
-                                head.getMessageCode(),
-                                head.getSerializerCode(),
-                                body,
-                                head.getInvokeId()
-                        );
-                        responseCommand.setStatus(head.getStatus());
-                        out.add(responseCommand);
+                    if ((body = appendFragment(requestFragments, body, in)) == null) {
                         break;
                     }
+                    route = fragmentRoutes.remove(head.getInvokeId());
+                }
+                RequestCommand requestCommand = RemotingCommandFactory.createRequestCommand(
+                        head.getMessageCode(),
+                        head.getSerializerCode(),
+                        body,
+                        head.getInvokeId()
+                );
+                requestCommand.setStatus(head.getResponseStatus());
+                if (route != null) {
+                    requestCommand.setRoute(route);
+                }
+                if (head.hasDeadline()) {
+                    requestCommand.setDeadline(requestCommand.getTimestamp() + head.getTimeoutMillis());
                 }
-                checkpoint(State.HEADER_MAGIC);
+                out.add(requestCommand);
+                break;
+            }
+            case ProtocolHead.RESPONSE: {
+                ByteBuf body = readBody(ctx, in, bodyLength);
+                if (head.isFragment() && (body = appendFragment(responseFragments, body, in)) == null) {
+                    break;
+                }
+                ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
+                        head.getMessageCode(),
+                        head.getSerializerCode(),
+                        body,
+                        head.getInvokeId()
+                );
+                responseCommand.setStatus(head.getResponseStatus());
+                out.add(responseCommand);
+                break;
+            }
+            default:
+                in.skipBytes(bodyLength);
         }
     }
 
-    private void checkMagic(Short magic) {
-        if (magic != ProtocolHead.MAGIC) {
-            throw new UnsupportedOperationException("unsupported magic: " + Integer.toHexString(magic));
+    /**
+     * @return 最后一个分片到达时返回拼接好的消息体, 否则返回 null
+     */
+    private ByteBuf appendFragment(LongObjectHashMap<CompositeByteBuf> fragments, ByteBuf body, ByteBuf in) {
+        long invokeId = head.getInvokeId();
+        CompositeByteBuf message = fragments.get(invokeId);
+        if (message == null) {
+            message = body.alloc().compositeBuffer(Integer.MAX_VALUE);
+            fragments.put(invokeId, message);
+        }
+        message.addComponent(true, body);
+
+        if (message.readableBytes() > maxFrameLength - ProtocolHead.HEADER_SIZE) {
+            fragments.remove(invokeId);
+            int length = message.readableBytes();
+            message.release();
+            in.skipBytes(in.readableBytes());
+            throw new TooLongFrameException("fragmented message length exceeds " + maxFrameLength + ": " + length);
         }
+        if (!head.isLastFragment()) {
+            return null;
+        }
+        fragments.remove(invokeId);
+        return message;
+    }
+
+    /**
+     * 读取消息体开头的路由前缀, 见 ProtocolHead.REQUEST_ROUTE
+     */
+    private RequestRoute readRoute(ByteBuf body, ByteBuf in) {
+        try {
+            int tag = readVarInt(body, body.readerIndex(), body.writerIndex(), "route tag");
+            if (tag == VARINT_INCOMPLETE) {
+                throw new CorruptedFrameException("truncated route prefix");
+            }
+            body.readerIndex(varIntEnd);
+            int id = tag >>> 1;
+            if (tag != 0 && (tag & 1) == 0) {
+                RequestRoute route = id < routes.length ? routes[id] : null;
+                if (route == null) {
+                    throw new CorruptedFrameException("undefined route id: " + id);
+                }
+                return route;
+            }
+            if (id > ProtocolHead.ROUTE_ID_MAX) {
+                throw new CorruptedFrameException("route id exceeds " + ProtocolHead.ROUTE_ID_MAX + ": " + id);
+            }
+            int length = readVarInt(body, body.readerIndex(), body.writerIndex(), "route key length");
+            if (length == VARINT_INCOMPLETE || length > body.writerIndex() - varIntEnd) {
+                throw new CorruptedFrameException("truncated route key");
+            }
+            RequestRoute route = new RequestRoute(body.toString(varIntEnd, length, CharsetUtil.UTF_8));
+            body.readerIndex(varIntEnd + length);
+            if (id > 0) {
+                if (id >= routes.length) {
+                    routes = Arrays.copyOf(routes, Math.min(Math.max(routes.length << 1, id + 1), ProtocolHead.ROUTE_ID_MAX + 1));
+                }
+                routes[id] = route;
+            }
+            return route;
+        } catch (CorruptedFrameException e) {
+            body.release();
+            in.skipBytes(in.readableBytes());
+            throw e;
+        }
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        releaseFragments(requestFragments);
+        releaseFragments(responseFragments);
+        fragmentRoutes.clear();
+    }
+
+    private static void releaseFragments(LongObjectHashMap<CompositeByteBuf> fragments) {
+        for (CompositeByteBuf message : fragments.values()) {
+            message.release();
+        }
+        fragments.clear();
+    }
+
+    private ByteBuf readBody(ChannelHandlerContext ctx, ByteBuf in, int bodyLength) throws Exception {
+        byte compressCode = head.getCompressCode();
+        if (compressCode == Compression.NONE.code()) {
+            return in.readRetainedSlice(bodyLength);
+        }
+        Compression compression = Compression.valueOf(compressCode);
+        if (compression == null) {
+            in.skipBytes(in.readableBytes());
+            throw new CorruptedFrameException("unsupported compression: " + compressCode);
+        }
+        return compression.decompress(ctx.alloc(), in.readSlice(bodyLength), maxFrameLength - ProtocolHead.HEADER_SIZE);
+    }
+
+    /**
+     * @return 协议头长度, 数据不足时返回 -1
+     */
+    private int decodeHeadV1(ByteBuf in, int readerIndex) {
+        if (in.readableBytes() < ProtocolHead.HEADER_SIZE) {
+            return -1;
+        }
+        head.setVersion(ProtocolHead.VERSION_1);
+        head.setSign(in.getByte(readerIndex + 2));
+        head.setStatus(in.getByte(readerIndex + 3));
+        head.setFlags((byte) 0);
+        head.setInvokeId(in.getLong(readerIndex + 4));
+        head.setBodyLength(in.getInt(readerIndex + 12));
+        return ProtocolHead.HEADER_SIZE;
+    }
+
+    /**
+     * @return 协议头长度, 数据不足时返回 -1
+     */
+    private int decodeHeadV2(ByteBuf in, int readerIndex) {
+        int writerIndex = in.writerIndex();
+        if (writerIndex - readerIndex < ProtocolHead.HEADER_V2_MIN_SIZE) {
+            return -1;
+        }
+        int index = readerIndex + 5;
+
+        long invokeId = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (index >= writerIndex) {
+                return -1;
+            }
+            if (shift > 63) {
+                in.skipBytes(in.readableBytes());
+                throw new CorruptedFrameException("malformed varint invoke id");
+            }
+            b = in.getByte(index++);
+            invokeId |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        int bodyLength = readVarInt(in, index, writerIndex, "body length");
+        if (bodyLength == VARINT_INCOMPLETE) {
+            return -1;
+        }
+        index = varIntEnd;
+
+        byte flags = in.getByte(readerIndex + 4);
+        int timeoutMillis = 0;
+        if ((flags & ProtocolHead.FLAG_DEADLINE) != 0) {
+            timeoutMillis = readVarInt(in, index, writerIndex, "timeout");
+            if (timeoutMillis == VARINT_INCOMPLETE) {
+                return -1;
+            }
+            index = varIntEnd;
+        }
+
+        head.setVersion(ProtocolHead.VERSION_2);
+        head.setSign(in.getByte(readerIndex + 2));
+        head.setStatus(in.getByte(readerIndex + 3));
+        head.setFlags(flags);
+        head.setInvokeId(invokeId);
+        head.setBodyLength(bodyLength);
+        head.setTimeoutMillis(timeoutMillis);
+        return index - readerIndex;
     }
 
-    enum State {
-        HEADER_MAGIC,
-        HEADER_SIGN,
-        HEADER_STATUS,
-        HEADER_ID,
-        HEADER_BODY_LENGTH,
-        BODY
+    /**
+     * 读取从 index 开始的非负 varint (最多 5 字节), 结束位置记录在 varIntEnd
+     *
+     * @return 数据不足时返回 VARINT_INCOMPLETE
+     */
+    private int readVarInt(ByteBuf in, int index, int writerIndex, String name) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (index >= writerIndex) {
+                return VARINT_INCOMPLETE;
+            }
+            b = in.getByte(index++);
+            // 第五个字节只剩 3 位, 超出时为负数或者超过 5 个字节
+            if (shift == 28 && (b & 0xF8) != 0) {
+                in.skipBytes(in.readableBytes());
+                throw new CorruptedFrameException("malformed varint " + name);
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        varIntEnd = index;
+        return value;
     }
 }
@@ -5,30 +5,109 @@ import com.leaf.remoting.api.payload.ByteHolder;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
 import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.exception.RemotingTooLongFrameException;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ByteBuf 消息体不拷贝, 协议头和消息体作为两个 ByteBuf 写出 (由 channel 合并成一次 gathering write),
+ * byte[] 消息体和协议头写入同一个 ByteBuf
+ * <p>
+ * 开启压缩时, 超过 compressThreshold 的消息体压缩后写出, 压缩方式记录在协议头 status 的高两位;
+ * 老版本不识别压缩位, 只对已经声明支持 v2 (见 PEER_V2) 的对端压缩
+ * <p>
+ * 开启 v2 时, v1 请求的 status 带上 V2_ACCEPT 标记 (v1 响应不带, 老版本的消费端直接比较响应状态),
+ * 服务端收到该标记后才切换, NettyDecoder 确认对端支持 v2 之后使用变长的 v2 协议头,
+ * ByteHolder 上的 flags (比如 FragmentHandler 设置的分片标记) 写入 v2 协议头;
+ * 带截止时间的请求在 v2 协议头中写入剩余的超时时间, v1 帧不携带
+ * <p>
+ * 带路由键的请求在消息体之前写入路由前缀 (见 ProtocolHead.REQUEST_ROUTE), 每个连接的字典记录在 channel 上,
+ * 只在 event loop 中访问; 压缩时路由前缀和消息体一起压缩. 路由前缀和字典只用于声明过支持 v2 的对端,
+ * 否则该请求写失败 (消息体中没有服务和方法, 不能去掉前缀发送), 连接不受影响
+ * <p>
+ * 超过 maxFrameLength 的帧 (按未压缩的长度, 对端解压时同样检查) 不发送, 只让这个消息的写失败
+ * (RemotingTooLongFrameException), 不会被对端当作错误的帧断开连接; 分片消息的总长度由 FragmentHandler 检查
+ */
 @ChannelHandler.Sharable
-public class NettyEncoder extends MessageToByteEncoder<ByteHolder> {
+public class NettyEncoder extends MessageToMessageEncoder<ByteHolder> {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyEncoder.class);
 
+    private static final byte[] EMPTY_BODY = new byte[]{0};
+
+    /**
+     * 对端支持 v2 协议, 由 NettyDecoder 设置
+     */
+    static final AttributeKey<Boolean> PEER_V2 = AttributeKey.valueOf("leaf.peerV2");
+
+    /**
+     * 连接上已经定义的路由键和 id
+     */
+    static final AttributeKey<Map<String, Integer>> ROUTE_IDS = AttributeKey.valueOf("leaf.routeIds");
+
+    private final Compression compression;
+
+    private final int compressThreshold;
+
+    private final boolean protocolV2;
+
+    private final int routeDictionarySize;
+
+    private final int maxFrameLength;
+
+    public NettyEncoder() {
+        this(Compression.NONE, Integer.MAX_VALUE, false);
+    }
+
+    public NettyEncoder(Compression compression, int compressThreshold, boolean protocolV2) {
+        this(compression, compressThreshold, protocolV2, NettySystemConfig.IO_ROUTE_DICTIONARY_SIZE);
+    }
+
+    public NettyEncoder(Compression compression, int compressThreshold, boolean protocolV2, int routeDictionarySize) {
+        this(compression, compressThreshold, protocolV2, routeDictionarySize, NettySystemConfig.IO_FRAME_MAX_LENGTH);
+    }
+
+    public NettyEncoder(Compression compression, int compressThreshold, boolean protocolV2, int routeDictionarySize,
+                        int maxFrameLength) {
+        this.compression = compression == null ? Compression.NONE : compression;
+        this.compressThreshold = Math.max(compressThreshold, 1);
+        this.protocolV2 = protocolV2;
+        this.routeDictionarySize = Math.min(routeDictionarySize, ProtocolHead.ROUTE_ID_MAX);
+        this.maxFrameLength = maxFrameLength;
+    }
+
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteHolder msg, ByteBuf out) throws Exception {
+    protected void encode(ChannelHandlerContext ctx, ByteHolder msg, List<Object> out) throws Exception {
         try {
+            boolean peerV2 = isPeerV2(ctx.channel());
+            boolean v2 = protocolV2 && peerV2;
             if (msg instanceof RequestCommand) {
-                doEncodeRequest((RequestCommand) msg, out);
+                doEncodeRequest(ctx, peerV2, v2, (RequestCommand) msg, out);
             } else if (msg instanceof ResponseCommand) {
-                doEncodeResponse((ResponseCommand) msg, out);
+                doEncodeResponse(ctx.alloc(), peerV2, v2, (ResponseCommand) msg, out);
             } else {
                 throw new RemotingException("not support byte holder" + msg.getClass());
             }
+        } catch (EncoderException e) {
+            // 只是这个消息不能发送, 由写操作的 promise 通知调用方, 不关闭连接
+            throw e;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             ctx.channel().close().addListener(new ChannelFutureListener() {
@@ -40,47 +119,218 @@ public class NettyEncoder extends MessageToByteEncoder<ByteHolder> {
         }
     }
 
-    private void doEncodeRequest(RequestCommand request, ByteBuf out) {
+    /**
+     * 对端是否声明过支持 v2 协议, 压缩, 路由前缀和取消请求等老版本不识别的特性只发给这样的对端
+     */
+    public static boolean isPeerV2(Channel channel) {
+        return channel.attr(PEER_V2).get() != null;
+    }
+
+    /**
+     * 已经从其它途径 (注册中心, 同一个服务端的其它连接) 知道对端支持 v2, 不需要等待该连接上的声明
+     */
+    public static void setPeerV2(Channel channel) {
+        channel.attr(PEER_V2).set(Boolean.TRUE);
+    }
+
+    private void doEncodeRequest(ChannelHandlerContext ctx, boolean peerV2, boolean v2, RequestCommand request, List<Object> out)
+            throws RemotingException {
         byte sign = ProtocolHead.toSign(
                 ProtocolHead.REQUEST,
                 request.getMessageCode(),
                 request.getSerializerCode()
         );
-        long invokeId = request.getInvokeId();
-        byte[] bytes = request.getBody();
-        if (bytes == null) {
-            bytes = new byte[]{0};
+        long remaining = v2 ? request.remainingMillis() : -1L;
+        byte status = request.getStatus();
+        if (protocolV2 && !v2) {
+            status |= ProtocolHead.V2_ACCEPT;
+        }
+        int routeTag = -1;
+        String routeKey = null;
+        if (request.getRoute() != null) {
+            if (!peerV2) {
+                throw new EncoderException("request route requires a peer that supports protocol v2, invokeId: "
+                        + request.getInvokeId());
+            }
+            routeKey = request.getRoute().getKey();
+            routeTag = routeTag(ctx.channel(), routeKey);
+            if (routeTag != 0 && (routeTag & 1) == 0) {
+                // 引用已经定义的 id, 不再发送路由键
+                routeKey = null;
+            }
+        }
+        try {
+            doEncode(ctx.alloc(), peerV2, v2, sign, status, request.getInvokeId(),
+                    (int) Math.min(remaining, Integer.MAX_VALUE), routeTag, routeKey, request, out);
+        } catch (EncoderException e) {
+            if (routeKey != null && (routeTag & 1) != 0) {
+                // 请求没有写出, 对端没有收到定义, 撤销刚分配的 id (总是最后一个)
+                ctx.channel().attr(ROUTE_IDS).get().remove(routeKey);
+            }
+            throw e;
         }
-        int length = bytes.length;
-
-        out.writeShort(ProtocolHead.MAGIC)
-                .writeByte(sign)
-                .writeByte(0x00)
-                .writeLong(invokeId)
-                .writeInt(length)
-                .writeBytes(bytes);
     }
 
-    private void doEncodeResponse(ResponseCommand response, ByteBuf out) {
+    /**
+     * @return 路由前缀的 tag, 见 ProtocolHead.REQUEST_ROUTE
+     */
+    private int routeTag(Channel channel, String routeKey) {
+        if (routeDictionarySize <= 0) {
+            return 0;
+        }
+        Attribute<Map<String, Integer>> attr = channel.attr(ROUTE_IDS);
+        Map<String, Integer> ids = attr.get();
+        if (ids == null) {
+            ids = new HashMap<>();
+            attr.set(ids);
+        }
+        Integer id = ids.get(routeKey);
+        if (id != null) {
+            return id << 1;
+        }
+        if (ids.size() >= routeDictionarySize) {
+            return 0;
+        }
+        id = ids.size() + 1;
+        ids.put(routeKey, id);
+        return (id << 1) | 1;
+    }
 
+    private void doEncodeResponse(ByteBufAllocator alloc, boolean peerV2, boolean v2, ResponseCommand response, List<Object> out)
+            throws RemotingException {
         byte sign = ProtocolHead.toSign(
                 ProtocolHead.RESPONSE,
                 response.getMessageCode(),
                 response.getSerializerCode()
         );
-        byte status = response.getStatus();
-        long invokeId = response.getInvokeId();
-        byte[] bytes = response.getBody();
-        if (bytes == null) {
-            bytes = new byte[]{0};
-        }
-        int length = bytes.length;
-        out.writeShort(ProtocolHead.MAGIC)
+        doEncode(alloc, peerV2, v2, sign, response.getStatus(), response.getInvokeId(), -1, -1, null, response, out);
+    }
+
+    /**
+     * @param peerV2        对端支持 v2, 只有这时才压缩
+     * @param timeoutMillis 请求剩余的超时时间, < 0 表示没有截止时间
+     * @param routeTag      路由前缀的 tag, < 0 表示没有路由前缀
+     * @param routeKey      需要随路由前缀发送的路由键, 引用已定义的 id 时为 null
+     */
+    private void doEncode(ByteBufAllocator alloc, boolean peerV2, boolean v2, byte sign, byte status, long invokeId,
+                          int timeoutMillis, int routeTag, String routeKey, ByteHolder holder, List<Object> out)
+            throws RemotingException {
+        byte flags = holder.getFlags();
+        if (!v2 && flags != 0) {
+            throw new RemotingException("frame flags require protocol v2: " + flags);
+        }
+        if (timeoutMillis >= 0) {
+            flags |= ProtocolHead.FLAG_DEADLINE;
+        }
+        int headerSize = v2 ? ProtocolHead.HEADER_V2_MAX_SIZE : ProtocolHead.HEADER_SIZE;
+        int prefixLength = routeTag < 0 ? 0 : routePrefixLength(routeTag, routeKey);
+        // 对端按实际的协议头长度检查帧, 解压时按 v1 协议头长度检查, 这里取两者中较严格的
+        long limit = maxFrameLength - Math.max(headerSize, ProtocolHead.HEADER_SIZE);
+        if ((long) prefixLength + holder.bodyLength() > limit) {
+            throw new EncoderException(new RemotingTooLongFrameException("frame length exceeds " + maxFrameLength
+                    + ": " + ((long) prefixLength + holder.bodyLength()) + ", invokeId: " + invokeId));
+        }
+        if (peerV2 && compression != Compression.NONE && prefixLength + holder.bodyLength() >= compressThreshold) {
+            ByteBuf body = holder.isBodyBuf() ? holder.getBodyBuf() : Unpooled.wrappedBuffer(holder.getBody());
+            ByteBuf compressed;
+            if (prefixLength > 0) {
+                ByteBuf prefix = alloc.heapBuffer(prefixLength);
+                writeRoutePrefix(prefix, routeTag, routeKey);
+                ByteBuf prefixed = Unpooled.wrappedBuffer(prefix, body.retainedDuplicate());
+                try {
+                    compressed = compression.compress(alloc, prefixed);
+                } finally {
+                    prefixed.release();
+                }
+            } else {
+                compressed = compression.compress(alloc, body);
+            }
+            if (compressed != null) {
+                ByteBuf head = alloc.ioBuffer(headerSize);
+                writeHead(head, v2, sign, ProtocolHead.toStatus(status, compression.code()), flags, invokeId, compressed.readableBytes(), timeoutMillis);
+                out.add(head);
+                out.add(compressed);
+                return;
+            }
+        }
+        if (holder.isBodyBuf()) {
+            ByteBuf body = holder.getBodyBuf();
+            ByteBuf head = alloc.ioBuffer(headerSize + prefixLength);
+            writeHead(head, v2, sign, status, flags, invokeId, prefixLength + body.readableBytes(), timeoutMillis);
+            if (prefixLength > 0) {
+                writeRoutePrefix(head, routeTag, routeKey);
+            }
+            out.add(head);
+            // holder 会在 encode 之后被释放, 这里的引用交给 channel
+            out.add(body.retain());
+        } else {
+            byte[] bytes = holder.getBody();
+            if (bytes == null) {
+                bytes = EMPTY_BODY;
+            }
+            ByteBuf buf = alloc.ioBuffer(headerSize + prefixLength + bytes.length);
+            writeHead(buf, v2, sign, status, flags, invokeId, prefixLength + bytes.length, timeoutMillis);
+            if (prefixLength > 0) {
+                writeRoutePrefix(buf, routeTag, routeKey);
+            }
+            buf.writeBytes(bytes);
+            out.add(buf);
+        }
+    }
+
+    private void writeHead(ByteBuf out, boolean v2, byte sign, byte status, byte flags, long invokeId, int length,
+                           int timeoutMillis) {
+        if (!v2) {
+            out.writeShort(ProtocolHead.MAGIC)
+                    .writeByte(sign)
+                    .writeByte(status)
+                    .writeLong(invokeId)
+                    .writeInt(length);
+            return;
+        }
+        out.writeShort(ProtocolHead.MAGIC_V2)
                 .writeByte(sign)
                 .writeByte(status)
-                .writeLong(invokeId)
-                .writeInt(length)
-                .writeBytes(bytes);
+                .writeByte(flags);
+        writeVarLong(out, invokeId);
+        writeVarLong(out, length);
+        if ((flags & ProtocolHead.FLAG_DEADLINE) != 0) {
+            writeVarLong(out, timeoutMillis);
+        }
+    }
+
+    private static int routePrefixLength(int routeTag, String routeKey) {
+        int length = varIntSize(routeTag);
+        if (routeKey != null) {
+            int keyLength = ByteBufUtil.utf8Bytes(routeKey);
+            length += varIntSize(keyLength) + keyLength;
+        }
+        return length;
+    }
+
+    private static void writeRoutePrefix(ByteBuf out, int routeTag, String routeKey) {
+        writeVarLong(out, routeTag);
+        if (routeKey != null) {
+            writeVarLong(out, ByteBufUtil.utf8Bytes(routeKey));
+            ByteBufUtil.writeUtf8(out, routeKey);
+        }
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
     }
 
 }
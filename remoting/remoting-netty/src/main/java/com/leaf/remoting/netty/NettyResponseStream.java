@@ -0,0 +1,98 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.exception.RemotingSendRequestException;
+import com.leaf.remoting.api.exception.RemotingTimeoutException;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.ResponseStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端响应流, credit 用信号量表示, 关闭时唤醒等待 credit 的写线程
+ */
+public class NettyResponseStream implements ResponseStream {
+
+    private final NettyServiceAbstract service;
+
+    private final Channel channel;
+
+    private final long invokeId;
+
+    private final Semaphore credits;
+
+    private volatile boolean closed;
+
+    public NettyResponseStream(NettyServiceAbstract service, Channel channel, long invokeId, int window) {
+        this.service = service;
+        this.channel = channel;
+        this.invokeId = invokeId;
+        this.credits = new Semaphore(Math.max(window, 0));
+    }
+
+    @Override
+    public void write(ResponseCommand element, long timeoutMillis) throws RemotingException, InterruptedException {
+        boolean acquired = false;
+        try {
+            acquired = credits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!acquired || closed) {
+                element.release();
+            }
+        }
+        if (closed) {
+            throw new RemotingSendRequestException(channel + " stream closed, invokeId: " + invokeId);
+        }
+        if (!acquired) {
+            throw new RemotingTimeoutException("wait stream credit timeout, invokeId: " + invokeId
+                    + ", channel: " + channel, timeoutMillis);
+        }
+        service.writeAndFlush(channel, element).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    close();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void grant(int n) {
+        if (n > 0 && !closed) {
+            credits.release(n);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || !channel.isActive();
+    }
+
+    @Override
+    public long invokeId() {
+        return invokeId;
+    }
+
+    void close() {
+        if (!closed) {
+            closed = true;
+            // 唤醒等待 credit 的写线程
+            credits.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NettyResponseStream{" +
+                "channel=" + channel +
+                ", invokeId=" + invokeId +
+                ", credits=" + credits.availablePermits() +
+                ", closed=" + closed +
+                '}';
+    }
+}
@@ -8,14 +8,14 @@ import com.leaf.remoting.api.exception.RemotingException;
 import com.leaf.remoting.api.payload.ByteHolder;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.ResponseStream;
 import com.leaf.remoting.netty.event.ChannelEvent;
 import com.leaf.remoting.netty.event.ChannelEventType;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +29,7 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
 
     private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
 
-    private final NettyEncoder encoder = new NettyEncoder();
+    private final NettyEncoder encoder;
 
     private final NettyServerHandler nettyServerHandler = new NettyServerHandler();
 
@@ -37,9 +37,11 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
 
     private final ServerBootstrap serverBootstrap;
 
-    private final NioEventLoopGroup nioEventLoopGroupWorker;
+    private final NettyTransport transport;
 
-    private final NioEventLoopGroup nioEventLoopGroupMain;
+    private final EventLoopGroup eventLoopGroupWorker;
+
+    private final EventLoopGroup eventLoopGroupMain;
 
     private final NettyServerConfig config;
 
@@ -47,8 +49,6 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
 
     private final ExecutorService publicExecutorService;
 
-    private final ScheduledExecutorService scanResponseTableExecutorService;
-
     public NettyServer(NettyServerConfig config) {
         this(config, null);
     }
@@ -56,10 +56,22 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
     public NettyServer(NettyServerConfig config, ChannelEventListener listener) {
         super(config.getServerAsyncSemaphoreValue(), config.getServerOnewaySemaphoreValue());
         this.config = config;
+        this.encoder = new NettyEncoder(config.getCompression(), config.getCompressThreshold(), config.isProtocolV2Enable(),
+                NettySystemConfig.IO_ROUTE_DICTIONARY_SIZE, config.getMaxFrameLength());
+        if (config.isWriteBatchEnable()) {
+            enableWriteBatch(config.getWriteBatchMaxSize(), config.getWriteBatchLingerMicros());
+        }
+        if (config.isReadThrottleEnable()) {
+            enableReadThrottle(config.getChannelMaxPendingRequests());
+        }
+        if (config.isRequestCancelEnable()) {
+            enableRequestCancel(config.isRequestCancelInterrupt());
+        }
         this.channelEventListener = listener;
         this.serverBootstrap = new ServerBootstrap();
-        this.nioEventLoopGroupWorker = new NioEventLoopGroup();
-        this.nioEventLoopGroupMain = new NioEventLoopGroup();
+        this.transport = NettyTransport.select(config.getTransport());
+        this.eventLoopGroupWorker = transport.newEventLoopGroup(config.getWorkerThreads());
+        this.eventLoopGroupMain = transport.newEventLoopGroup(config.getAcceptorThreads());
 
         this.publicExecutorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS, new ThreadFactory() {
 
@@ -72,15 +84,6 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
                 return thread;
             }
         });
-
-        scanResponseTableExecutorService = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setName("SCAN#PRC_RESPONSE#TABLE");
-                return thread;
-            }
-        });
     }
 
     @Override
@@ -98,6 +101,11 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
         invokeAsync0(channel, request, timeoutMillis, TimeUnit.MILLISECONDS, invokeCallback);
     }
 
+    @Override
+    public ResponseStream openStream(Channel channel, long invokeId, int window) {
+        return openStream0(channel, invokeId, window);
+    }
+
     @Override
     public void registerRequestProcess(RequestCommandProcessor requestCommandProcessor, ExecutorService executor) {
         defaultProcessor.setA(requestCommandProcessor);
@@ -107,48 +115,57 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
     @Override
     public void start() {
 
-        serverBootstrap.group(nioEventLoopGroupMain, nioEventLoopGroupWorker)
-                .channel(NioServerSocketChannel.class)
+        boolean reusePort = config.isReusePort() && transport.isReusePortSupported();
+
+        serverBootstrap.group(eventLoopGroupMain, eventLoopGroupWorker)
+                .channel(transport.serverChannelClass())
                 .option(ChannelOption.SO_BACKLOG, 32768)
                 .childOption(ChannelOption.SO_KEEPALIVE, false)
                 .childOption(ChannelOption.SO_SNDBUF, config.getServerSocketSndBufSize())
                 .childOption(ChannelOption.SO_RCVBUF, config.getServerSocketRcvBufSize())
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel socketChannel) throws Exception {
+                        if (config.isWriteBatchEnable()) {
+                            // event loop 内一次读循环产生的 flush 合并到 readComplete
+                            socketChannel.pipeline().addLast(new FlushConsolidationHandler(config.getWriteBatchMaxSize()));
+                        }
                         socketChannel.pipeline().addLast(
                                 new IdleStateHandler(config.getIdleReadSeconds(), 0, config.getIdleAllSeconds()),
-                                encoder,
-                                new NettyDecoder(),
+                                encoder
+                        );
+                        if (config.isProtocolV2Enable() && config.getFragmentSize() > 0) {
+                            // 出站方向在 encoder 之前切分大消息
+                            socketChannel.pipeline().addLast(new FragmentHandler(config.getFragmentSize(), config.getMaxFrameLength()));
+                        }
+                        socketChannel.pipeline().addLast(
+                                new NettyDecoder(config.getMaxFrameLength()),
                                 nettyConnectManageHandler,
                                 nettyServerHandler
                         );
                     }
                 });
+        transport.serverOptions(serverBootstrap, reusePort);
+
+        // SO_REUSEPORT 时每个 acceptor 线程各绑定一次, 由内核分发连接
+        int bindCount = reusePort ? Math.max(config.getAcceptorThreads(), 1) : 1;
         try {
-            serverBootstrap.bind(config.getPort()).sync().addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) throws Exception {
-                    if (future.isSuccess()) {
-                        logger.info("NettyServer start complete, listen port: {}", config.getPort());
+            for (int i = 0; i < bindCount; i++) {
+                serverBootstrap.bind(config.getPort()).sync().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            logger.info("NettyServer start complete, listen port: {}, transport: {}", config.getPort(), transport);
+                        }
                     }
-                }
-            });
+                });
+            }
         } catch (InterruptedException e) {
             logger.error("NettyServer start error ", e);
         }
 
-        this.scanResponseTableExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    scanResponseTable();
-                } catch (Throwable e) {
-                    logger.error("scanResponseTable exception", e);
-                }
-            }
-        }, 1000 * 3, 1000, TimeUnit.MILLISECONDS);
-
         if (channelEventListener != null) {
             new Thread(channelEventExecutor).start();
         }
@@ -157,6 +174,11 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
     @ChannelHandler.Sharable
     class NettyServerHandler extends SimpleChannelInboundHandler<ByteHolder> {
 
+        NettyServerHandler() {
+            // 消息体的释放交给 processMessageReceived
+            super(false);
+        }
+
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, ByteHolder msg) throws Exception {
             processMessageReceived(ctx, msg);
@@ -201,6 +223,16 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
             }
         }
 
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            // 出站缓冲区越过高/低水位, 暂停或者恢复读取
+            ReadThrottle throttle = readThrottle(ctx.channel());
+            if (throttle != null) {
+                throttle.update();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
         @Override
         public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
             if (evt instanceof IdleStateEvent) {
@@ -263,15 +295,13 @@ public class NettyServer extends NettyServiceAbstract implements RemotingServer
 
     @Override
     public void shutdownGracefully() {
-        nioEventLoopGroupMain.shutdownGracefully().syncUninterruptibly();
-        nioEventLoopGroupWorker.shutdownGracefully().syncUninterruptibly();
+        eventLoopGroupMain.shutdownGracefully().syncUninterruptibly();
+        eventLoopGroupWorker.shutdownGracefully().syncUninterruptibly();
 
         if (publicExecutorService != null) {
             publicExecutorService.shutdownNow();
         }
-        if (scanResponseTableExecutorService != null) {
-            scanResponseTableExecutorService.shutdownNow();
-        }
+        timeoutTimer.stop();
     }
 
 
@@ -15,6 +15,33 @@ public class NettyServerConfig {
     private int serverSocketSndBufSize = NettySystemConfig.socketSndbufSize;
     private int serverSocketRcvBufSize = NettySystemConfig.socketRcvbufSize;
 
+    private int maxFrameLength = NettySystemConfig.IO_FRAME_MAX_LENGTH;
+
+    private NettyTransport transport = NettyTransport.parse(NettySystemConfig.IO_TRANSPORT);
+    private boolean reusePort = NettySystemConfig.IO_REUSE_PORT;
+    private int acceptorThreads = NettySystemConfig.IO_ACCEPTOR_THREADS;
+    private int workerThreads = NettySystemConfig.IO_WORKER_THREADS;
+
+    private boolean writeBatchEnable = NettySystemConfig.IO_WRITE_BATCH_ENABLE;
+    private int writeBatchMaxSize = NettySystemConfig.IO_WRITE_BATCH_MAX_SIZE;
+    private int writeBatchLingerMicros = NettySystemConfig.IO_WRITE_BATCH_LINGER_MICROS;
+
+    private Compression compression = Compression.parse(NettySystemConfig.IO_COMPRESSION);
+    private int compressThreshold = NettySystemConfig.IO_COMPRESS_THRESHOLD;
+
+    private boolean protocolV2Enable = NettySystemConfig.IO_PROTOCOL_V2_ENABLE;
+
+    private int fragmentSize = NettySystemConfig.IO_FRAGMENT_SIZE;
+
+    private boolean requestCancelEnable = NettySystemConfig.SERVER_REQUEST_CANCEL_ENABLE;
+    private boolean requestCancelInterrupt = NettySystemConfig.SERVER_REQUEST_CANCEL_INTERRUPT;
+
+    private int writeBufferLowWaterMark = NettySystemConfig.IO_WRITE_BUFFER_LOW_WATER_MARK;
+    private int writeBufferHighWaterMark = NettySystemConfig.IO_WRITE_BUFFER_HIGH_WATER_MARK;
+
+    private boolean readThrottleEnable = NettySystemConfig.SERVER_READ_THROTTLE_ENABLE;
+    private int channelMaxPendingRequests = NettySystemConfig.SERVER_CHANNEL_MAX_PENDING_REQUESTS;
+
     private int port = Constants.DEFAULT_PROVIDER_PORT;
 
     private long invokeTimeoutMillis = 3000L;
@@ -90,4 +117,148 @@ public class NettyServerConfig {
     public void setIdleReadSeconds(int idleReadSeconds) {
         this.idleReadSeconds = idleReadSeconds;
     }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public NettyTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(NettyTransport transport) {
+        this.transport = transport;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public void setAcceptorThreads(int acceptorThreads) {
+        this.acceptorThreads = acceptorThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public boolean isWriteBatchEnable() {
+        return writeBatchEnable;
+    }
+
+    public void setWriteBatchEnable(boolean writeBatchEnable) {
+        this.writeBatchEnable = writeBatchEnable;
+    }
+
+    public int getWriteBatchMaxSize() {
+        return writeBatchMaxSize;
+    }
+
+    public void setWriteBatchMaxSize(int writeBatchMaxSize) {
+        this.writeBatchMaxSize = writeBatchMaxSize;
+    }
+
+    public int getWriteBatchLingerMicros() {
+        return writeBatchLingerMicros;
+    }
+
+    public void setWriteBatchLingerMicros(int writeBatchLingerMicros) {
+        this.writeBatchLingerMicros = writeBatchLingerMicros;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public boolean isReadThrottleEnable() {
+        return readThrottleEnable;
+    }
+
+    public void setReadThrottleEnable(boolean readThrottleEnable) {
+        this.readThrottleEnable = readThrottleEnable;
+    }
+
+    public int getChannelMaxPendingRequests() {
+        return channelMaxPendingRequests;
+    }
+
+    public void setChannelMaxPendingRequests(int channelMaxPendingRequests) {
+        this.channelMaxPendingRequests = channelMaxPendingRequests;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public boolean isProtocolV2Enable() {
+        return protocolV2Enable;
+    }
+
+    public void setProtocolV2Enable(boolean protocolV2Enable) {
+        this.protocolV2Enable = protocolV2Enable;
+    }
+
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    public void setFragmentSize(int fragmentSize) {
+        this.fragmentSize = fragmentSize;
+    }
+
+    public boolean isRequestCancelEnable() {
+        return requestCancelEnable;
+    }
+
+    public void setRequestCancelEnable(boolean requestCancelEnable) {
+        this.requestCancelEnable = requestCancelEnable;
+    }
+
+    public boolean isRequestCancelInterrupt() {
+        return requestCancelInterrupt;
+    }
+
+    public void setRequestCancelInterrupt(boolean requestCancelInterrupt) {
+        this.requestCancelInterrupt = requestCancelInterrupt;
+    }
 }
@@ -3,25 +3,34 @@ package com.leaf.remoting.netty;
 import com.leaf.common.concurrent.SemaphoreReleaseOnce;
 import com.leaf.common.model.Pair;
 import com.leaf.remoting.api.*;
+import com.leaf.remoting.api.channel.ChannelBudget;
 import com.leaf.remoting.api.future.ResponseFuture;
 import com.leaf.remoting.api.payload.ByteHolder;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.ResponseStream;
+import com.leaf.remoting.api.stream.StreamListener;
+import com.leaf.remoting.api.stream.StreamSubscription;
 import com.leaf.remoting.api.exception.RemotingException;
 import com.leaf.remoting.api.exception.RemotingSendRequestException;
 import com.leaf.remoting.api.exception.RemotingTimeoutException;
+import com.leaf.remoting.api.exception.RemotingTooLongFrameException;
 import com.leaf.remoting.api.exception.RemotingTooMuchRequestException;
 import com.leaf.remoting.netty.event.ChannelEvent;
-import com.leaf.serialization.api.Serializer;
-import com.leaf.serialization.api.SerializerFactory;
-import com.leaf.serialization.api.SerializerType;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -29,8 +38,34 @@ public abstract class NettyServiceAbstract {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyServiceAbstract.class);
 
-    protected final ConcurrentMap<Long, ResponseFuture<ResponseCommand>> responseTable =
-            new ConcurrentHashMap(256);
+    private static final AttributeKey<BatchWriteQueue> BATCH_WRITE_QUEUE = AttributeKey.valueOf("leaf.batchWriteQueue");
+
+    private static final AttributeKey<ChannelBudget> CHANNEL_BUDGET = AttributeKey.valueOf("leaf.channelBudget");
+
+    private static final AttributeKey<ReadThrottle> READ_THROTTLE = AttributeKey.valueOf("leaf.readThrottle");
+
+    private static final AttributeKey<InFlightRequests> IN_FLIGHT_REQUESTS = AttributeKey.valueOf("leaf.inFlightRequests");
+
+    private static final AttributeKey<ConcurrentMap<Long, NettyResponseStream>> RESPONSE_STREAMS =
+            AttributeKey.valueOf("leaf.responseStreams");
+
+    private static final AttributeKey<ConcurrentMap<Long, NettyStreamSubscription>> STREAM_SUBSCRIPTIONS =
+            AttributeKey.valueOf("leaf.streamSubscriptions");
+
+    protected final ResponseTable responseTable = new ResponseTable();
+
+    /**
+     * 异步调用的超时, 到期立即失败, 不再依赖定时扫描 responseTable
+     */
+    protected final HashedWheelTimer timeoutTimer = new HashedWheelTimer(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setName("RESPONSE#TIMEOUT#TIMER");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, 10, TimeUnit.MILLISECONDS);
 
     protected final HashMap<Integer/* request code */, Pair<RequestCommandProcessor, ExecutorService>> processorTable =
             new HashMap(64);
@@ -43,11 +78,334 @@ public abstract class NettyServiceAbstract {
 
     protected final ChannelEventExecutor channelEventExecutor = new ChannelEventExecutor();
 
+    private boolean writeBatchEnable;
+
+    private int writeBatchMaxSize;
+
+    private int writeBatchLingerMicros;
+
+    private boolean channelBudgetEnable;
+
+    private int channelMaxInFlight;
+
+    private int channelMaxPendingBytes;
+
+    private long channelBudgetWaitMillis;
+
+    private boolean readThrottleEnable;
+
+    private int channelMaxPendingRequests;
+
+    private boolean requestCancelEnable;
+
+    private boolean requestCancelInterrupt;
+
+    private boolean cancelOnTimeout;
+
     public NettyServiceAbstract(final int permitsAsync, final int permitsOneWay) {
         this.semaphoreAsync = new Semaphore(permitsAsync, true);
         this.semaphoreOneWay = new Semaphore(permitsOneWay, true);
     }
 
+    /**
+     * 开启合并写, 需要在 start 之前调用
+     */
+    protected void enableWriteBatch(int maxBatchSize, int lingerMicros) {
+        this.writeBatchEnable = true;
+        this.writeBatchMaxSize = maxBatchSize;
+        this.writeBatchLingerMicros = lingerMicros;
+    }
+
+    /**
+     * 开启单连接的请求预算 (未完成请求数, 未完成请求字节数), 超出预算时最多等待 waitMillis
+     */
+    protected void enableChannelBudget(int maxInFlight, int maxPendingBytes, long waitMillis) {
+        this.channelBudgetEnable = true;
+        this.channelMaxInFlight = maxInFlight;
+        this.channelMaxPendingBytes = maxPendingBytes;
+        this.channelBudgetWaitMillis = waitMillis;
+    }
+
+    /**
+     * 开启读限流, 连接不可写或者未处理完的请求达到 maxPendingRequests 时暂停读取
+     */
+    protected void enableReadThrottle(int maxPendingRequests) {
+        this.readThrottleEnable = true;
+        this.channelMaxPendingRequests = maxPendingRequests;
+    }
+
+    /**
+     * 服务端开启请求取消, 收到 CANCEL 时丢弃排队中的请求, 标记 (interrupt 为 true 时同时中断) 执行中的请求
+     */
+    protected void enableRequestCancel(boolean interrupt) {
+        this.requestCancelEnable = true;
+        this.requestCancelInterrupt = interrupt;
+    }
+
+    /**
+     * 消费端开启取消通知, 调用超时或者被取消时向服务端发送 CANCEL
+     */
+    protected void enableCancelOnTimeout() {
+        this.cancelOnTimeout = true;
+    }
+
+    protected InFlightRequests inFlightRequests(Channel channel) {
+        if (!requestCancelEnable) {
+            return null;
+        }
+        Attribute<InFlightRequests> attr = channel.attr(IN_FLIGHT_REQUESTS);
+        InFlightRequests requests = attr.get();
+        if (requests == null) {
+            InFlightRequests newRequests = new InFlightRequests(requestCancelInterrupt);
+            requests = attr.setIfAbsent(newRequests);
+            if (requests == null) {
+                requests = newRequests;
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * CANCEL 在 event loop 中处理, 排在它前面的请求已经进入 InFlightRequests
+     */
+    private void processCancel(ChannelHandlerContext ctx, RequestCommand cmd) {
+        try {
+            InFlightRequests requests = ctx.channel().attr(IN_FLIGHT_REQUESTS).get();
+            if (requests != null && requests.cancel(cmd.getInvokeId())) {
+                // 流式响应在等待 credit 时直接唤醒
+                closeResponseStream(ctx.channel(), cmd.getInvokeId());
+                logger.debug("cancel request, invokeId: {}, channel: {}", cmd.getInvokeId(), ctx.channel());
+            }
+        } finally {
+            cmd.release();
+        }
+    }
+
+    /**
+     * 老版本的服务端会把 CANCEL 当作普通请求交给处理器, 只发给声明过支持 v2 的服务端
+     */
+    void sendCancel(Channel channel, long invokeId) {
+        if (!cancelOnTimeout || channel == null || !channel.isActive() || !NettyEncoder.isPeerV2(channel)) {
+            return;
+        }
+        writeAndFlush(channel, RemotingCommandFactory.createCancelCommand(invokeId));
+    }
+
+    /**
+     * 取消等待响应的异步调用, 回调收到 CancellationException
+     */
+    protected boolean cancel0(long invokeId) {
+        ResponseFuture<ResponseCommand> future = responseTable.remove(invokeId);
+        if (future == null) {
+            return false;
+        }
+        future.cancelTimeout();
+        future.release();
+        future.failure(new CancellationException("invoke cancelled, invokeId: " + invokeId));
+        future.complete(null);
+        sendCancel(future.getChannel(), invokeId);
+        if (future.getInvokeCallback() != null) {
+            invokeCallback(null, future);
+        }
+        return true;
+    }
+
+    protected ReadThrottle readThrottle(Channel channel) {
+        if (!readThrottleEnable) {
+            return null;
+        }
+        Attribute<ReadThrottle> attr = channel.attr(READ_THROTTLE);
+        ReadThrottle throttle = attr.get();
+        if (throttle == null) {
+            ReadThrottle newThrottle = new ReadThrottle(channel, channelMaxPendingRequests);
+            throttle = attr.setIfAbsent(newThrottle);
+            if (throttle == null) {
+                throttle = newThrottle;
+            }
+        }
+        return throttle;
+    }
+
+    protected ChannelBudget budget(Channel channel) {
+        if (!channelBudgetEnable) {
+            return null;
+        }
+        Attribute<ChannelBudget> attr = channel.attr(CHANNEL_BUDGET);
+        ChannelBudget budget = attr.get();
+        if (budget == null) {
+            ChannelBudget newBudget = new ChannelBudget(channelMaxInFlight, channelMaxPendingBytes);
+            budget = attr.setIfAbsent(newBudget);
+            if (budget == null) {
+                budget = newBudget;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * @return 占用的字节数, 获取失败时释放请求并抛出异常
+     */
+    private int acquireBudget(ChannelBudget budget, Channel channel, RequestCommand request, long timeout, TimeUnit timeUnit)
+            throws RemotingTooMuchRequestException, InterruptedException {
+        long waitMillis = Math.min(timeUnit.toMillis(timeout), channelBudgetWaitMillis);
+        int permits = budget.tryAcquire(request.bodyLength(), waitMillis, TimeUnit.MILLISECONDS);
+        if (permits < 0) {
+            request.release();
+            throw new RemotingTooMuchRequestException("channel <" + channel + "> too much request, " + budget);
+        }
+        return permits;
+    }
+
+    /**
+     * 服务端打开响应流, 连接关闭时唤醒等待 credit 的写线程
+     */
+    protected ResponseStream openStream0(Channel channel, long invokeId, int window) {
+        NettyResponseStream stream = new NettyResponseStream(this, channel, invokeId, window);
+        responseStreams(channel).put(invokeId, stream);
+        if (!channel.isActive()) {
+            stream.close();
+        }
+        return stream;
+    }
+
+    private ConcurrentMap<Long, NettyResponseStream> responseStreams(final Channel channel) {
+        Attribute<ConcurrentMap<Long, NettyResponseStream>> attr = channel.attr(RESPONSE_STREAMS);
+        ConcurrentMap<Long, NettyResponseStream> streams = attr.get();
+        if (streams == null) {
+            final ConcurrentMap<Long, NettyResponseStream> newStreams = new ConcurrentHashMap<>();
+            streams = attr.setIfAbsent(newStreams);
+            if (streams == null) {
+                streams = newStreams;
+                channel.closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        for (NettyResponseStream stream : newStreams.values()) {
+                            stream.close();
+                        }
+                        newStreams.clear();
+                    }
+                });
+            }
+        }
+        return streams;
+    }
+
+    private void closeResponseStream(Channel channel, long invokeId) {
+        ConcurrentMap<Long, NettyResponseStream> streams = channel.attr(RESPONSE_STREAMS).get();
+        if (streams != null) {
+            NettyResponseStream stream = streams.remove(invokeId);
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * credit 在 event loop 中处理, 不经过业务线程池 (业务线程可能正阻塞在等待 credit 上)
+     */
+    private void processStreamCredit(ChannelHandlerContext ctx, RequestCommand cmd) {
+        try {
+            ConcurrentMap<Long, NettyResponseStream> streams = ctx.channel().attr(RESPONSE_STREAMS).get();
+            NettyResponseStream stream = streams == null ? null : streams.get(cmd.getInvokeId());
+            // 结束之后到达的 credit 直接丢弃
+            if (stream != null && cmd.bodyLength() >= 4) {
+                int credits = cmd.isBodyBuf()
+                        ? cmd.getBodyBuf().getInt(cmd.getBodyBuf().readerIndex())
+                        : ByteBuffer.wrap(cmd.getBody()).getInt();
+                stream.grant(credits);
+            }
+        } finally {
+            cmd.release();
+        }
+    }
+
+    /**
+     * 消费端发起流式调用, 元素和结束帧交给 listener, 连接关闭时回调 onFailure
+     */
+    protected StreamSubscription invokeStream0(final Channel channel, final RequestCommand request, final StreamListener listener) {
+        final long invokeId = request.getInvokeId();
+        final NettyStreamSubscription subscription = new NettyStreamSubscription(this, channel, invokeId, listener);
+        streamSubscriptions(channel).put(invokeId, subscription);
+        writeAndFlush(channel, request).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture channelFuture) throws Exception {
+                if (!channelFuture.isSuccess() && removeStreamSubscription(channel, invokeId) != null) {
+                    logger.warn("send a stream request command to channel <" + channel + "> failed.");
+                    listener.onFailure(new RemotingSendRequestException(channel.toString(), channelFuture.cause()));
+                }
+            }
+        });
+        return subscription;
+    }
+
+    private ConcurrentMap<Long, NettyStreamSubscription> streamSubscriptions(final Channel channel) {
+        Attribute<ConcurrentMap<Long, NettyStreamSubscription>> attr = channel.attr(STREAM_SUBSCRIPTIONS);
+        ConcurrentMap<Long, NettyStreamSubscription> subscriptions = attr.get();
+        if (subscriptions == null) {
+            final ConcurrentMap<Long, NettyStreamSubscription> newSubscriptions = new ConcurrentHashMap<>();
+            subscriptions = attr.setIfAbsent(newSubscriptions);
+            if (subscriptions == null) {
+                subscriptions = newSubscriptions;
+                channel.closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        for (Long invokeId : newSubscriptions.keySet()) {
+                            NettyStreamSubscription subscription = newSubscriptions.remove(invokeId);
+                            if (subscription != null) {
+                                subscription.listener().onFailure(
+                                        new RemotingSendRequestException(channel + " closed, stream invokeId: " + invokeId));
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        return subscriptions;
+    }
+
+    NettyStreamSubscription removeStreamSubscription(Channel channel, long invokeId) {
+        ConcurrentMap<Long, NettyStreamSubscription> subscriptions = channel.attr(STREAM_SUBSCRIPTIONS).get();
+        return subscriptions == null ? null : subscriptions.remove(invokeId);
+    }
+
+    /**
+     * @return 是否属于某个流式调用
+     */
+    private boolean processStreamResponse(ChannelHandlerContext ctx, ResponseCommand cmd) {
+        ConcurrentMap<Long, NettyStreamSubscription> subscriptions = ctx.channel().attr(STREAM_SUBSCRIPTIONS).get();
+        if (subscriptions == null) {
+            return false;
+        }
+        NettyStreamSubscription subscription = cmd.isStreamEnd()
+                ? subscriptions.remove(cmd.getInvokeId())
+                : subscriptions.get(cmd.getInvokeId());
+        if (subscription == null) {
+            return false;
+        }
+        try {
+            subscription.listener().onResponse(cmd);
+        } catch (Throwable t) {
+            logger.error("stream listener error, invokeId: {}", cmd.getInvokeId(), t);
+        }
+        return true;
+    }
+
+    protected ChannelFuture writeAndFlush(Channel channel, Object msg) {
+        if (!writeBatchEnable) {
+            return channel.writeAndFlush(msg);
+        }
+        Attribute<BatchWriteQueue> attr = channel.attr(BATCH_WRITE_QUEUE);
+        BatchWriteQueue queue = attr.get();
+        if (queue == null) {
+            BatchWriteQueue newQueue = new BatchWriteQueue(channel, writeBatchMaxSize, writeBatchLingerMicros);
+            queue = attr.setIfAbsent(newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue.write(msg);
+    }
+
     public void processMessageReceived(ChannelHandlerContext ctx, ByteHolder msg) throws Exception {
         final ByteHolder cmd = msg;
         if (cmd != null) {
@@ -59,109 +417,191 @@ public abstract class NettyServiceAbstract {
         }
     }
 
-    protected void scanResponseTable() {
-        final List<ResponseFuture> responseFutureList = new LinkedList<ResponseFuture>();
-        Iterator<Map.Entry<Long, ResponseFuture<ResponseCommand>>> it = this.responseTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<Long, ResponseFuture<ResponseCommand>> next = it.next();
-            ResponseFuture responseFuture = next.getValue();
-
-            if ((responseFuture.getBeginTimestamp() + responseFuture.getTimeoutMillis() + 1000) <= System.currentTimeMillis()) {
-                it.remove();
-                responseFuture.release();
-                responseFuture.failure(
-                        new RemotingTimeoutException("remove timeout request! timeout:" + responseFuture.getTimeoutMillis()));
-                responseFutureList.add(responseFuture);
-                logger.warn("remove timeout request, {}", responseFuture);
-            }
-        }
-
-        for (ResponseFuture<ResponseCommand> responseFuture : responseFutureList) {
-            try {
-                executeInvokeCallback(responseFuture.result(), responseFuture);
-            } catch (Throwable e) {
-                logger.warn("scanResponseTable, operationComplete Exception", e);
-            }
+    private void processTimeout(long invokeId) {
+        ResponseFuture<ResponseCommand> future = responseTable.remove(invokeId);
+        if (future != null) {
+            future.release();
+            sendCancel(future.getChannel(), invokeId);
+            future.failure(new RemotingTimeoutException("wait response timeout! timeout:" + future.getTimeoutMillis()));
+            logger.warn("remove timeout request, invokeId: {}", invokeId);
+            executeInvokeCallback(null, future);
         }
     }
 
     private void processResponseCommand(ChannelHandlerContext ctx, ResponseCommand cmd) throws Exception {
+        if (cmd.getMessageCode() == ProtocolHead.STREAM_RESPONSE && processStreamResponse(ctx, cmd)) {
+            return;
+        }
         long invokeId = cmd.getInvokeId();
-        ResponseFuture<ResponseCommand> future = responseTable.get(invokeId);
+        ResponseFuture<ResponseCommand> future = responseTable.remove(invokeId);
 
         if (future != null) {
-            responseTable.remove(invokeId);
+            future.cancelTimeout();
             future.complete(cmd);
             future.release();
 
+            // 同步调用的响应由调用方释放, 异步调用在回调执行完之后释放
             if (future.getInvokeCallback() != null) {
                 executeInvokeCallback(cmd, future);
             }
+        } else if (processStreamResponse(ctx, cmd)) {
+            // 流式请求被拒绝时服务端返回的是普通响应
+            return;
         } else {
             logger.warn("receive response, but not matched any request, " + ctx.channel());
             logger.warn(cmd.toString());
+            cmd.release();
         }
     }
 
-    private void executeInvokeCallback(ResponseCommand cmd, ResponseFuture<ResponseCommand> future) {
+    private void executeInvokeCallback(final ResponseCommand cmd, final ResponseFuture<ResponseCommand> future) {
         ExecutorService executorService = publicExecutorService();
         if (executorService != null) {
             try {
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        try {
-                            future.executeInvokeCallback();
-                        } catch (Throwable t) {
-                            logger.error("ResponseCommand:{} executeInvokeCallback error.", cmd, t);
-                        }
+                        invokeCallback(cmd, future);
                     }
                 });
+                return;
             } catch (Exception e) {
                 logger.error("publicExecutor maybe busy.", e);
-                try {
-                    future.executeInvokeCallback();
-                } catch (Throwable t) {
-                    logger.error("ResponseCommand:{} executeInvokeCallback error.", cmd, e);
-                }
-            }
-        } else {
-            try {
-                future.executeInvokeCallback();
-            } catch (Throwable t) {
-                logger.error("ResponseCommand:{} executeInvokeCallback error.", cmd, t);
             }
         }
+        invokeCallback(cmd, future);
     }
 
-    private void processRequestCommand(ChannelHandlerContext ctx, RequestCommand cmd) {
-        Serializer serializer = SerializerFactory.serializer(SerializerType.parse(cmd.getSerializerCode()));
+    private void invokeCallback(ResponseCommand cmd, ResponseFuture<ResponseCommand> future) {
+        try {
+            future.executeInvokeCallback();
+        } catch (Throwable t) {
+            logger.error("ResponseCommand:{} executeInvokeCallback error.", cmd, t);
+        } finally {
+            ReferenceCountUtil.release(cmd);
+        }
+    }
 
+    private void processRequestCommand(ChannelHandlerContext ctx, RequestCommand cmd) {
+        if (cmd.getMessageCode() == ProtocolHead.STREAM_CREDIT) {
+            processStreamCredit(ctx, cmd);
+            return;
+        }
+        if (cmd.getMessageCode() == ProtocolHead.CANCEL) {
+            processCancel(ctx, cmd);
+            return;
+        }
         if (defaultProcessor.getA() != null && defaultProcessor.getB() != null) {
+            final boolean stream = cmd.getMessageCode() == ProtocolHead.STREAM_REQUEST;
+            final ReadThrottle throttle = readThrottle(ctx.channel());
+            if (throttle != null) {
+                throttle.increment();
+            }
+            // 单向调用没有超时, 消费端不会取消
+            final InFlightRequests inFlight = cmd.isOneWay() ? null : inFlightRequests(ctx.channel());
+            if (inFlight != null) {
+                inFlight.add(cmd);
+            }
             try {
                 defaultProcessor.getB().submit(new Runnable() {
                     @Override
                     public void run() {
-                        ResponseCommand responseCommand = defaultProcessor.getA().process(ctx, cmd);
-                        ctx.channel().writeAndFlush(responseCommand);
+                        try {
+                            if (inFlight != null && !inFlight.start(cmd)) {
+                                // 排队期间消费端已经放弃, 不再处理
+                                logger.debug("drop cancelled request, invokeId: {}, channel: {}", cmd.getInvokeId(), ctx.channel());
+                                cmd.release();
+                                return;
+                            }
+                            ResponseCommand responseCommand;
+                            try {
+                                responseCommand = defaultProcessor.getA().process(ctx, cmd);
+                            } finally {
+                                cmd.release();
+                            }
+                            if (responseCommand != null) {
+                                if (cmd.isCancelled()) {
+                                    responseCommand.release();
+                                } else {
+                                    writeResponse(ctx, cmd, responseCommand);
+                                }
+                            }
+                        } finally {
+                            if (inFlight != null) {
+                                inFlight.finish(cmd);
+                            }
+                            if (stream) {
+                                closeResponseStream(ctx.channel(), cmd.getInvokeId());
+                            }
+                            if (throttle != null) {
+                                throttle.decrement();
+                            }
+                        }
                     }
                 });
             } catch (RejectedExecutionException e) {
-                ResponseCommand responseCommand = defaultProcessor.getA().process(ctx, cmd, e);
-                ctx.channel().writeAndFlush(responseCommand);
+                if (inFlight != null) {
+                    inFlight.finish(cmd);
+                }
+                if (throttle != null) {
+                    throttle.decrement();
+                }
+                ResponseCommand responseCommand;
+                try {
+                    responseCommand = defaultProcessor.getA().process(ctx, cmd, e);
+                } finally {
+                    cmd.release();
+                }
+                if (responseCommand != null) {
+                    writeAndFlush(ctx.channel(), responseCommand);
+                }
             }
         } else {
             String message = "[ERROR]system error, request process not register";
             logger.error(ctx.channel() + message);
+            cmd.release();
         }
     }
 
+    /**
+     * 响应超过帧的最大长度时发送端直接拒绝, 改为返回错误响应, 消费端不用等到超时
+     */
+    private void writeResponse(final ChannelHandlerContext ctx, final RequestCommand request, ResponseCommand response) {
+        writeAndFlush(ctx.channel(), response).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    return;
+                }
+                Throwable cause = future.cause();
+                while (cause != null && !(cause instanceof RemotingTooLongFrameException)) {
+                    cause = cause.getCause();
+                }
+                if (cause == null) {
+                    return;
+                }
+                logger.warn("response rejected, invokeId: {}, channel: {}, {}", request.getInvokeId(), ctx.channel(),
+                        cause.getMessage());
+                // 只用到请求的序列化类型和 invoke id, 消息体已经释放
+                ResponseCommand error = defaultProcessor.getA().process(ctx, request, cause);
+                if (error != null) {
+                    writeAndFlush(ctx.channel(), error);
+                }
+            }
+        });
+    }
+
     protected ResponseCommand invokeSync0(final Channel channel, final RequestCommand request, long timeout, TimeUnit timeUnit)
             throws RemotingException, InterruptedException {
         ResponseFuture<ResponseCommand> responseFuture = new ResponseFuture<>(timeUnit.convert(timeout, TimeUnit.MILLISECONDS));
-        responseTable.putIfAbsent(request.getInvokeId(), responseFuture);
+        ChannelBudget budget = budget(channel);
+        if (budget != null) {
+            responseFuture.setBudget(budget, acquireBudget(budget, channel, request, timeout, timeUnit));
+        }
+        responseFuture.setChannel(channel);
+        responseTable.put(request.getInvokeId(), responseFuture);
         try {
-            channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+            writeAndFlush(channel, request).addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture channelFuture) throws Exception {
 
@@ -173,9 +613,16 @@ public abstract class NettyServiceAbstract {
                     }
                 }
             });
-            ResponseCommand response = responseFuture.get(timeout, timeUnit);
+            ResponseCommand response;
+            try {
+                response = responseFuture.get(timeout, timeUnit);
+            } catch (InterruptedException e) {
+                sendCancel(channel, request.getInvokeId());
+                throw e;
+            }
             if (response == null) {
                 if (responseFuture.cause() == null) {
+                    sendCancel(channel, request.getInvokeId());
                     throw new RemotingTimeoutException(channel.remoteAddress().toString(),
                             timeUnit.convert(timeout, TimeUnit.MILLISECONDS));
                 } else {
@@ -185,6 +632,7 @@ public abstract class NettyServiceAbstract {
             return response;
         } finally {
             responseTable.remove(request.getInvokeId());
+            responseFuture.release();
         }
     }
 
@@ -199,29 +647,50 @@ public abstract class NettyServiceAbstract {
                     invokeCallback,
                     semaphoreAsync);
 
-            responseTable.put(request.getInvokeId(), responseFuture);
+            ChannelBudget budget = budget(channel);
+            if (budget != null) {
+                try {
+                    responseFuture.setBudget(budget, acquireBudget(budget, channel, request, timeout, timeUnit));
+                } catch (RemotingException | InterruptedException e) {
+                    responseFuture.release();
+                    throw e;
+                }
+            }
+
+            final long invokeId = request.getInvokeId();
+            responseFuture.setChannel(channel);
+            responseTable.put(invokeId, responseFuture);
+            responseFuture.setTimeout(timeoutTimer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    processTimeout(invokeId);
+                }
+            }, timeout, timeUnit));
 
             try {
-                channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+                writeAndFlush(channel, request).addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture channelFuture) throws Exception {
                         if (!channelFuture.isSuccess()) {
-                            responseTable.remove(request.getInvokeId());
+                            responseTable.remove(invokeId);
+                            responseFuture.cancelTimeout();
+                            responseFuture.failure(channelFuture.cause());
                             responseFuture.complete(null);
                             responseFuture.executeInvokeCallback();
-                            responseFuture.failure(channelFuture.cause());
                             responseFuture.release();
                             logger.warn("send a request command to channel <" + channel + "> failed.");
                         }
                     }
                 });
             } catch (Exception e) {
-                responseTable.remove(request.getInvokeId());
+                responseTable.remove(invokeId);
+                responseFuture.cancelTimeout();
                 responseFuture.release();
                 logger.warn("send a request command to channel <" + channel + "> failed.");
                 throw new RemotingSendRequestException("send request failed", e);
             }
         } else {
+            request.release();
             if (timeout <= 0) {
                 throw new RemotingTooMuchRequestException("invokeAsyncImpl invoke too fast");
             } else {
@@ -241,14 +710,30 @@ public abstract class NettyServiceAbstract {
     protected void invokeOneWay0(final Channel channel, final RequestCommand request, long timeout, TimeUnit timeUnit)
             throws RemotingException, InterruptedException {
         request.markOneWay();
-        if (semaphoreAsync.tryAcquire(timeout, timeUnit)) {
-            SemaphoreReleaseOnce semaphoreReleaseOnce = new SemaphoreReleaseOnce(semaphoreAsync);
+        if (semaphoreOneWay.tryAcquire(timeout, timeUnit)) {
+            final SemaphoreReleaseOnce semaphoreReleaseOnce = new SemaphoreReleaseOnce(semaphoreOneWay);
+            final ChannelBudget budget = budget(channel);
+            final int permits;
+            if (budget != null) {
+                try {
+                    permits = acquireBudget(budget, channel, request, timeout, timeUnit);
+                } catch (RemotingException | InterruptedException e) {
+                    semaphoreReleaseOnce.release();
+                    throw e;
+                }
+            } else {
+                permits = 0;
+            }
             try {
-                channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+                writeAndFlush(channel, request).addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture channelFuture) throws Exception {
 
                         semaphoreReleaseOnce.release();
+                        // 单向调用写出之后就不再占用连接预算
+                        if (budget != null) {
+                            budget.release(permits);
+                        }
                         if (!channelFuture.isSuccess()) {
                             logger.warn("send a request command to channel <" + channel + "> failed.");
                         }
@@ -256,12 +741,16 @@ public abstract class NettyServiceAbstract {
                 });
             } catch (Exception e) {
                 semaphoreReleaseOnce.release();
+                if (budget != null) {
+                    budget.release(permits);
+                }
                 logger.warn("send a request command to channel <" + channel + "> failed.");
                 throw new RemotingSendRequestException("send request failed", e);
             }
         } else {
+            request.release();
             if (timeout <= 0) {
-                throw new RemotingTooMuchRequestException("invokeAsyncImpl invoke too fast");
+                throw new RemotingTooMuchRequestException("invokeOneWay invoke too fast");
             } else {
                 String info =
                         String.format("invokeOneWay tryAcquire semaphore timeout, %dms, waiting thread nums: %d semaphoreOneWay: %d",
@@ -0,0 +1,61 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.RemotingCommandFactory;
+import com.leaf.remoting.api.stream.StreamListener;
+import com.leaf.remoting.api.stream.StreamSubscription;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 消费端的流, credit 通过同一个 channel 发送给服务端
+ */
+public class NettyStreamSubscription implements StreamSubscription {
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyStreamSubscription.class);
+
+    private final NettyServiceAbstract service;
+
+    private final Channel channel;
+
+    private final long invokeId;
+
+    private final StreamListener listener;
+
+    public NettyStreamSubscription(NettyServiceAbstract service, Channel channel, long invokeId, StreamListener listener) {
+        this.service = service;
+        this.channel = channel;
+        this.invokeId = invokeId;
+        this.listener = listener;
+    }
+
+    @Override
+    public void request(int n) {
+        if (n <= 0 || !channel.isActive()) {
+            return;
+        }
+        service.writeAndFlush(channel, RemotingCommandFactory.createStreamCreditCommand(invokeId, n));
+    }
+
+    @Override
+    public void cancel() {
+        if (service.removeStreamSubscription(channel, invokeId) != null) {
+            // 服务端停止生产, 不再等待 credit
+            service.sendCancel(channel, invokeId);
+            logger.debug("cancel stream, invokeId: {}, channel: {}", invokeId, channel);
+        }
+    }
+
+    @Override
+    public long invokeId() {
+        return invokeId;
+    }
+
+    StreamListener listener() {
+        return listener;
+    }
+
+    Channel channel() {
+        return channel;
+    }
+}
@@ -12,6 +12,108 @@ public class NettySystemConfig {
 
     public static final int IO_IDLE_WRITE_TIME_SECONDS = SystemPropertyUtil.getInt("io.all.idle.time.seconds", 30);
 
+    /**
+     * 单个帧 (协议头 + 消息体) 的最大字节数, 分片消息拼接之后也不能超过; 发送端按同一个值拒绝超长的消息,
+     * 两端应该配置相同的值
+     */
+    public static final int IO_FRAME_MAX_LENGTH = SystemPropertyUtil.getInt("io.frame.max.length", 16 * 1024 * 1024);
+
+    /**
+     * 传输层实现: nio (默认), epoll; 配置 epoll 而 native 不可用时回退到 nio
+     */
+    public static final String IO_TRANSPORT = SystemPropertyUtil.get("io.transport", "nio");
+
+    /**
+     * SO_REUSEPORT, 开启后 server 端按 acceptor 线程数多次绑定同一个端口 (仅 epoll)
+     */
+    public static final boolean IO_REUSE_PORT = SystemPropertyUtil.getBoolean("io.reuse.port", false);
+
+    public static final int IO_ACCEPTOR_THREADS = SystemPropertyUtil.getInt("io.acceptor.threads", 1);
+
+    /**
+     * 0 使用 netty 默认线程数 (cpu * 2)
+     */
+    public static final int IO_WORKER_THREADS = SystemPropertyUtil.getInt("io.worker.threads", 0);
+
+    /**
+     * 合并写, 业务线程写出的帧由 event loop 批量 write 后再 flush
+     */
+    public static final boolean IO_WRITE_BATCH_ENABLE = SystemPropertyUtil.getBoolean("io.write.batch.enable", false);
+
+    public static final int IO_WRITE_BATCH_MAX_SIZE = SystemPropertyUtil.getInt("io.write.batch.max.size", 64);
+
+    /**
+     * 第一个帧入队后等待更多帧的时间 (微秒), 0 表示不等待, 只合并已经在队列中的帧
+     */
+    public static final int IO_WRITE_BATCH_LINGER_MICROS = SystemPropertyUtil.getInt("io.write.batch.linger.micros", 0);
+
+    /**
+     * 写缓冲区高低水位, 超过高水位 channel 变为不可写
+     */
+    public static final int IO_WRITE_BUFFER_LOW_WATER_MARK = SystemPropertyUtil.getInt("io.write.buffer.low.water.mark", 32 * 1024);
+
+    public static final int IO_WRITE_BUFFER_HIGH_WATER_MARK = SystemPropertyUtil.getInt("io.write.buffer.high.water.mark", 64 * 1024);
+
+    /**
+     * 单个连接上未完成的请求数和请求字节数上限, in-flight <= 0 表示不限制
+     */
+    public static final int CLIENT_CHANNEL_MAX_IN_FLIGHT = SystemPropertyUtil.getInt("client.channel.max.in.flight", 16384);
+
+    public static final int CLIENT_CHANNEL_MAX_PENDING_BYTES = SystemPropertyUtil.getInt("client.channel.max.pending.bytes", 64 * 1024 * 1024);
+
+    /**
+     * 超出连接预算时的最长等待时间, 0 表示直接失败
+     */
+    public static final int CLIENT_CHANNEL_BUDGET_WAIT_MILLIS = SystemPropertyUtil.getInt("client.channel.budget.wait.millis", 100);
+
+    /**
+     * 消息体压缩方式: none, deflate, snappy, 只压缩超过 io.compress.threshold 字节的消息体;
+     * 只对声明过支持 v2 的对端压缩; 解码端总是按协议头中的标记解压, 与是否开启无关
+     */
+    public static final String IO_COMPRESSION = SystemPropertyUtil.get("io.compression", "none");
+
+    public static final int IO_COMPRESS_THRESHOLD = SystemPropertyUtil.getInt("io.compress.threshold", 4096);
+
+    /**
+     * v2 协议头 (变长 invoke id 和消息体长度), 双方都开启时才会使用; 解码端总是同时支持 v1 和 v2
+     */
+    public static final boolean IO_PROTOCOL_V2_ENABLE = SystemPropertyUtil.getBoolean("io.protocol.v2.enable", true);
+
+    /**
+     * 大消息分片: 超过 io.fragment.size 的消息体按固定大小切分, 不同调用的分片轮流写出, 小消息不会排在大消息后面;
+     * 只在 v2 连接上生效, <= 0 表示不分片
+     */
+    public static final int IO_FRAGMENT_SIZE = SystemPropertyUtil.getInt("io.fragment.size", 64 * 1024);
+
+    /**
+     * 请求路由字典: 每个连接上前 io.route.dictionary.size 个不同的路由键 (服务和方法) 分配整数 id,
+     * 之后的调用只发送 id; 超出的路由键每次都带上完整的字符串, <= 0 表示不使用字典
+     */
+    public static final int IO_ROUTE_DICTIONARY_SIZE = SystemPropertyUtil.getInt("io.route.dictionary.size", 1024);
+
+    /**
+     * 服务端读限流, 连接的出站缓冲区超过高水位或者排队请求过多时暂停读取
+     */
+    public static final boolean SERVER_READ_THROTTLE_ENABLE = SystemPropertyUtil.getBoolean("server.read.throttle.enable", true);
+
+    /**
+     * 单个连接在业务线程池中排队和执行中的请求数上限, 降到一半以下时恢复读取, <= 0 表示只按写缓冲区限流
+     */
+    public static final int SERVER_CHANNEL_MAX_PENDING_REQUESTS = SystemPropertyUtil.getInt("server.channel.max.pending.requests", 1024);
+
+    /**
+     * 服务端处理消费端的 CANCEL: 丢弃还在排队的请求, 标记执行中的请求;
+     * server.request.cancel.interrupt 开启时同时中断执行线程 (业务代码需要能正确处理中断)
+     */
+    public static final boolean SERVER_REQUEST_CANCEL_ENABLE = SystemPropertyUtil.getBoolean("server.request.cancel.enable", true);
+
+    public static final boolean SERVER_REQUEST_CANCEL_INTERRUPT = SystemPropertyUtil.getBoolean("server.request.cancel.interrupt", false);
+
+    /**
+     * 消费端调用超时或者被取消时向服务端发送 CANCEL, 只发给声明过支持 v2 的服务端
+     */
+    public static final boolean CLIENT_CANCEL_ON_TIMEOUT = SystemPropertyUtil.getBoolean("client.cancel.on.timeout", true);
+
     public static int socketSndbufSize = SystemPropertyUtil.getInt("socket.send.buffer.size", 65535);
     public static int socketRcvbufSize = SystemPropertyUtil.getInt("socket.receive.buffer.size", 65535);;
 }
@@ -0,0 +1,142 @@
+package com.leaf.remoting.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 传输层实现, 由 NettyServerConfig/NettyClientConfig 选择, native 传输不可用时自动回退到 NIO
+ *
+ * @author yefei
+ */
+public enum NettyTransport {
+
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads) {
+            return new NioEventLoopGroup(nThreads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+
+    /**
+     * linux native epoll, 边缘触发, 支持 SO_REUSEPORT 多个 acceptor 绑定同一个端口
+     */
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads) {
+            return new EpollEventLoopGroup(nThreads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public boolean isReusePortSupported() {
+            return true;
+        }
+
+        @Override
+        public void serverOptions(ServerBootstrap bootstrap, boolean reusePort) {
+            bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+            if (reusePort) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+        }
+
+        @Override
+        public void clientOptions(Bootstrap bootstrap) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+    public abstract boolean isAvailable();
+
+    /**
+     * @param nThreads 0 使用 netty 默认线程数
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int nThreads);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends Channel> channelClass();
+
+    public boolean isReusePortSupported() {
+        return false;
+    }
+
+    public void serverOptions(ServerBootstrap bootstrap, boolean reusePort) {
+    }
+
+    public void clientOptions(Bootstrap bootstrap) {
+    }
+
+    public static NettyTransport parse(String name) {
+        for (NettyTransport transport : values()) {
+            if (transport.name().equalsIgnoreCase(name)) {
+                return transport;
+            }
+        }
+        logger.warn("unknown transport: {}, use {}", name, NIO);
+        return NIO;
+    }
+
+    /**
+     * 首选的传输不可用时回退到 NIO
+     */
+    public static NettyTransport select(NettyTransport preferred) {
+        if (preferred == null) {
+            return NIO;
+        }
+        if (preferred.isAvailable()) {
+            return preferred;
+        }
+        if (preferred == EPOLL) {
+            logger.warn("transport {} unavailable, fall back to {}", preferred, NIO, Epoll.unavailabilityCause());
+        } else {
+            logger.warn("transport {} unavailable, fall back to {}", preferred, NIO);
+        }
+        return NIO;
+    }
+}
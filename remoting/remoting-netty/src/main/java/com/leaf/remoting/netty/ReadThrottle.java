@@ -0,0 +1,83 @@
+package com.leaf.remoting.netty;
+
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务端单连接的读限流
+ * <p>
+ * 出站缓冲区超过高水位 (channel 不可写) 或者该连接在业务线程池中未处理完的请求达到 maxPending 时关闭 autoRead,
+ * channel 恢复可写并且未处理完的请求降到 maxPending 的一半以下时重新打开, 慢速的消费者不会在 provider 端堆积请求和响应
+ */
+public class ReadThrottle implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadThrottle.class);
+
+    private final Channel channel;
+
+    private final int maxPending;
+
+    private final int resumePending;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * 只在 event loop 中修改
+     */
+    private volatile boolean pausedByPending;
+
+    public ReadThrottle(Channel channel, int maxPending) {
+        this.channel = channel;
+        this.maxPending = maxPending;
+        this.resumePending = maxPending / 2;
+    }
+
+    /**
+     * 请求提交到业务线程池之前调用 (event loop)
+     */
+    public void increment() {
+        if (pending.incrementAndGet() >= maxPending && maxPending > 0) {
+            update();
+        }
+    }
+
+    /**
+     * 请求处理完成 (响应已写出) 后调用, 任意线程
+     */
+    public void decrement() {
+        if (pending.decrementAndGet() <= resumePending && pausedByPending) {
+            channel.eventLoop().execute(this);
+        }
+    }
+
+    public int pending() {
+        return pending.get();
+    }
+
+    @Override
+    public void run() {
+        update();
+    }
+
+    /**
+     * 根据可写状态和未处理完的请求数重新计算 autoRead, 必须在 event loop 中调用
+     */
+    public void update() {
+        if (!pausedByPending && maxPending > 0 && pending.get() >= maxPending) {
+            pausedByPending = true;
+        }
+        // 先置位再检查, 置位之前完成的 decrement 不会错过恢复
+        if (pausedByPending && pending.get() <= resumePending) {
+            pausedByPending = false;
+        }
+
+        boolean autoRead = !pausedByPending && channel.isWritable();
+        if (channel.config().isAutoRead() != autoRead) {
+            channel.config().setAutoRead(autoRead);
+            logger.debug("channel {} autoRead: {}, writable: {}, pending: {}", channel, autoRead, channel.isWritable(), pending.get());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.future.ResponseFuture;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.internal.MathUtil;
+
+/**
+ * invokeId -> ResponseFuture
+ * <p>
+ * 按 invokeId 分段加锁, 每一段是以原生 long 作为 key 的 LongObjectHashMap, 不装箱, 不同段之间没有竞争
+ */
+public class ResponseTable {
+
+    private final LongObjectHashMap<ResponseFuture<ResponseCommand>>[] segments;
+
+    private final int mask;
+
+    public ResponseTable() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ResponseTable(int concurrencyLevel) {
+        int size = MathUtil.findNextPositivePowerOfTwo(Math.max(concurrencyLevel, 1));
+        this.segments = (LongObjectHashMap<ResponseFuture<ResponseCommand>>[]) new LongObjectHashMap<?>[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new LongObjectHashMap<>(64);
+        }
+        this.mask = size - 1;
+    }
+
+    public void put(long invokeId, ResponseFuture<ResponseCommand> future) {
+        LongObjectHashMap<ResponseFuture<ResponseCommand>> segment = segment(invokeId);
+        synchronized (segment) {
+            segment.put(invokeId, future);
+        }
+    }
+
+    public ResponseFuture<ResponseCommand> get(long invokeId) {
+        LongObjectHashMap<ResponseFuture<ResponseCommand>> segment = segment(invokeId);
+        synchronized (segment) {
+            return segment.get(invokeId);
+        }
+    }
+
+    public ResponseFuture<ResponseCommand> remove(long invokeId) {
+        LongObjectHashMap<ResponseFuture<ResponseCommand>> segment = segment(invokeId);
+        synchronized (segment) {
+            return segment.remove(invokeId);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongObjectHashMap<ResponseFuture<ResponseCommand>> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private LongObjectHashMap<ResponseFuture<ResponseCommand>> segment(long invokeId) {
+        int hash = (int) (invokeId ^ (invokeId >>> 32));
+        return segments[hash & mask];
+    }
+}
@@ -33,6 +33,8 @@ public class NettyClientHandler extends SimpleChannelInboundHandler<ByteHolder>
     private ChannelGroup channelGroup;
 
     public NettyClientHandler(Connector connector, Bootstrap bootstrap, NettyClient nettyClient) {
+        // 消息体的释放交给 NettyClient
+        super(false);
         this.connector = connector;
         this.bootstrap = bootstrap;
         this.nettyClient = nettyClient;
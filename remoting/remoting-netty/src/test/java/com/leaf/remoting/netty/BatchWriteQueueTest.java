@@ -0,0 +1,100 @@
+package com.leaf.remoting.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchWriteQueueTest {
+
+    private final AtomicInteger flushes = new AtomicInteger();
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void before() {
+        channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(ChannelHandlerContext ctx) throws Exception {
+                flushes.incrementAndGet();
+                ctx.flush();
+            }
+        });
+        flushes.set(0);
+    }
+
+    @After
+    public void after() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testBatchFlush() {
+        BatchWriteQueue queue = new BatchWriteQueue(channel, 4, 0);
+        List<ChannelFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(queue.write(i));
+        }
+        // 业务线程只入队, 由 event loop 写出
+        assertTrue(channel.outboundMessages().isEmpty());
+
+        channel.runPendingTasks();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, channel.<Integer>readOutbound().intValue());
+            assertTrue(futures.get(i).isSuccess());
+        }
+        assertEquals(3, flushes.get());
+    }
+
+    @Test
+    public void testLinger() throws Exception {
+        BatchWriteQueue queue = new BatchWriteQueue(channel, 16, 20000);
+        ChannelFuture first = queue.write(1);
+        ChannelFuture second = queue.write(2);
+        channel.runPendingTasks();
+        assertTrue(channel.outboundMessages().isEmpty());
+
+        Thread.sleep(50);
+        channel.runPendingTasks();
+        assertEquals(2, channel.outboundMessages().size());
+        assertTrue(first.isSuccess());
+        assertTrue(second.isSuccess());
+        assertEquals(1, flushes.get());
+    }
+
+    @Test
+    public void testWriteAfterRun() {
+        BatchWriteQueue queue = new BatchWriteQueue(channel, 4, 0);
+        queue.write(1);
+        channel.runPendingTasks();
+        ChannelFuture future = queue.write(2);
+        channel.runPendingTasks();
+        assertTrue(future.isSuccess());
+        assertEquals(2, channel.outboundMessages().size());
+        assertEquals(2, flushes.get());
+    }
+
+    @Test
+    public void testClosedChannel() throws Exception {
+        BatchWriteQueue queue = new BatchWriteQueue(channel, 4, 0);
+        channel.close().sync();
+        ByteBuf msg = Unpooled.buffer().writeInt(1);
+        ChannelFuture future = queue.write(msg);
+        channel.runPendingTasks();
+        assertFalse(future.isSuccess());
+        assertTrue(future.cause() instanceof ClosedChannelException);
+        assertEquals(0, msg.refCnt());
+    }
+}
@@ -0,0 +1,81 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.serialization.api.SerializerType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InFlightRequestsTest {
+
+    @Test
+    public void testCancelQueued() {
+        InFlightRequests inFlight = new InFlightRequests(false);
+        RequestCommand request = newRequest();
+        inFlight.add(request);
+        assertEquals(1, inFlight.size());
+
+        assertTrue(inFlight.cancel(request.getInvokeId()));
+        assertTrue(request.isCancelled());
+        // 排队期间已经取消, 业务线程不再处理
+        assertFalse(inFlight.start(request));
+        inFlight.finish(request);
+        assertEquals(0, inFlight.size());
+    }
+
+    @Test
+    public void testCancelUnknown() {
+        InFlightRequests inFlight = new InFlightRequests(false);
+        RequestCommand request = newRequest();
+        inFlight.add(request);
+        inFlight.finish(request);
+
+        assertFalse(inFlight.cancel(request.getInvokeId()));
+        assertFalse(request.isCancelled());
+    }
+
+    @Test
+    public void testCancelRunning() {
+        InFlightRequests inFlight = new InFlightRequests(false);
+        RequestCommand request = newRequest();
+        inFlight.add(request);
+        assertTrue(inFlight.start(request));
+
+        assertTrue(inFlight.cancel(request.getInvokeId()));
+        assertTrue(request.isCancelled());
+        assertFalse(Thread.currentThread().isInterrupted());
+        inFlight.finish(request);
+    }
+
+    @Test
+    public void testCancelRunningInterrupt() {
+        InFlightRequests inFlight = new InFlightRequests(true);
+        RequestCommand request = newRequest();
+        inFlight.add(request);
+        assertTrue(inFlight.start(request));
+
+        assertTrue(inFlight.cancel(request.getInvokeId()));
+        assertTrue(request.isCancelled());
+        assertTrue(Thread.currentThread().isInterrupted());
+        // 中断状态不会带到线程处理的下一个请求
+        inFlight.finish(request);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testNoInterruptBeforeStart() {
+        InFlightRequests inFlight = new InFlightRequests(true);
+        RequestCommand request = newRequest();
+        inFlight.add(request);
+
+        assertTrue(inFlight.cancel(request.getInvokeId()));
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertFalse(inFlight.start(request));
+        inFlight.finish(request);
+    }
+
+    private static RequestCommand newRequest() {
+        return new RequestCommand(ProtocolHead.RPC_REQUEST, SerializerType.PROTO_STUFF.value(), new byte[]{1});
+    }
+}
@@ -0,0 +1,497 @@
+package com.leaf.remoting.netty;
+
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.exception.RemotingTooLongFrameException;
+import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.remoting.api.payload.RequestRoute;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.serialization.api.SerializerType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * NettyEncoder / FragmentHandler 写出的帧交给 NettyDecoder 解码, 检查协议头和解码后的消息
+ */
+public class NettyCodecTest {
+
+    private static final byte SERIALIZER = SerializerType.PROTO_STUFF.value();
+
+    private EmbeddedChannel receiver;
+
+    @Before
+    public void before() {
+        receiver = new EmbeddedChannel(new NettyDecoder(1024 * 1024));
+    }
+
+    @After
+    public void after() {
+        receiver.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder());
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(100), 7L);
+        sender.writeOutbound(request);
+
+        ByteBuf frame = outbound(sender);
+        assertEquals(ProtocolHead.HEADER_SIZE + 100, frame.readableBytes());
+        assertEquals(ProtocolHead.MAGIC, frame.getShort(0));
+
+        RequestCommand decoded = inbound(frame);
+        assertEquals(7L, decoded.getInvokeId());
+        assertArrayEquals(request.getBody(), decoded.getBody());
+        decoded.release();
+
+        // ByteBuf 消息体不拷贝, 和协议头分开写出
+        ResponseCommand response = new ResponseCommand(ProtocolHead.PRC_RESPONSE, SERIALIZER,
+                Unpooled.wrappedBuffer(bytes(200)), 7L);
+        response.setStatus((byte) 0x01);
+        byte[] body = response.getBody();
+        sender.writeOutbound(response);
+        assertEquals(2, sender.outboundMessages().size());
+
+        ResponseCommand decodedResponse = inbound(outbound(sender));
+        assertEquals(7L, decodedResponse.getInvokeId());
+        assertEquals(0x01, decodedResponse.getStatus());
+        assertArrayEquals(body, decodedResponse.getBody());
+        decodedResponse.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testV1RequestAdvertisesV2() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(100), 7L);
+        sender.writeOutbound(request);
+
+        ByteBuf frame = outbound(sender);
+        assertEquals(ProtocolHead.HEADER_SIZE + 100, frame.readableBytes());
+        assertEquals(ProtocolHead.MAGIC, frame.getShort(0));
+        assertTrue((frame.getByte(3) & ProtocolHead.V2_ACCEPT) != 0);
+
+        RequestCommand decoded = inbound(frame);
+        assertEquals(7L, decoded.getInvokeId());
+        assertTrue(NettyEncoder.isPeerV2(receiver));
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testV1ResponseNeverAdvertisesV2() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        sender.writeOutbound(new ResponseCommand(ProtocolHead.PRC_RESPONSE, SERIALIZER, bytes(10), 7L));
+
+        ByteBuf frame = outbound(sender);
+        assertEquals(ProtocolHead.MAGIC, frame.getShort(0));
+        assertEquals(0, frame.getByte(3) & ProtocolHead.V2_ACCEPT);
+
+        ResponseCommand decoded = inbound(frame);
+        assertEquals(7L, decoded.getInvokeId());
+        assertFalse(NettyEncoder.isPeerV2(receiver));
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testHalfFrame() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder());
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(300), 1L << 40);
+        sender.writeOutbound(request);
+
+        ByteBuf frame = outbound(sender);
+        // 协议头和消息体都分开到达
+        int length = frame.readableBytes();
+        for (int i = 0; i < length; i += 3) {
+            boolean decoded = receiver.writeInbound(frame.retainedSlice(i, Math.min(3, length - i)));
+            assertEquals(i + 3 >= length, decoded);
+        }
+        RequestCommand decoded = receiver.readInbound();
+        assertNotNull(decoded);
+        assertEquals(1L << 40, decoded.getInvokeId());
+        assertArrayEquals(request.getBody(), decoded.getBody());
+        decoded.release();
+        frame.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testV2VarInts() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        long[] invokeIds = {0L, 127L, 128L, 1L << 40, Long.MAX_VALUE};
+        int[] bodyLengths = {1, 127, 128, 300, 70000};
+        for (long invokeId : invokeIds) {
+            for (int bodyLength : bodyLengths) {
+                RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(bodyLength), invokeId);
+                sender.writeOutbound(request);
+
+                ByteBuf frame = outbound(sender);
+                assertEquals(ProtocolHead.MAGIC_V2, frame.getShort(0));
+                assertEquals(5 + varIntSize(invokeId) + varIntSize(bodyLength) + bodyLength, frame.readableBytes());
+
+                RequestCommand decoded = inbound(frame);
+                assertEquals(invokeId, decoded.getInvokeId());
+                assertArrayEquals(request.getBody(), decoded.getBody());
+                decoded.release();
+            }
+        }
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testV2HalfFrame() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(300), 1L << 40);
+        sender.writeOutbound(request);
+
+        ByteBuf frame = outbound(sender);
+        // 协议头的 varint 和消息体都分开到达
+        int length = frame.readableBytes();
+        for (int i = 0; i < length; i += 3) {
+            boolean decoded = receiver.writeInbound(frame.retainedSlice(i, Math.min(3, length - i)));
+            assertEquals(i + 3 >= length, decoded);
+        }
+        RequestCommand decoded = receiver.readInbound();
+        assertNotNull(decoded);
+        assertEquals(1L << 40, decoded.getInvokeId());
+        assertArrayEquals(request.getBody(), decoded.getBody());
+        decoded.release();
+        frame.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testDeadline() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        request.setDeadline(System.currentTimeMillis() + 60000L);
+        sender.writeOutbound(request);
+
+        RequestCommand decoded = inbound(outbound(sender));
+        assertTrue(decoded.getDeadline() > System.currentTimeMillis() + 50000L);
+        assertTrue(decoded.getDeadline() <= System.currentTimeMillis() + 60000L);
+        assertFalse(decoded.isExpired());
+        decoded.release();
+
+        // 发送时已经过期的请求, 服务端收到时同样过期, 不再处理
+        RequestCommand expired = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        expired.setDeadline(System.currentTimeMillis() - 1L);
+        sender.writeOutbound(expired);
+
+        decoded = inbound(outbound(sender));
+        assertTrue(decoded.isExpired());
+        assertEquals(0L, decoded.remainingMillis());
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testNoDeadlineOnV1() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        request.setDeadline(System.currentTimeMillis() + 60000L);
+        sender.writeOutbound(request);
+
+        RequestCommand decoded = inbound(outbound(sender));
+        assertEquals(0L, decoded.getDeadline());
+        assertEquals(-1L, decoded.remainingMillis());
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testFragmentReassembly() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true),
+                new FragmentHandler(1024));
+        RequestCommand big = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(5000));
+        big.setRoute(new RequestRoute("com.leaf.Service#call"));
+        RequestCommand small = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        ChannelFuture bigFuture = sender.writeAndFlush(big);
+        sender.writeAndFlush(small);
+        assertTrue(bigFuture.isSuccess());
+
+        int frames = 0;
+        Object msg;
+        while ((msg = sender.readOutbound()) != null) {
+            receiver.writeInbound(msg);
+            frames++;
+        }
+        // 5 个分片各有协议头和消息体两个 ByteBuf, 小消息一个 ByteBuf, 小消息和分片的先后由写出的时机决定
+        assertEquals(11, frames);
+
+        RequestCommand first = receiver.readInbound();
+        RequestCommand second = receiver.readInbound();
+        assertNull(receiver.readInbound());
+        if (first.getInvokeId() == big.getInvokeId()) {
+            RequestCommand tmp = first;
+            first = second;
+            second = tmp;
+        }
+        assertEquals(small.getInvokeId(), first.getInvokeId());
+        assertArrayEquals(small.getBody(), first.getBody());
+        assertEquals(big.getInvokeId(), second.getInvokeId());
+        assertArrayEquals(big.getBody(), second.getBody());
+        assertEquals("com.leaf.Service#call", second.getRoute().getKey());
+        first.release();
+        second.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testNoFragmentToV1Peer() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true),
+                new FragmentHandler(1024));
+        RequestCommand big = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(5000));
+        sender.writeOutbound(big);
+
+        ByteBuf frame = outbound(sender);
+        assertEquals(ProtocolHead.MAGIC, frame.getShort(0));
+        assertEquals(ProtocolHead.HEADER_SIZE + 5000, frame.readableBytes());
+        frame.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testTooLongFrameRejectedByDecoder() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder());
+        sender.writeOutbound(new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(2000)));
+
+        EmbeddedChannel smallReceiver = new EmbeddedChannel(new NettyDecoder(1024));
+        try {
+            smallReceiver.writeInbound(outbound(sender));
+            fail();
+        } catch (TooLongFrameException expected) {
+        }
+        smallReceiver.finishAndReleaseAll();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testRouteDictionary() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true, 16));
+        String key = "com.leaf.Service#call";
+
+        RequestCommand define = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        define.setRoute(new RequestRoute(key));
+        sender.writeOutbound(define);
+        ByteBuf defineFrame = outbound(sender);
+        int defineLength = defineFrame.readableBytes();
+
+        RequestCommand reference = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        reference.setRoute(new RequestRoute(key));
+        sender.writeOutbound(reference);
+        ByteBuf referenceFrame = outbound(sender);
+        // 引用已定义的 id, 只写 1 字节的 tag
+        assertEquals(defineLength - 1 - key.length(), referenceFrame.readableBytes());
+
+        RequestCommand first = inbound(defineFrame);
+        RequestCommand second = inbound(referenceFrame);
+        assertEquals(key, first.getRoute().getKey());
+        assertSame(first.getRoute(), second.getRoute());
+        assertArrayEquals(define.getBody(), first.getBody());
+        assertArrayEquals(reference.getBody(), second.getBody());
+        first.release();
+        second.release();
+
+        RequestCommand other = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        other.setRoute(new RequestRoute("com.leaf.Service#other"));
+        sender.writeOutbound(other);
+        RequestCommand third = inbound(outbound(sender));
+        assertEquals("com.leaf.Service#other", third.getRoute().getKey());
+        assertNotSame(first.getRoute(), third.getRoute());
+        third.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testRouteDictionaryFull() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true, 1));
+        sender.writeOutbound(routed("a"));
+        ReferenceCountUtil.release(inbound(outbound(sender)));
+
+        // 字典已满, 每次都带上路由键
+        for (int i = 0; i < 2; i++) {
+            sender.writeOutbound(routed("b"));
+            ByteBuf frame = outbound(sender);
+            RequestCommand decoded = inbound(frame);
+            assertEquals("b", decoded.getRoute().getKey());
+            decoded.release();
+        }
+        sender.writeOutbound(routed("a"));
+        RequestCommand decoded = inbound(outbound(sender));
+        assertEquals("a", decoded.getRoute().getKey());
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testRouteToV1PeerFailsOnlyThatWrite() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true));
+        ChannelFuture future = sender.writeAndFlush(routed("com.leaf.Service#call"));
+        assertFalse(future.isSuccess());
+        assertTrue(future.cause() instanceof EncoderException);
+        assertTrue(sender.isOpen());
+        assertNull(sender.readOutbound());
+
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        assertTrue(sender.writeAndFlush(request).isSuccess());
+        RequestCommand decoded = inbound(outbound(sender));
+        assertEquals(request.getInvokeId(), decoded.getInvokeId());
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testCompressOnlyToV2Peer() {
+        byte[] body = new byte[4096];
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.DEFLATE, 1, true));
+        sender.writeOutbound(new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, body));
+        ByteBuf frame = outbound(sender);
+        assertEquals(ProtocolHead.MAGIC, frame.getShort(0));
+        assertEquals(0, frame.getByte(3) & ProtocolHead.COMPRESS_MASK);
+        assertEquals(ProtocolHead.HEADER_SIZE + body.length, frame.readableBytes());
+        ReferenceCountUtil.release(inbound(frame));
+
+        NettyEncoder.setPeerV2(sender);
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, body);
+        request.setRoute(new RequestRoute("com.leaf.Service#call"));
+        sender.writeOutbound(request);
+        frame = outbound(sender);
+        assertEquals(ProtocolHead.MAGIC_V2, frame.getShort(0));
+        assertEquals(Compression.DEFLATE.code(), (frame.getByte(3) & ProtocolHead.COMPRESS_MASK) >> ProtocolHead.COMPRESS_SHIFT);
+        assertTrue(frame.readableBytes() < body.length);
+
+        // 路由前缀和消息体一起压缩, 解压后先读路由
+        RequestCommand decoded = inbound(frame);
+        assertEquals("com.leaf.Service#call", decoded.getRoute().getKey());
+        assertArrayEquals(body, decoded.getBody());
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testTooLongFrameFailsOnlyThatWrite() {
+        EmbeddedChannel sender = new EmbeddedChannel(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true, 16, 1024));
+        RequestCommand rejected = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER,
+                Unpooled.wrappedBuffer(bytes(2000)));
+        ChannelFuture future = sender.writeAndFlush(rejected);
+        assertFalse(future.isSuccess());
+        assertTrue(future.cause().getCause() instanceof RemotingTooLongFrameException);
+        assertEquals(0, rejected.refCnt());
+        assertTrue(sender.isOpen());
+        assertNull(sender.readOutbound());
+
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER,
+                bytes(1024 - ProtocolHead.HEADER_SIZE));
+        assertTrue(sender.writeAndFlush(request).isSuccess());
+        EmbeddedChannel smallReceiver = new EmbeddedChannel(new NettyDecoder(1024));
+        smallReceiver.writeInbound(outbound(sender));
+        RequestCommand decoded = smallReceiver.readInbound();
+        assertEquals(request.getInvokeId(), decoded.getInvokeId());
+        decoded.release();
+        smallReceiver.finishAndReleaseAll();
+
+        // 被拒绝的请求分配的路由 id 已经撤销, 下一个请求重新定义
+        NettyEncoder.setPeerV2(sender);
+        RequestCommand routedRejected = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(2000));
+        routedRejected.setRoute(new RequestRoute("com.leaf.Service#call"));
+        assertFalse(sender.writeAndFlush(routedRejected).isSuccess());
+
+        sender.writeOutbound(routed("com.leaf.Service#call"));
+        decoded = inbound(outbound(sender));
+        assertEquals("com.leaf.Service#call", decoded.getRoute().getKey());
+        decoded.release();
+        sender.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testTooLongFragmentedMessageFailsOnlyThatWrite() {
+        EmbeddedChannel sender = v2Sender(new NettyEncoder(Compression.NONE, Integer.MAX_VALUE, true, 16, 1024),
+                new FragmentHandler(256, 1024));
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER,
+                Unpooled.wrappedBuffer(bytes(2000)));
+        ChannelFuture future = sender.writeAndFlush(request);
+        assertFalse(future.isSuccess());
+        assertTrue(future.cause().getCause() instanceof RemotingTooLongFrameException);
+        assertEquals(0, request.refCnt());
+        assertTrue(sender.isOpen());
+        assertNull(sender.readOutbound());
+
+        // 不超过上限的消息照常分片
+        RequestCommand fragmented = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(1000));
+        assertTrue(sender.writeAndFlush(fragmented).isSuccess());
+        EmbeddedChannel smallReceiver = new EmbeddedChannel(new NettyDecoder(1024));
+        Object msg;
+        while ((msg = sender.readOutbound()) != null) {
+            smallReceiver.writeInbound(msg);
+        }
+        RequestCommand decoded = smallReceiver.readInbound();
+        assertArrayEquals(fragmented.getBody(), decoded.getBody());
+        decoded.release();
+        smallReceiver.finishAndReleaseAll();
+        sender.finishAndReleaseAll();
+    }
+
+    /**
+     * 对端已经声明支持 v2
+     */
+    private static EmbeddedChannel v2Sender(ChannelHandler... handlers) {
+        EmbeddedChannel sender = new EmbeddedChannel(handlers);
+        sender.attr(NettyEncoder.PEER_V2).set(Boolean.TRUE);
+        return sender;
+    }
+
+    private static RequestCommand routed(String key) {
+        RequestCommand request = new RequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, bytes(10));
+        request.setRoute(new RequestRoute(key));
+        return request;
+    }
+
+    /**
+     * 把 encoder 写出的 ByteBuf 合并成一个帧
+     */
+    private static ByteBuf outbound(EmbeddedChannel sender) {
+        CompositeByteBuf frame = Unpooled.compositeBuffer();
+        ByteBuf buf;
+        while ((buf = sender.readOutbound()) != null) {
+            frame.addComponent(true, buf);
+        }
+        return frame;
+    }
+
+    private <T> T inbound(ByteBuf frame) {
+        receiver.writeInbound(frame);
+        T msg = receiver.readInbound();
+        assertNotNull(msg);
+        return msg;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int varIntSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
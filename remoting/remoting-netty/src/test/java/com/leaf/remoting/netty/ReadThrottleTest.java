@@ -0,0 +1,85 @@
+package com.leaf.remoting.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReadThrottleTest {
+
+    private EmbeddedChannel channel;
+
+    private ReadThrottle throttle;
+
+    @Before
+    public void before() {
+        channel = new EmbeddedChannel();
+        throttle = new ReadThrottle(channel, 4);
+    }
+
+    @After
+    public void after() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testPauseAndResumeByPending() {
+        for (int i = 0; i < 3; i++) {
+            throttle.increment();
+        }
+        assertTrue(channel.config().isAutoRead());
+
+        throttle.increment();
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(4, throttle.pending());
+
+        // 降到一半以下才恢复
+        throttle.decrement();
+        channel.runPendingTasks();
+        assertFalse(channel.config().isAutoRead());
+
+        throttle.decrement();
+        channel.runPendingTasks();
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(2, throttle.pending());
+    }
+
+    @Test
+    public void testPauseByWritability() {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        throttle.update();
+        assertFalse(channel.config().isAutoRead());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        throttle.update();
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testStayPausedWhileNotWritable() {
+        for (int i = 0; i < 4; i++) {
+            throttle.increment();
+        }
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        for (int i = 0; i < 4; i++) {
+            throttle.decrement();
+        }
+        channel.runPendingTasks();
+        assertFalse(channel.config().isAutoRead());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        throttle.update();
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testDisabled() {
+        ReadThrottle disabled = new ReadThrottle(channel, 0);
+        for (int i = 0; i < 100; i++) {
+            disabled.increment();
+        }
+        assertTrue(channel.config().isAutoRead());
+    }
+}
@@ -48,6 +48,11 @@ public abstract class AbstractProxyFactory {
 
     protected SerializerType serializerType;
 
+    /**
+     * 没有调用 serializerType(...) 指定时, 按服务端声明的序列化类型协商, serializerType 只用于没有声明的服务端
+     */
+    protected boolean negotiateSerializer = true;
+
     protected List<UnresolvedAddress> addresses;
 
     protected LeafClient leafClient;
@@ -126,8 +131,12 @@ public abstract class AbstractProxyFactory {
         return this;
     }
 
+    /**
+     * 固定使用 serializerType, 不再和服务端协商
+     */
     public AbstractProxyFactory serializerType(SerializerType serializerType) {
         this.serializerType = serializerType;
+        this.negotiateSerializer = false;
         return this;
     }
 
@@ -159,6 +168,10 @@ public abstract class AbstractProxyFactory {
                         leafClient.remotingClient()
                                 .group(registerMeta.getAddress())
                                 .setWeight(serviceMeta, registerMeta.getWeight());
+                        // 服务端支持的序列化类型, 调用时协商
+                        if (registerMeta.getSerializerTypes() != null) {
+                            group.setSerializerTypes(registerMeta.getSerializerTypes());
+                        }
                         break;
                     }
                     case REMOVE: {
@@ -187,6 +200,7 @@ public abstract class AbstractProxyFactory {
                 throw new UnsupportedOperationException("dispatchType: " + dispatchType);
         }
         dispatcher.timeoutMillis(timeoutMillis <= 0 ? Constants.DEFAULT_INVOKE_TIMEOUT : timeoutMillis);
+        dispatcher.negotiateSerializer(negotiateSerializer);
         return dispatcher;
     }
 }
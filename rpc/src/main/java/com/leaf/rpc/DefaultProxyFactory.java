@@ -5,10 +5,13 @@ import com.leaf.common.UnresolvedAddress;
 import com.leaf.common.annotation.ServiceInterface;
 import com.leaf.common.constants.Constants;
 import com.leaf.common.model.ServiceMeta;
-import com.leaf.common.utils.Proxies;
 import com.leaf.rpc.consumer.StrategyConfig;
 import com.leaf.rpc.consumer.dispatcher.Dispatcher;
 import com.leaf.rpc.consumer.invoke.DefaultInvoker;
+import com.leaf.rpc.provider.process.RequestWrapper;
+import com.leaf.rpc.provider.process.ResponseWrapper;
+import com.leaf.rpc.stub.Stubs;
+import com.leaf.serialization.api.SerializerFactory;
 
 import java.util.ArrayList;
 
@@ -30,6 +33,10 @@ public class DefaultProxyFactory extends AbstractProxyFactory {
         return defaultProxyFactory;
     }
 
+    /**
+     * byte[]/ByteBuffer 参数默认在调用时拷贝进请求. 设置了 leaf.raw.bytes.zero.copy.threshold 时, 不小于该值的参数直接引用,
+     * 调用方在请求写出之前不能修改它们: 同步调用到返回为止, 异步和单向调用没有写出的通知, 应该传入不再修改的数据
+     */
     @Override
     @SuppressWarnings("unchecked")
     public <T> T newProxy() {
@@ -60,15 +67,22 @@ public class DefaultProxyFactory extends AbstractProxyFactory {
 
         Dispatcher dispatcher = dispatcher(dispatchType, leafClient, loadBalancerType, timeoutMillis);
 
-        return (T) Proxies.getDefault().newProxy(
-                interfaceClass,
-                new DefaultInvoker(
-                        leafClient.application(),
-                        dispatcher,
-                        serviceMeta,
-                        new StrategyConfig(strategy, retries),
-                        invokeType
-                ));
+        DefaultInvoker invoker = new DefaultInvoker(
+                leafClient.application(),
+                dispatcher,
+                serviceMeta,
+                new StrategyConfig(strategy, retries),
+                invokeType,
+                interfaceClass
+        );
+
+        // 提前准备参数和返回值的序列化元数据, 不在第一次调用时构建
+        SerializerFactory.warmUp(RequestWrapper.class);
+        SerializerFactory.warmUp(ResponseWrapper.class);
+        SerializerFactory.warmUpInterface(interfaceClass);
+
+        // 优先使用编译期生成的 stub, 没有时运行时生成同样按方法下标调用的类 (每个接口一次)
+        return (T) Stubs.newStub(interfaceClass, invoker);
     }
 
 
@@ -6,23 +6,29 @@ import com.leaf.remoting.api.InvokeCallback;
 import com.leaf.remoting.api.ResponseStatus;
 import com.leaf.remoting.api.channel.ChannelGroup;
 import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.exception.RemotingTimeoutException;
 import com.leaf.remoting.api.future.ResponseFuture;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.StreamSubscription;
 import com.leaf.rpc.balancer.LoadBalancer;
 import com.leaf.rpc.consumer.LeafClient;
 import com.leaf.rpc.consumer.InvokeType;
 import com.leaf.rpc.consumer.future.DefaultInvokeFuture;
 import com.leaf.rpc.consumer.future.DefaultInvokeFutureGroup;
 import com.leaf.rpc.consumer.future.InvokeFuture;
+import com.leaf.rpc.consumer.stream.StreamIterator;
 import com.leaf.rpc.exector.ProcessThread;
+import com.leaf.rpc.provider.process.RequestMetadata;
 import com.leaf.rpc.provider.process.ResponseWrapper;
+import com.leaf.rpc.provider.process.TypedCodec;
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.api.SerializerFactory;
 import com.leaf.serialization.api.SerializerType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -38,6 +44,7 @@ public abstract class AbstractDispatcher implements Dispatcher {
     private LeafClient leafClient;
     private LoadBalancer loadBalancer;
     private SerializerType serializerType;
+    private boolean negotiateSerializer = true;
 
     public AbstractDispatcher(LeafClient leafClient, SerializerType serializerType) {
         this(leafClient, null, serializerType);
@@ -83,37 +90,116 @@ public abstract class AbstractDispatcher implements Dispatcher {
         return this;
     }
 
-    protected Serializer getSerializer() {
+    @Override
+    public Dispatcher negotiateSerializer(boolean negotiateSerializer) {
+        this.negotiateSerializer = negotiateSerializer;
+        return this;
+    }
+
+    /**
+     * 按服务端的优先顺序, 选择本地也加载了的第一个序列化器;
+     * 不协商或服务端没有声明时使用创建时指定的序列化类型
+     */
+    protected Serializer serializer(ChannelGroup group) {
+        if (negotiateSerializer) {
+            byte[] types = group.getSerializerTypes();
+            if (types != null) {
+                for (byte type : types) {
+                    Serializer serializer = SerializerFactory.find(type);
+                    if (serializer != null) {
+                        return serializer;
+                    }
+                }
+            }
+        }
+        return SerializerFactory.serializer(serializerType);
+    }
+
+    /**
+     * 广播时同一个请求发给所有服务端, 按第一个服务端的优先顺序, 选择所有服务端和本地都支持的第一个序列化器
+     */
+    protected Serializer serializer(ChannelGroup[] groups) {
+        if (negotiateSerializer) {
+            byte[] types = groups[0].getSerializerTypes();
+            if (types != null) {
+                for (byte type : types) {
+                    Serializer serializer = SerializerFactory.find(type);
+                    if (serializer != null && supportedByAll(groups, type)) {
+                        return serializer;
+                    }
+                }
+            }
+        }
         return SerializerFactory.serializer(serializerType);
     }
 
-    protected byte getSerializerCode() {
-        return serializerType.value();
+    private static boolean supportedByAll(ChannelGroup[] groups, byte type) {
+        for (int i = 1; i < groups.length; i++) {
+            byte[] types = groups[i].getSerializerTypes();
+            if (types == null) {
+                return false;
+            }
+            boolean supported = false;
+            for (byte t : types) {
+                if (t == type) {
+                    supported = true;
+                    break;
+                }
+            }
+            if (!supported) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 广播的请求是同一个消息体, 所有服务端都支持 v2 时才使用路由元数据
+     */
+    protected static boolean isPeerV2(ChannelGroup[] groups) {
+        for (ChannelGroup group : groups) {
+            if (!group.isPeerV2()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 服务端使用请求的序列化器编码响应, 按请求的序列化类型解码
+     */
+    private static Serializer serializer(RequestCommand requestCommand) {
+        return SerializerFactory.serializer(SerializerType.parse(requestCommand.getSerializerCode()));
     }
 
     protected <T> InvokeFuture<T> invoke(final RequestCommand requestCommand,
+                                         long timeoutMillis,
                                          final DispatchType dispatchType,
                                          Class<T> returnType,
                                          InvokeType invokeType,
                                          ChannelGroup... channelGroup) throws Throwable {
         InvokeFuture<T> invokeFuture = null;
-        if (RpcContext.getTimeout() > 0L) {
-            this.timeoutMillis = RpcContext.getTimeout();
+        // 参数按签名编码的请求, SUCCESS 响应的返回值按 returnType 解码; 请求写出之后消息体已经释放, 提前判断
+        Class<?> resultType = RequestMetadata.isTypedArgs(requestCommand) ? returnType : null;
+        Serializer serializer = serializer(requestCommand);
+        if (invokeType != InvokeType.ONE_WAY) {
+            // 服务端按截止时间丢弃排队过久的请求, 单向调用没有调用方等待, 不设置截止时间
+            requestCommand.setDeadline(System.currentTimeMillis() + timeoutMillis);
         }
         switch (invokeType) {
             case SYNC: {
                 if (dispatchType == DispatchType.BROADCAST) {
                     throw new UnsupportedOperationException("syncInvoke Unsupported broadcast dispatch!");
                 }
-                invokeFuture = invokeSync(requestCommand, returnType, channelGroup[0]);
+                invokeFuture = invokeSync(requestCommand, serializer, returnType, resultType, timeoutMillis, channelGroup[0]);
                 break;
             }
             case ASYNC: {
-                invokeFuture = invokeAsync(requestCommand, dispatchType, returnType, channelGroup);
+                invokeFuture = invokeAsync(requestCommand, serializer, dispatchType, returnType, resultType, timeoutMillis, channelGroup);
                 break;
             }
             case ONE_WAY: {
-                invokeOneWay(requestCommand, dispatchType, channelGroup);
+                invokeOneWay(requestCommand, dispatchType, timeoutMillis, channelGroup);
                 break;
             }
             default: {
@@ -122,13 +208,51 @@ public abstract class AbstractDispatcher implements Dispatcher {
             }
         }
         if (!(Thread.currentThread() instanceof ProcessThread)) {
-            RpcContext.clearAttachments();
-            RpcContext.resetTimeout();
+            RpcContext.clearInvoke();
         }
         return invokeFuture;
     }
 
-    private <T> InvokeFuture<T> invokeSync(RequestCommand requestCommand, Class<T> returnType, ChannelGroup channelGroup) throws Throwable {
+    protected <T> Iterator<T> invokeStream(final RequestCommand requestCommand,
+                                           long timeoutMillis,
+                                           int window,
+                                           ChannelGroup channelGroup) throws Throwable {
+        StreamIterator<T> iterator = new StreamIterator<>(serializer(requestCommand), window, timeoutMillis);
+        StreamSubscription subscription = leafClient
+                .remotingClient()
+                .invokeStream(channelGroup.remoteAddress(),
+                        requestCommand,
+                        timeoutMillis,
+                        iterator);
+        iterator.subscribe(subscription);
+
+        if (!(Thread.currentThread() instanceof ProcessThread)) {
+            RpcContext.clearInvoke();
+        }
+        return iterator;
+    }
+
+    /**
+     * 本次调用的超时时间: RpcContext 中设置的超时优先; 在业务线程中发起的嵌套调用不超过当前请求剩余的时间
+     * <p>
+     * 在创建请求之前计算, 截止时间已过时直接失败, 不需要释放请求
+     */
+    protected long invokeTimeoutMillis() throws RemotingTimeoutException {
+        Long contextTimeout = RpcContext.getTimeout();
+        long timeout = contextTimeout != null && contextTimeout > 0L ? contextTimeout : this.timeoutMillis;
+        long deadline = RpcContext.getDeadline();
+        if (deadline > 0L) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+                throw new RemotingTimeoutException("deadline exceeded before invoke, exceeded: " + (-remaining) + "(ms)");
+            }
+            timeout = Math.min(timeout, remaining);
+        }
+        return timeout;
+    }
+
+    private <T> InvokeFuture<T> invokeSync(RequestCommand requestCommand, Serializer serializer, Class<T> returnType,
+                                           Class<?> resultType, long timeoutMillis, ChannelGroup channelGroup) throws Throwable {
         InvokeFuture<T> invokeFuture = new DefaultInvokeFuture<>(returnType, timeoutMillis);
         ResponseCommand responseCommand = leafClient
                 .remotingClient()
@@ -136,38 +260,48 @@ public abstract class AbstractDispatcher implements Dispatcher {
                         requestCommand,
                         timeoutMillis);
 
-        ResponseWrapper responseWrapper = getSerializer().deserialize(responseCommand.getBody(), ResponseWrapper.class);
+        ResponseWrapper responseWrapper;
+        try {
+            responseWrapper = TypedCodec.readResponse(serializer, responseCommand, resultType);
+        } finally {
+            responseCommand.release();
+        }
         if (responseCommand.getStatus() == ResponseStatus.SUCCESS.value()) {
             invokeFuture.complete((T) responseWrapper.getResult());
         } else {
-            Throwable throwable = handlerException(responseCommand);
+            Throwable throwable = handlerException(responseCommand, responseWrapper);
             invokeFuture.complete((T) throwable);
         }
         return invokeFuture;
     }
 
-    private <T> InvokeFuture<T> invokeAsync(RequestCommand requestCommand, DispatchType dispatchType, Class<T> returnType, ChannelGroup... channelGroup) throws Throwable {
+    private <T> InvokeFuture<T> invokeAsync(RequestCommand requestCommand, Serializer serializer, DispatchType dispatchType,
+                                            Class<T> returnType, Class<?> resultType, long timeoutMillis,
+                                            ChannelGroup... channelGroup) throws Throwable {
         InvokeFuture<T> invokeFuture = null;
         switch (dispatchType) {
             case ROUND: {
-                invokeFuture = new DefaultInvokeFuture<T>(returnType, timeoutMillis);
+                invokeFuture = new DefaultInvokeFuture<T>(returnType, timeoutMillis,
+                        leafClient.remotingClient(), requestCommand.getInvokeId());
                 leafClient.remotingClient().invokeAsync(
                         channelGroup[0].remoteAddress(),
                         requestCommand,
                         timeoutMillis,
-                        new InvokeAsyncCallback(invokeFuture));
+                        new InvokeAsyncCallback(invokeFuture, serializer, resultType));
                 return invokeFuture;
             }
             case BROADCAST: {
                 DefaultInvokeFuture[] futures = new DefaultInvokeFuture[channelGroup.length];
                 invokeFuture = new DefaultInvokeFutureGroup(futures);
                 for (int i = 0; i < channelGroup.length; i++) {
-                    futures[i] = new DefaultInvokeFuture<T>(returnType, timeoutMillis);
+                    RequestCommand clone = requestCommand.clone();
+                    futures[i] = new DefaultInvokeFuture<T>(returnType, timeoutMillis,
+                            leafClient.remotingClient(), clone.getInvokeId());
                     leafClient.remotingClient().invokeAsync(
                             channelGroup[i].remoteAddress(),
-                            requestCommand.clone(),
+                            clone,
                             timeoutMillis,
-                            new InvokeAsyncCallback(futures[i]));
+                            new InvokeAsyncCallback(futures[i], serializer, resultType));
                 }
                 return invokeFuture;
             }
@@ -180,7 +314,8 @@ public abstract class AbstractDispatcher implements Dispatcher {
 
     }
 
-    private void invokeOneWay(RequestCommand requestCommand, DispatchType dispatchType, ChannelGroup... channelGroup) throws Throwable {
+    private void invokeOneWay(RequestCommand requestCommand, DispatchType dispatchType, long timeoutMillis,
+                              ChannelGroup... channelGroup) throws Throwable {
         switch (dispatchType) {
             case ROUND: {
                 leafClient.remotingClient().invokeOneWay(channelGroup[0].remoteAddress(),
@@ -205,9 +340,8 @@ public abstract class AbstractDispatcher implements Dispatcher {
     }
 
     // 服务端异常 未找到服务，service抛的异常等
-    private Throwable handlerException(ResponseCommand responseCommand) {
+    private Throwable handlerException(ResponseCommand responseCommand, ResponseWrapper responseWrapper) {
         Throwable cause;
-        ResponseWrapper responseWrapper = getSerializer().deserialize(responseCommand.getBody(), ResponseWrapper.class);
 
         if (responseCommand.getStatus() == ResponseStatus.SERVER_ERROR.value()) {
             cause = (Throwable) responseWrapper.getResult();
@@ -221,8 +355,14 @@ public abstract class AbstractDispatcher implements Dispatcher {
 
         private InvokeFuture<Object> future;
 
-        public <T> InvokeAsyncCallback(InvokeFuture<T> future) {
+        private final Serializer serializer;
+
+        private final Class<?> resultType;
+
+        public <T> InvokeAsyncCallback(InvokeFuture<T> future, Serializer serializer, Class<?> resultType) {
             this.future = (InvokeFuture<Object>) future;
+            this.serializer = serializer;
+            this.resultType = resultType;
         }
 
         @Override
@@ -230,12 +370,12 @@ public abstract class AbstractDispatcher implements Dispatcher {
             ResponseCommand responseCommand = responseFuture.result();
 
             if (responseCommand != null) {
+                ResponseWrapper responseWrapper = TypedCodec.readResponse(serializer, responseCommand, resultType);
                 if (responseCommand.getStatus() == ResponseStatus.SUCCESS.value()) {
-                    ResponseWrapper responseWrapper = getSerializer().deserialize(responseCommand.getBody(), ResponseWrapper.class);
                     future.complete(responseWrapper.getResult());
                     future.notifyListener(responseWrapper.getResult());
                 } else {
-                    Throwable cause = handlerException(responseCommand);
+                    Throwable cause = handlerException(responseCommand, responseWrapper);
                     future.complete(cause);
                     future.notifyListener(cause);
                 }
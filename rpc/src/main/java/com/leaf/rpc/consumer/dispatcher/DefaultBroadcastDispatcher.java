@@ -2,6 +2,7 @@ package com.leaf.rpc.consumer.dispatcher;
 
 import com.leaf.common.context.RpcContext;
 import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.rpc.provider.process.RequestMetadata;
 import com.leaf.rpc.consumer.LeafClient;
 import com.leaf.rpc.provider.process.RequestWrapper;
 import com.leaf.remoting.api.channel.ChannelGroup;
@@ -11,6 +12,8 @@ import com.leaf.rpc.consumer.future.InvokeFuture;
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.api.SerializerType;
 
+import java.util.Iterator;
+
 /**
  * 广播调用
  * @author yefei
@@ -26,14 +29,24 @@ public class DefaultBroadcastDispatcher extends AbstractDispatcher {
         final RequestWrapper requestWrapper = request;
         requestWrapper.setAttachment(RpcContext.getAttachments());
 
-        Serializer serializer = getSerializer();
-
-        byte[] bytes = serializer.serialize(requestWrapper);
-        RequestCommand requestCommand = new RequestCommand(ProtocolHead.RPC_REQUEST, getSerializerCode(), bytes);
-
         ChannelGroup[] groups = groups(requestWrapper.getServiceMeta());
-        InvokeFuture<T> invoke = invoke(requestCommand, DispatchType.BROADCAST, returnType, invokeType, groups);
+        Serializer serializer = serializer(groups);
+        long timeoutMillis = invokeTimeoutMillis();
+
+        RequestCommand requestCommand = RequestMetadata.createRequestCommand(
+                ProtocolHead.RPC_REQUEST, serializer, requestWrapper, isPeerV2(groups));
+        try {
+            InvokeFuture<T> invoke = invoke(requestCommand, timeoutMillis, DispatchType.BROADCAST, returnType, invokeType, groups);
+
+            return invoke;
+        } finally {
+            // 实际发送的都是 clone, 原始请求在这里释放
+            requestCommand.release();
+        }
+    }
 
-        return invoke;
+    @Override
+    public <T> Iterator<T> dispatchStream(RequestWrapper request) throws Throwable {
+        throw new UnsupportedOperationException("stream invoke unsupported broadcast dispatch!");
     }
 }
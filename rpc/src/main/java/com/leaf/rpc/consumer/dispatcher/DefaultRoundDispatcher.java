@@ -2,6 +2,7 @@ package com.leaf.rpc.consumer.dispatcher;
 
 import com.leaf.common.context.RpcContext;
 import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.rpc.provider.process.RequestMetadata;
 import com.leaf.rpc.provider.process.RequestWrapper;
 import com.leaf.remoting.api.channel.ChannelGroup;
 import com.leaf.remoting.api.payload.RequestCommand;
@@ -12,6 +13,8 @@ import com.leaf.rpc.consumer.future.InvokeFuture;
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.api.SerializerType;
 
+import java.util.Iterator;
+
 /**
  * @author yefei
  */
@@ -29,13 +32,29 @@ public class DefaultRoundDispatcher extends AbstractDispatcher {
 
         // 通过软负载均衡选择一个channel
         ChannelGroup channelGroup = select(requestWrapper.getServiceMeta());
-        Serializer serializer = getSerializer();
+        Serializer serializer = serializer(channelGroup);
+        long timeoutMillis = invokeTimeoutMillis();
 
-        byte[] bytes = serializer.serialize(requestWrapper);
-        RequestCommand requestCommand = new RequestCommand(ProtocolHead.RPC_REQUEST, getSerializerCode(), bytes);
+        RequestCommand requestCommand = RequestMetadata.createRequestCommand(
+                ProtocolHead.RPC_REQUEST, serializer, requestWrapper, channelGroup.isPeerV2());
 
-        InvokeFuture<T> invoke = invoke(requestCommand, DispatchType.ROUND, returnType, invokeType, channelGroup);
+        InvokeFuture<T> invoke = invoke(requestCommand, timeoutMillis, DispatchType.ROUND, returnType, invokeType, channelGroup);
 
         return invoke;
     }
+
+    @Override
+    public <T> Iterator<T> dispatchStream(RequestWrapper request) throws Throwable {
+        final RequestWrapper requestWrapper = request;
+        requestWrapper.setAttachment(RpcContext.getAttachments());
+
+        ChannelGroup channelGroup = select(requestWrapper.getServiceMeta());
+        Serializer serializer = serializer(channelGroup);
+        long timeoutMillis = invokeTimeoutMillis();
+
+        RequestCommand requestCommand = RequestMetadata.createRequestCommand(
+                ProtocolHead.STREAM_REQUEST, serializer, requestWrapper, channelGroup.isPeerV2());
+
+        return invokeStream(requestCommand, timeoutMillis, requestWrapper.getStreamWindow(), channelGroup);
+    }
 }
@@ -4,6 +4,8 @@ import com.leaf.rpc.provider.process.RequestWrapper;
 import com.leaf.rpc.consumer.InvokeType;
 import com.leaf.rpc.consumer.future.InvokeFuture;
 
+import java.util.Iterator;
+
 /**
  * @author yefei
  * 分发执行，单播 广播
@@ -12,6 +14,16 @@ public interface Dispatcher {
 
     <T> InvokeFuture<T> dispatch(RequestWrapper request, Class<T> returnType, InvokeType invokeType) throws Throwable;
 
+    /**
+     * 流式调用, 返回的 Iterator 按消费进度向服务端发放 credit
+     */
+    <T> Iterator<T> dispatchStream(RequestWrapper request) throws Throwable;
+
     Dispatcher timeoutMillis(long timeoutMillis);
 
+    /**
+     * 是否按服务端声明的序列化类型协商, 不协商时始终使用创建时指定的序列化类型
+     */
+    Dispatcher negotiateSerializer(boolean negotiateSerializer);
+
 }
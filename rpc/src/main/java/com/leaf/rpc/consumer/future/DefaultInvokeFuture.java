@@ -1,5 +1,7 @@
 package com.leaf.rpc.consumer.future;
 
+import com.leaf.remoting.api.RemotingClient;
+
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -18,9 +20,22 @@ public class DefaultInvokeFuture<V> implements InvokeFuture<V> {
 
     private final long timeoutMillis;
 
+    private final RemotingClient remotingClient;
+
+    private final long invokeId;
+
     public DefaultInvokeFuture(Class<V> returnType, long timeoutMillis) {
+        this(returnType, timeoutMillis, null, 0L);
+    }
+
+    /**
+     * @param remotingClient 用于取消异步调用
+     */
+    public DefaultInvokeFuture(Class<V> returnType, long timeoutMillis, RemotingClient remotingClient, long invokeId) {
         this.returnType = returnType;
         this.timeoutMillis = timeoutMillis;
+        this.remotingClient = remotingClient;
+        this.invokeId = invokeId;
     }
 
     @Override
@@ -80,4 +95,13 @@ public class DefaultInvokeFuture<V> implements InvokeFuture<V> {
     public Class<V> returnType() {
         return returnType;
     }
+
+    @Override
+    public boolean cancel() {
+        if (isDone() || remotingClient == null) {
+            return false;
+        }
+        // 回调会以 CancellationException 完成当前 future
+        return remotingClient.cancel(invokeId);
+    }
 }
@@ -63,4 +63,13 @@ public class DefaultInvokeFutureGroup<V>  implements InvokeFutureGroup<V>{
     public InvokeFutureListener<V> getListener() {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    public boolean cancel() {
+        boolean cancelled = false;
+        for (InvokeFuture<V> future : futures) {
+            cancelled |= future.cancel();
+        }
+        return cancelled;
+    }
 }
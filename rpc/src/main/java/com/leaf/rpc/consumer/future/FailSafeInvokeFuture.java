@@ -71,4 +71,9 @@ public class FailSafeInvokeFuture<V> implements InvokeFuture<V> {
     public Class<V> returnType() {
         return invokeFuture.returnType();
     }
+
+    @Override
+    public boolean cancel() {
+        return invokeFuture.cancel();
+    }
 }
@@ -19,4 +19,11 @@ public interface InvokeFuture<V> {
     void notifyListener(Object x);
 
     Class<V> returnType();
+
+    /**
+     * 取消调用, 服务端丢弃还没开始处理的请求; 取消成功后 get 抛出 CancellationException
+     *
+     * @return 调用已经完成时返回 false
+     */
+    boolean cancel();
 }
@@ -2,6 +2,7 @@ package com.leaf.rpc.consumer.invoke;
 
 import com.leaf.common.model.ServiceMeta;
 import com.leaf.common.utils.Reflects;
+import com.leaf.remoting.api.payload.RequestRoute;
 import com.leaf.rpc.provider.process.RequestWrapper;
 import com.leaf.rpc.consumer.InvokeType;
 import com.leaf.rpc.consumer.StrategyConfig;
@@ -12,9 +13,17 @@ import com.leaf.rpc.consumer.cluster.FailSafeClusterInvoker;
 import com.leaf.rpc.consumer.dispatcher.Dispatcher;
 import com.leaf.rpc.consumer.future.InvokeFuture;
 import com.leaf.rpc.consumer.future.InvokeFutureContext;
+import io.netty.util.internal.SystemPropertyUtil;
+
+import java.util.Iterator;
 
 public abstract class AbstractInvoker {
 
+    /**
+     * 流式调用的窗口 (服务端最多领先消费端的元素个数)
+     */
+    private static final int STREAM_WINDOW = SystemPropertyUtil.getInt("leaf.stream.window", 64);
+
     protected String application;
 
     protected Dispatcher dispatcher;
@@ -25,6 +34,11 @@ public abstract class AbstractInvoker {
 
     protected InvokeType invokeType;
 
+    /**
+     * 集群容错策略在创建代理时确定, 所有方法和调用共用一个
+     */
+    protected final ClusterInvoker clusterInvoker;
+
     public AbstractInvoker(
             String application,
             Dispatcher dispatcher,
@@ -36,16 +50,51 @@ public abstract class AbstractInvoker {
         this.serviceMeta = serviceMeta;
         this.strategyConfig = strategyConfig;
         this.invokeType = invokeType;
+        this.clusterInvoker = createClusterInvoker(dispatcher, strategyConfig);
     }
 
     public <T> T doInvoke(String methodName, Class<T> returnType, Object... args) throws Throwable {
+        RequestWrapper requestWrapper = createRequest(methodName, null, null, null, args);
+        return doInvoke(requestWrapper, returnType, returnType == Iterator.class, invokeType, clusterInvoker);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T doInvoke(RemoteMethod method, Object... args) throws Throwable {
+        RequestWrapper requestWrapper = createRequest(method.getName(), method.getSignature(), method.getParameterTypes(),
+                method.getRoute(), args);
+        return doInvoke(requestWrapper, (Class<T>) method.getReturnType(), method.isStream(), method.getInvokeType(),
+                method.getClusterInvoker());
+    }
+
+    /**
+     * @param methodSignature 参数类型列表, 区分重载方法, 泛化调用时为 null
+     * @param parameterTypes  参数类型, 参数和返回值按方法签名编码, 泛化调用时为 null
+     * @param route           预先生成的路由键, 为 null 时发送请求时生成
+     */
+    private RequestWrapper createRequest(String methodName, String methodSignature, Class<?>[] parameterTypes,
+                                         RequestRoute route, Object[] args) {
         RequestWrapper requestWrapper = new RequestWrapper();
         requestWrapper.setApplication(application);
         requestWrapper.setMethodName(methodName);
+        requestWrapper.setMethodSignature(methodSignature);
+        requestWrapper.setRoute(route);
+        requestWrapper.setParameterTypes(parameterTypes);
         requestWrapper.setArgs(args);
         requestWrapper.setServiceMeta(serviceMeta);
+        return requestWrapper;
+    }
+
+    /**
+     * @param stream 返回值为 Iterator 的方法按流式调用, 不经过集群容错
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T doInvoke(RequestWrapper requestWrapper, Class<T> returnType, boolean stream, InvokeType invokeType,
+                           ClusterInvoker clusterInvoker) throws Throwable {
+        if (stream) {
+            requestWrapper.setStreamWindow(STREAM_WINDOW);
+            return (T) dispatcher.dispatchStream(requestWrapper);
+        }
 
-        ClusterInvoker clusterInvoker = createClusterInvoker(dispatcher, strategyConfig);
         InvokeFuture<T> invokeFuture = clusterInvoker.invoke(requestWrapper, returnType, invokeType);
         if (invokeType == InvokeType.SYNC) {
             return invokeFuture.get();
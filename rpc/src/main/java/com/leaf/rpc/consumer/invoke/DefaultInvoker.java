@@ -1,29 +1,61 @@
 package com.leaf.rpc.consumer.invoke;
 
 import com.leaf.common.model.ServiceMeta;
+import com.leaf.common.utils.AnyThrow;
 import com.leaf.rpc.consumer.InvokeType;
 import com.leaf.rpc.consumer.StrategyConfig;
 import com.leaf.rpc.consumer.dispatcher.Dispatcher;
-import net.bytebuddy.implementation.bind.annotation.AllArguments;
-import net.bytebuddy.implementation.bind.annotation.Origin;
-import net.bytebuddy.implementation.bind.annotation.RuntimeType;
+import com.leaf.rpc.local.ServiceDispatchTable;
+import com.leaf.rpc.provider.process.RequestMetadata;
+import com.leaf.rpc.stub.StubInvoker;
+import com.leaf.rpc.stub.Stubs;
 
 import java.lang.reflect.Method;
 
-public class DefaultInvoker extends AbstractInvoker {
+/**
+ * 代理 (编译期或者运行时生成的 stub) 的每个方法按下标调用, 创建时为每个下标解析好 RemoteMethod
+ */
+public class DefaultInvoker extends AbstractInvoker implements StubInvoker {
+
+    /**
+     * 下标和 Stubs.stubMethods 一致
+     */
+    private final RemoteMethod[] methods;
 
     public DefaultInvoker(
             String application,
             Dispatcher dispatcher,
             ServiceMeta serviceMeta,
             StrategyConfig strategyConfig,
-            InvokeType invokeType) {
+            InvokeType invokeType,
+            Class<?> interfaceClass) {
         super(application, dispatcher, serviceMeta, strategyConfig, invokeType);
+        Method[] indexed = Stubs.stubMethods(interfaceClass);
+        this.methods = new RemoteMethod[indexed.length];
+        for (int i = 0; i < indexed.length; i++) {
+            this.methods[i] = remoteMethod(indexed[i]);
+        }
     }
 
-    @RuntimeType
-    public Object invoke(@Origin Method method, @AllArguments @RuntimeType Object[] args) throws Throwable {
-        return doInvoke(method.getName(), method.getReturnType(), args);
+    @Override
+    public Object invoke(int methodIndex, Object[] args) {
+        try {
+            return doInvoke(methods[methodIndex], args);
+        } catch (Throwable t) {
+            AnyThrow.throwUnchecked(t);
+            return null;
+        }
     }
 
+    private RemoteMethod remoteMethod(Method method) {
+        String signature = ServiceDispatchTable.signature(method);
+        return new RemoteMethod(
+                method.getName(),
+                signature,
+                method.getParameterTypes(),
+                method.getReturnType(),
+                RequestMetadata.createRoute(application, serviceMeta, method.getName(), signature),
+                invokeType,
+                clusterInvoker);
+    }
 }
@@ -0,0 +1,82 @@
+package com.leaf.rpc.consumer.invoke;
+
+import com.leaf.remoting.api.payload.RequestRoute;
+import com.leaf.rpc.consumer.InvokeType;
+import com.leaf.rpc.consumer.cluster.ClusterInvoker;
+
+import java.util.Iterator;
+
+/**
+ * 代理接口的一个方法, 创建代理时按 stub 的方法下标解析一次: 方法名, 签名, 参数和返回值类型, 路由键,
+ * 调用方式和集群容错策略, 调用时直接使用
+ *
+ * @author yefei
+ */
+public final class RemoteMethod {
+
+    private final String name;
+
+    private final String signature;
+
+    private final Class<?>[] parameterTypes;
+
+    private final Class<?> returnType;
+
+    private final RequestRoute route;
+
+    private final InvokeType invokeType;
+
+    private final ClusterInvoker clusterInvoker;
+
+    /**
+     * 返回值为 Iterator 的方法按流式调用
+     */
+    private final boolean stream;
+
+    public RemoteMethod(String name, String signature, Class<?>[] parameterTypes, Class<?> returnType, RequestRoute route,
+                        InvokeType invokeType, ClusterInvoker clusterInvoker) {
+        this.name = name;
+        this.signature = signature;
+        this.parameterTypes = parameterTypes;
+        this.returnType = returnType;
+        this.route = route;
+        this.invokeType = invokeType;
+        this.clusterInvoker = clusterInvoker;
+        this.stream = returnType == Iterator.class;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * 调用时共用, 不要修改
+     */
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public Class<?> getReturnType() {
+        return returnType;
+    }
+
+    public RequestRoute getRoute() {
+        return route;
+    }
+
+    public InvokeType getInvokeType() {
+        return invokeType;
+    }
+
+    public ClusterInvoker getClusterInvoker() {
+        return clusterInvoker;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+}
@@ -0,0 +1,178 @@
+package com.leaf.rpc.consumer.stream;
+
+import com.leaf.common.utils.AnyThrow;
+import com.leaf.remoting.api.ResponseStatus;
+import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.exception.RemotingTimeoutException;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.StreamListener;
+import com.leaf.remoting.api.stream.StreamSubscription;
+import com.leaf.rpc.provider.process.ResponseWrapper;
+import com.leaf.serialization.api.Serializer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式调用的消费端, 返回值类型为 Iterator 的方法返回的就是这个对象
+ * <p>
+ * event loop 只把收到的帧放入队列, 反序列化在调用 hasNext 的线程中进行;
+ * 每消费 window 的一半就向服务端发放同样数量的 credit, 队列中最多缓存 window 个元素
+ *
+ * @author yefei
+ */
+public class StreamIterator<T> implements Iterator<T>, StreamListener {
+
+    private final Serializer serializer;
+
+    private final long timeoutMillis;
+
+    private final int batch;
+
+    /**
+     * ResponseCommand 或者 Throwable
+     */
+    private final BlockingQueue<Object> queue;
+
+    private StreamSubscription subscription;
+
+    private int consumed;
+
+    private boolean ready;
+
+    private boolean done;
+
+    private T next;
+
+    /**
+     * 队列放不下的终止信号 (窗口溢出, 或者队列已满时的连接异常), hasNext 先于队列检查
+     */
+    private volatile Throwable failure;
+
+    public StreamIterator(Serializer serializer, int window, long timeoutMillis) {
+        this.serializer = serializer;
+        this.timeoutMillis = timeoutMillis;
+        this.batch = Math.max(window / 2, 1);
+        // 元素 + 结束帧 + 连接异常
+        this.queue = new ArrayBlockingQueue<>(Math.max(window, 1) + 2);
+    }
+
+    public void subscribe(StreamSubscription subscription) {
+        this.subscription = subscription;
+    }
+
+    @Override
+    public void onResponse(ResponseCommand response) {
+        if (!queue.offer(response)) {
+            response.release();
+            fail(new RemotingException("stream window overflow, invokeId: " + response.getInvokeId()));
+        }
+    }
+
+    @Override
+    public void onFailure(Throwable cause) {
+        if (!queue.offer(cause)) {
+            fail(cause);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        Throwable cause = failure;
+        if (cause != null) {
+            close();
+            AnyThrow.throwUnchecked(cause);
+        }
+        Object o;
+        try {
+            o = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            close();
+            AnyThrow.throwUnchecked(e);
+            return false;
+        }
+        if (o == null) {
+            close();
+            AnyThrow.throwUnchecked(new RemotingTimeoutException("wait stream element timeout! timeout:" + timeoutMillis));
+        }
+        if (o instanceof Throwable) {
+            close();
+            AnyThrow.throwUnchecked((Throwable) o);
+        }
+
+        ResponseCommand responseCommand = (ResponseCommand) o;
+        ResponseWrapper responseWrapper;
+        try {
+            responseWrapper = responseCommand.readBody(serializer, ResponseWrapper.class);
+        } finally {
+            responseCommand.release();
+        }
+
+        if (!responseCommand.isStreamEnd()) {
+            @SuppressWarnings("unchecked")
+            T result = (T) responseWrapper.getResult();
+            next = result;
+            ready = true;
+            if (++consumed >= batch) {
+                subscription.request(consumed);
+                consumed = 0;
+            }
+            return true;
+        }
+
+        done = true;
+        byte status = responseCommand.getStatus();
+        if (status == ResponseStatus.STREAM_COMPLETE.value() || status == ResponseStatus.SUCCESS.value()) {
+            return false;
+        }
+        if (status == ResponseStatus.SERVER_ERROR.value() && responseWrapper.getResult() instanceof Throwable) {
+            AnyThrow.throwUnchecked((Throwable) responseWrapper.getResult());
+        }
+        AnyThrow.throwUnchecked(new RemotingException(String.valueOf(responseWrapper.getResult())));
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        T element = next;
+        next = null;
+        return element;
+    }
+
+    /**
+     * 不再消费剩余的元素
+     */
+    public void close() {
+        done = true;
+        ready = false;
+        next = null;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        Object o;
+        while ((o = queue.poll()) != null) {
+            if (o instanceof ResponseCommand) {
+                ((ResponseCommand) o).release();
+            }
+        }
+    }
+}
@@ -5,6 +5,9 @@ import com.leaf.common.annotation.ServiceInterface;
 import com.leaf.common.annotation.ServiceProvider;
 import com.leaf.common.constants.Constants;
 import com.leaf.rpc.container.ServiceProviderContainer;
+import com.leaf.rpc.provider.process.RequestWrapper;
+import com.leaf.rpc.provider.process.ResponseWrapper;
+import com.leaf.serialization.api.SerializerFactory;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -114,6 +117,12 @@ public final class DefaultServiceRegistry implements ServiceRegistry {
                 Strings.isNullOrEmpty(version) ? Constants.DEFAULT_SERVICE_VERSION : version,
                 serviceProvider,
                 weight);
+        wrapper.setDispatchTable(new ServiceDispatchTable(interfaceClass, serviceProvider));
+
+        // 提前准备参数和返回值的序列化元数据, 不在第一次请求时构建
+        SerializerFactory.warmUp(RequestWrapper.class);
+        SerializerFactory.warmUp(ResponseWrapper.class);
+        SerializerFactory.warmUpInterface(interfaceClass);
 
         serviceProviderContainer.registerService(wrapper.getServiceMeta().directory(), wrapper);
 
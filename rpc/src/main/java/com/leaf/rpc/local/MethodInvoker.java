@@ -0,0 +1,28 @@
+package com.leaf.rpc.local;
+
+import java.lang.reflect.Method;
+
+/**
+ * 服务方法的调用入口, 注册服务时为接口的每个方法生成一个, 调用时没有反射查找
+ *
+ * @author yefei
+ */
+public interface MethodInvoker {
+
+    Method method();
+
+    /**
+     * 方法的参数类型, 调用时共用, 不要修改
+     */
+    Class<?>[] parameterTypes();
+
+    /**
+     * 参数类型列表, 和消费端路由键中的方法签名一致
+     */
+    String signature();
+
+    /**
+     * 业务方法抛出的异常原样抛出
+     */
+    Object invoke(Object[] args) throws Throwable;
+}
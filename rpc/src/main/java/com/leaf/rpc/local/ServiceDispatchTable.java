@@ -0,0 +1,207 @@
+package com.leaf.rpc.local;
+
+import com.leaf.rpc.stub.ServiceSkeleton;
+import com.leaf.rpc.stub.Stubs;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务接口的方法分派表, 注册服务时按接口的方法预先生成 MethodInvoker (绑定服务对象的 MethodHandle)
+ * <p>
+ * 按方法名取到同名方法的数组, 带方法签名时按签名匹配重载方法, 没有签名时 (泛化调用) 按参数的运行时类型匹配,
+ * null 参数可以匹配任意引用类型, 基本类型参数匹配对应的包装类型
+ * <p>
+ * 接口有编译期生成的 skeleton 时, 它覆盖的方法通过 skeleton 的 switch 直接调用, 其余方法使用 MethodHandle
+ * <p>
+ * 只能调用服务接口中声明的方法, 创建之后只读
+ *
+ * @author yefei
+ */
+public final class ServiceDispatchTable {
+
+    private static final MethodInvoker[] EMPTY_INVOKERS = new MethodInvoker[0];
+
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    private final Class<?> interfaceClass;
+
+    private final Map<String, MethodInvoker[]> invokers;
+
+    public ServiceDispatchTable(Class<?> interfaceClass, Object serviceProvider) {
+        this.interfaceClass = interfaceClass;
+
+        Map<Method, Integer> skeletonIndexes = new HashMap<>();
+        ServiceSkeleton skeleton = Stubs.newSkeleton(interfaceClass, serviceProvider);
+        if (skeleton != null) {
+            Method[] indexed = Stubs.methods(interfaceClass);
+            for (int i = 0; i < indexed.length; i++) {
+                skeletonIndexes.put(indexed[i], i);
+            }
+        }
+
+        Map<String, List<MethodInvoker>> methods = new HashMap<>();
+        for (Method method : interfaceClass.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            List<MethodInvoker> overloads = methods.get(method.getName());
+            if (overloads == null) {
+                overloads = new ArrayList<>();
+                methods.put(method.getName(), overloads);
+            }
+            Integer index = skeletonIndexes.get(method);
+            overloads.add(index == null
+                    ? createInvoker(method, serviceProvider)
+                    : createInvoker(method, skeleton, index));
+        }
+
+        Map<String, MethodInvoker[]> invokers = new HashMap<>();
+        for (Map.Entry<String, List<MethodInvoker>> entry : methods.entrySet()) {
+            invokers.put(entry.getKey(), entry.getValue().toArray(EMPTY_INVOKERS));
+        }
+        this.invokers = invokers;
+    }
+
+    public Class<?> getInterfaceClass() {
+        return interfaceClass;
+    }
+
+    /**
+     * @param signature 参数类型列表, 为 null 时按 args 的运行时类型匹配
+     */
+    public MethodInvoker lookup(String methodName, String signature, Object[] args) throws NoSuchMethodException {
+        MethodInvoker[] overloads = invokers.get(methodName);
+        if (overloads != null) {
+            if (signature != null) {
+                for (MethodInvoker invoker : overloads) {
+                    if (invoker.signature().equals(signature)) {
+                        return invoker;
+                    }
+                }
+            } else if (overloads.length == 1) {
+                return overloads[0];
+            } else {
+                for (MethodInvoker invoker : overloads) {
+                    if (matches(invoker.parameterTypes(), args)) {
+                        return invoker;
+                    }
+                }
+            }
+        }
+        throw new NoSuchMethodException(interfaceClass.getName() + "." + methodName
+                + (signature == null ? "" : "(" + signature + ")"));
+    }
+
+    private static boolean matches(Class<?>[] parameterTypes, Object[] args) {
+        int length = args == null ? 0 : args.length;
+        if (parameterTypes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            Class<?> type = parameterTypes[i];
+            Object arg = args[i];
+            if (arg == null) {
+                if (type.isPrimitive()) {
+                    return false;
+                }
+            } else if (!wrap(type).isInstance(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private static MethodInvoker createInvoker(final Method method, Object serviceProvider) {
+        final String signature = signature(method);
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        MethodHandle handle;
+        try {
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                method.setAccessible(true);
+            }
+            handle = MethodHandles.lookup().unreflect(method)
+                    .bindTo(serviceProvider)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("can't access service method: " + method, e);
+        }
+        final MethodHandle target = handle;
+        return new MethodInvoker() {
+            @Override
+            public Method method() {
+                return method;
+            }
+
+            @Override
+            public Class<?>[] parameterTypes() {
+                return parameterTypes;
+            }
+
+            @Override
+            public String signature() {
+                return signature;
+            }
+
+            @Override
+            public Object invoke(Object[] args) throws Throwable {
+                return target.invokeExact(args == null ? EMPTY_ARGS : args);
+            }
+        };
+    }
+
+    private static MethodInvoker createInvoker(final Method method, final ServiceSkeleton skeleton, final int index) {
+        final String signature = signature(method);
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        return new MethodInvoker() {
+            @Override
+            public Method method() {
+                return method;
+            }
+
+            @Override
+            public Class<?>[] parameterTypes() {
+                return parameterTypes;
+            }
+
+            @Override
+            public String signature() {
+                return signature;
+            }
+
+            @Override
+            public Object invoke(Object[] args) throws Throwable {
+                return skeleton.invoke(index, args == null ? EMPTY_ARGS : args);
+            }
+        };
+    }
+
+    /**
+     * 参数类型名称, 逗号分隔
+     */
+    public static String signature(Method method) {
+        StringBuilder buf = new StringBuilder();
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(parameterType.getName());
+        }
+        return buf.toString();
+    }
+}
@@ -12,6 +12,11 @@ public class ServiceWrapper {
 
     private int weight = DEFAULT_WEIGHT;
 
+    /**
+     * 服务接口的方法分派表, 注册服务时生成
+     */
+    private ServiceDispatchTable dispatchTable;
+
     public ServiceWrapper(String group, String providerName, String version, Object serviceProvider) {
         this(group, providerName, version, serviceProvider, DEFAULT_WEIGHT);
     }
@@ -40,6 +45,14 @@ public class ServiceWrapper {
         this.serviceProvider = serviceProvider;
     }
 
+    public ServiceDispatchTable getDispatchTable() {
+        return dispatchTable;
+    }
+
+    public void setDispatchTable(ServiceDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
     public int getWeight() {
         return weight;
     }
@@ -23,6 +23,7 @@ import com.leaf.rpc.local.ServiceWrapper;
 import com.leaf.rpc.provider.process.DefaultRequestProcessor;
 import com.leaf.rpc.provider.process.RequestProcessFilter;
 import com.leaf.rpc.provider.process.RequestProcessor;
+import com.leaf.serialization.api.SerializerFactory;
 
 import java.lang.reflect.Method;
 
@@ -77,7 +78,7 @@ public class DefaultLeafServer implements LeafServer {
 
         this.server = new NettyServer(config);
         this.serviceProviderContainer = new DefaultServiceProviderContainer();
-        this.requestProcessor = new DefaultRequestProcessor(serviceProviderContainer);
+        this.requestProcessor = new DefaultRequestProcessor(serviceProviderContainer, server);
         this.server.registerRequestProcess(requestProcessor.requestCommandProcessor(), executorFactory.createExecutorService(new DefaultThreadFactory()));
         this.config.setPort(port);
     }
@@ -147,6 +148,8 @@ public class DefaultLeafServer implements LeafServer {
             methods[i] = declaredMethods[i].getName();
         }
         registerMeta.setMethods(methods);
+        // 调用方按这个顺序选择双方都支持的序列化器
+        registerMeta.setSerializerTypes(SerializerFactory.supportedTypes());
 
         registerService.register(registerMeta);
     }
@@ -4,21 +4,30 @@ import com.leaf.common.context.RpcContext;
 import com.leaf.common.utils.Reflects;
 import com.leaf.remoting.api.ProtocolHead;
 import com.leaf.remoting.api.RemotingCommandFactory;
+import com.leaf.remoting.api.RemotingServer;
 import com.leaf.remoting.api.RequestCommandProcessor;
 import com.leaf.remoting.api.ResponseStatus;
 import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.exception.RemotingTooLongFrameException;
 import com.leaf.remoting.api.payload.RequestCommand;
 import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.ResponseStream;
 import com.leaf.rpc.container.ServiceProviderContainer;
 import com.leaf.rpc.controller.FlowController;
+import com.leaf.rpc.local.MethodInvoker;
+import com.leaf.rpc.local.ServiceDispatchTable;
 import com.leaf.rpc.local.ServiceWrapper;
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.api.SerializerFactory;
 import com.leaf.serialization.api.SerializerType;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.internal.SystemPropertyUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -29,8 +38,15 @@ public class DefaultRequestProcessor implements RequestProcessor {
 
     private final static Logger logger = LoggerFactory.getLogger(DefaultRequestProcessor.class);
 
+    /**
+     * 流式调用等待消费端 credit 的最长时间, 超时后结束流
+     */
+    private static final long STREAM_CREDIT_TIMEOUT_MILLIS = SystemPropertyUtil.getLong("leaf.stream.credit.timeout.millis", 30000L);
+
     private final ServiceProviderContainer serviceProviderContainer;
 
+    private final RemotingServer remotingServer;
+
     private final CopyOnWriteArrayList<RequestProcessFilter> filters = new CopyOnWriteArrayList<>();
 
     private RequestCommandProcessor requestCommandProcessor;
@@ -38,7 +54,15 @@ public class DefaultRequestProcessor implements RequestProcessor {
     private FlowController[] flowControllers;
 
     public DefaultRequestProcessor(ServiceProviderContainer serviceProviderContainer) {
+        this(serviceProviderContainer, null);
+    }
+
+    /**
+     * @param remotingServer 用于打开流式响应, 为 null 时不支持流式调用
+     */
+    public DefaultRequestProcessor(ServiceProviderContainer serviceProviderContainer, RemotingServer remotingServer) {
         this.serviceProviderContainer = serviceProviderContainer;
+        this.remotingServer = remotingServer;
     }
 
     @Override
@@ -59,6 +83,19 @@ public class DefaultRequestProcessor implements RequestProcessor {
             public ResponseCommand process(ChannelHandlerContext context, RequestCommand request, Throwable e) {
                 Serializer serializer = SerializerFactory.serializer(SerializerType.parse(request.getSerializerCode()));
 
+                if (e instanceof RemotingTooLongFrameException) {
+                    // 响应超过帧的最大长度, 没有发出去, 把原因返回给消费端
+                    ResponseWrapper responseWrapper = new ResponseWrapper();
+                    responseWrapper.setCase(e);
+                    ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
+                            serializer,
+                            responseWrapper,
+                            request.getInvokeId()
+                    );
+                    responseCommand.setStatus(ResponseStatus.SERVER_ERROR.value());
+                    return responseCommand;
+                }
+
                 String message = "[OVERLOAD]system busy, start flow control for a while";
                 ResponseWrapper responseWrapper = new ResponseWrapper();
                 responseWrapper.setResult(message);
@@ -66,8 +103,8 @@ public class DefaultRequestProcessor implements RequestProcessor {
 
                 if (!request.isOneWay()) {
                     ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
-                            request.getSerializerCode(),
-                            serializer.serialize(responseWrapper),
+                            serializer,
+                            responseWrapper,
                             request.getInvokeId()
                     );
                     responseCommand.setStatus(ResponseStatus.SYSTEM_BUSY.value());
@@ -78,13 +115,31 @@ public class DefaultRequestProcessor implements RequestProcessor {
 
             @Override
             public ResponseCommand process(ChannelHandlerContext context, RequestCommand request) {
+                // 在队列中等待超过了消费端的超时时间, 消费端已经放弃, 不再反序列化和执行
+                if (request.isExpired()) {
+                    logger.warn("drop expired request, invokeId: {}, expired: {}ms, channel: {}", request.getInvokeId(),
+                            System.currentTimeMillis() - request.getDeadline(), context.channel());
+                    return null;
+                }
                 Serializer serializer = SerializerFactory.serializer(SerializerType.parse(request.getSerializerCode()));
 
                 switch (request.getMessageCode()) {
                     case ProtocolHead.RPC_REQUEST: {
                     }
                     case ProtocolHead.ONEWAY_REQUEST: {
-                        RequestWrapper requestWrapper = serializer.deserialize(request.getBody(), RequestWrapper.class);
+                        // 带路由元数据的请求先只解析元数据, 参数在流控和查找服务通过之后, 过滤之前才反序列化
+                        ByteBuf body = null;
+                        RequestWrapper requestWrapper;
+                        if (request.hasMeta()) {
+                            body = RequestMetadata.body(request);
+                            requestWrapper = RequestMetadata.read(body, request.getRoute());
+                        } else {
+                            requestWrapper = request.readBody(serializer, RequestWrapper.class);
+                        }
+                        if (request.isCancelled()) {
+                            logger.debug("request cancelled before invoke, invokeId: {}", request.getInvokeId());
+                            return null;
+                        }
 
                         ResponseWrapper responseWrapper = new ResponseWrapper();
                         if (rejectRequest()) {
@@ -92,17 +147,20 @@ public class DefaultRequestProcessor implements RequestProcessor {
                             responseWrapper.setResult(message);
                             logger.warn(message);
                             if (request.isOneWay()) {
-                                ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
-                                        request.getSerializerCode(),
-                                        serializer.serialize(responseWrapper),
-                                        request.getInvokeId()
-                                );
-                                responseCommand.setStatus(ResponseStatus.FLOW_CONTROL.value());
+                                return null;
                             }
+                            ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
+                                    serializer,
+                                    responseWrapper,
+                                    request.getInvokeId()
+                            );
+                            responseCommand.setStatus(ResponseStatus.FLOW_CONTROL.value());
+                            return responseCommand;
                         }
 
                         ServiceWrapper serviceWrapper = serviceProviderContainer.lookupService(requestWrapper.getServiceMeta().directory());
                         Object result = null;
+                        MethodInvoker methodInvoker = null;
                         if (serviceWrapper == null) {
                             String message = String.format(
                                     "service: [%s] not found, channel %s ",
@@ -112,25 +170,38 @@ public class DefaultRequestProcessor implements RequestProcessor {
                             result = new RemotingException(message);
                             logger.error(message, result);
                         } else {
-                            if (filters.size() > 0) {
-                                for (RequestProcessFilter filter : filters) {
-                                    filter.filter(requestWrapper, serviceWrapper);
-                                }
-                            }
+                            // 过滤器看到的 requestWrapper 和以前一样带有参数
                             try {
-                                RpcContext.setAttachments(requestWrapper.getAttachment());
-                                result = Reflects.Invoke(
-                                        serviceWrapper.getServiceProvider(),
-                                        requestWrapper.getMethodName(),
-                                        requestWrapper.getArgs()
-                                );
-                                RpcContext.clearAttachments();
+                                methodInvoker = readArgs(serviceWrapper, requestWrapper, serializer, body);
                             } catch (Throwable t) {
                                 logger.error(t.getMessage(), t);
                                 result = t;
                             }
+                            if (result == null) {
+                                if (filters.size() > 0) {
+                                    for (RequestProcessFilter filter : filters) {
+                                        filter.filter(requestWrapper, serviceWrapper);
+                                    }
+                                }
+                                try {
+                                    RpcContext.setAttachments(requestWrapper.getAttachment());
+                                    RpcContext.setCancelSignal(request::isCancelled);
+                                    RpcContext.setDeadline(request.getDeadline());
+                                    result = invoke(serviceWrapper, requestWrapper, methodInvoker);
+                                    RpcContext.clearAttachments();
+                                } catch (Throwable t) {
+                                    if (!request.isCancelled()) {
+                                        logger.error(t.getMessage(), t);
+                                    }
+                                    result = t;
+                                } finally {
+                                    RpcContext.clearCancelSignal();
+                                    RpcContext.clearDeadline();
+                                }
+                            }
                         }
-                        if (request.isOneWay()) {
+                        // 消费端已经放弃, 不再序列化响应
+                        if (request.isOneWay() || request.isCancelled()) {
                             return null;
                         }
 
@@ -146,11 +217,22 @@ public class DefaultRequestProcessor implements RequestProcessor {
                             }
                         }
 
-                        ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
-                                request.getSerializerCode(),
-                                serializer.serialize(responseWrapper),
-                                request.getInvokeId()
-                        );
+                        ResponseCommand responseCommand;
+                        if (requestWrapper.isTypedArgs() && !(result instanceof Throwable)) {
+                            // 参数按签名编码的请求, 返回值也按方法的返回值类型编码
+                            responseCommand = TypedCodec.createResponseCommand(
+                                    serializer,
+                                    methodInvoker.method().getReturnType(),
+                                    responseWrapper.getResult(),
+                                    request.getInvokeId()
+                            );
+                        } else {
+                            responseCommand = RemotingCommandFactory.createResponseCommand(
+                                    serializer,
+                                    responseWrapper,
+                                    request.getInvokeId()
+                            );
+                        }
 
                         if (result instanceof Throwable) {
                             responseCommand.setStatus(ResponseStatus.SERVER_ERROR.value());
@@ -160,6 +242,9 @@ public class DefaultRequestProcessor implements RequestProcessor {
                         }
                         return responseCommand;
                     }
+                    case ProtocolHead.STREAM_REQUEST: {
+                        return processStream(context, request, serializer);
+                    }
                     default: {
                         String errorMessage = String.format("DefaultProviderProcessor Unsupported MessageCode: %d",
                                 request.getMessageCode());
@@ -169,6 +254,158 @@ public class DefaultRequestProcessor implements RequestProcessor {
 
             }
 
+            /**
+             * 返回值为 Iterator 时逐个元素写出, 其他返回值作为单个元素; 元素写完之后返回结束帧
+             */
+            private ResponseCommand processStream(ChannelHandlerContext context, RequestCommand request, Serializer serializer) {
+                ByteBuf body = null;
+                RequestWrapper requestWrapper;
+                if (request.hasMeta()) {
+                    body = RequestMetadata.body(request);
+                    requestWrapper = RequestMetadata.read(body, request.getRoute());
+                } else {
+                    requestWrapper = request.readBody(serializer, RequestWrapper.class);
+                }
+                if (rejectRequest()) {
+                    String message = "[REJECT_REQUEST] system busy, start flow control for a while";
+                    logger.warn(message);
+                    return streamEnd(serializer, new RemotingException(message), request.getInvokeId(), ResponseStatus.FLOW_CONTROL);
+                }
+
+                ServiceWrapper serviceWrapper = serviceProviderContainer.lookupService(requestWrapper.getServiceMeta().directory());
+                if (serviceWrapper == null || remotingServer == null) {
+                    String message = serviceWrapper == null
+                            ? String.format("service: [%s] not found, channel %s ", requestWrapper.getServiceMeta(), context.channel())
+                            : "stream invoke unsupported, remoting server not set";
+                    logger.error(message);
+                    return streamEnd(serializer, new RemotingException(message), request.getInvokeId(),
+                            serviceWrapper == null ? ResponseStatus.SERVICE_NOT_FOUND : ResponseStatus.SERVER_ERROR);
+                }
+                MethodInvoker methodInvoker;
+                try {
+                    methodInvoker = readArgs(serviceWrapper, requestWrapper, serializer, body);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                    return streamEnd(serializer, t, request.getInvokeId(), ResponseStatus.SERVER_ERROR);
+                }
+                if (filters.size() > 0) {
+                    for (RequestProcessFilter filter : filters) {
+                        filter.filter(requestWrapper, serviceWrapper);
+                    }
+                }
+
+                Object result;
+                try {
+                    RpcContext.setAttachments(requestWrapper.getAttachment());
+                    RpcContext.setCancelSignal(request::isCancelled);
+                    RpcContext.setDeadline(request.getDeadline());
+                    result = invoke(serviceWrapper, requestWrapper, methodInvoker);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                    return streamEnd(serializer, t, request.getInvokeId(), ResponseStatus.SERVER_ERROR);
+                } finally {
+                    RpcContext.clearAttachments();
+                    RpcContext.clearCancelSignal();
+                    RpcContext.clearDeadline();
+                }
+
+                Iterator<?> iterator;
+                if (result instanceof Iterator) {
+                    iterator = (Iterator<?>) result;
+                } else if (result == null) {
+                    iterator = Collections.emptyIterator();
+                } else {
+                    iterator = Collections.singletonList(result).iterator();
+                }
+
+                ResponseStream stream = remotingServer.openStream(
+                        context.channel(), request.getInvokeId(), requestWrapper.getStreamWindow());
+                try {
+                    while (iterator.hasNext()) {
+                        ResponseWrapper element = new ResponseWrapper();
+                        element.setResult(iterator.next());
+                        stream.write(RemotingCommandFactory.createResponseCommand(
+                                ProtocolHead.STREAM_RESPONSE,
+                                serializer,
+                                element,
+                                request.getInvokeId()
+                        ), STREAM_CREDIT_TIMEOUT_MILLIS);
+                    }
+                } catch (Throwable t) {
+                    if (stream.isClosed()) {
+                        logger.warn("stream closed, invokeId: {}, channel: {}", request.getInvokeId(), context.channel());
+                        return null;
+                    }
+                    logger.error(t.getMessage(), t);
+                    return streamEnd(serializer, t, request.getInvokeId(), ResponseStatus.SERVER_ERROR);
+                }
+                return streamEnd(serializer, null, request.getInvokeId(), ResponseStatus.STREAM_COMPLETE);
+            }
+
+            private ResponseCommand streamEnd(Serializer serializer, Throwable cause, long invokeId, ResponseStatus status) {
+                ResponseWrapper responseWrapper = new ResponseWrapper();
+                if (cause != null) {
+                    responseWrapper.setCase(cause);
+                }
+                if (filters.size() > 0) {
+                    for (RequestProcessFilter filter : filters) {
+                        filter.filter(responseWrapper);
+                    }
+                }
+                ResponseCommand responseCommand = RemotingCommandFactory.createResponseCommand(
+                        ProtocolHead.STREAM_RESPONSE,
+                        serializer,
+                        responseWrapper,
+                        invokeId
+                );
+                responseCommand.setStatus(status.value());
+                return responseCommand;
+            }
+
+            /**
+             * 按签名编码的参数先按签名找到方法再解码; 其余参数先反序列化, 再查找方法 (泛化调用按参数的运行时类型匹配重载方法)
+             *
+             * @param body 元数据之后的参数, 不带元数据的请求为 null (参数已经在 requestWrapper 中)
+             * @return 服务的方法, 没有分派表 (不是通过 ServiceRegistry 注册) 的服务为 null
+             */
+            private MethodInvoker readArgs(ServiceWrapper serviceWrapper, RequestWrapper requestWrapper,
+                                           Serializer serializer, ByteBuf body) throws NoSuchMethodException {
+                ServiceDispatchTable dispatchTable = serviceWrapper.getDispatchTable();
+                if (requestWrapper.isTypedArgs()) {
+                    if (dispatchTable == null) {
+                        throw new IllegalStateException("typed args unsupported, no dispatch table: "
+                                + requestWrapper.getServiceMeta());
+                    }
+                    MethodInvoker methodInvoker = dispatchTable.lookup(
+                            requestWrapper.getMethodName(), requestWrapper.getMethodSignature(), null);
+                    requestWrapper.setArgs(TypedCodec.readArgs(body, serializer, methodInvoker.parameterTypes()));
+                    return methodInvoker;
+                }
+                if (body != null) {
+                    requestWrapper.setArgs(RequestMetadata.readArgs(serializer, body));
+                }
+                if (dispatchTable == null) {
+                    return null;
+                }
+                return dispatchTable.lookup(
+                        requestWrapper.getMethodName(), requestWrapper.getMethodSignature(), requestWrapper.getArgs());
+            }
+
+            /**
+             * 按服务的方法分派表调用, 没有分派表的服务按方法名反射调用
+             */
+            private Object invoke(ServiceWrapper serviceWrapper, RequestWrapper requestWrapper,
+                                  MethodInvoker methodInvoker) throws Throwable {
+                if (methodInvoker == null) {
+                    return Reflects.Invoke(
+                            serviceWrapper.getServiceProvider(),
+                            requestWrapper.getMethodName(),
+                            requestWrapper.getArgs()
+                    );
+                }
+                return methodInvoker.invoke(requestWrapper.getArgs());
+            }
+
             private boolean rejectRequest() {
                 if (flowControllers != null && flowControllers.length > 0) {
                     for (FlowController flowController : flowControllers) {
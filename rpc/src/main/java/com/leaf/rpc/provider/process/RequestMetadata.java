@@ -0,0 +1,315 @@
+package com.leaf.rpc.provider.process;
+
+import com.leaf.common.model.ServiceMeta;
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.remoting.api.payload.RequestRoute;
+import com.leaf.serialization.api.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 请求的路由元数据, 写在消息体开头 (请求 status 带 ProtocolHead.REQUEST_META), 不经过序列化器
+ * <p>
+ * 消息体: 元数据 + 序列化的参数 (只有 args 的 RequestWrapper), 元数据:
+ * <pre>
+ * flags(1) | group | serviceProviderName | version | methodName | application | streamWindow(varint)
+ *          | attachment 个数(varint) | key | value | ...
+ * </pre>
+ * 字符串为 varint (UTF-8 字节数 + 1, 0 表示 null) + UTF-8 字节
+ * <p>
+ * flags 带 FLAG_ROUTE 时, application, 服务目录和方法 (含签名, 重载方法各自不同) 不写入元数据, 而是作为请求的路由键
+ * (RequestRoute) 由 remoting 层按连接上的字典换成整数 id, 服务端解析一次之后缓存在 RequestRoute 上:
+ * <pre>
+ * flags(1) | streamWindow(varint) | attachment 个数(varint) | key | value | ...
+ * </pre>
+ * <p>
+ * 服务端先只解析元数据做流控和查找服务, 通过之后才反序列化参数, 再交给过滤器
+ * <p>
+ * 带 FLAG_TYPED_ARGS 时 (只和 FLAG_ROUTE 一起出现, 服务端按路由键中的签名找到方法) 参数按方法签名编码 (见 TypedCodec),
+ * 否则为只有 args 的 RequestWrapper
+ * <p>
+ * 老版本的服务端不识别元数据, 对端没有声明支持 v2 (见 ChannelGroup.isPeerV2) 时, 普通请求的消息体是完整的 RequestWrapper,
+ * 流式请求 (老版本不支持) 写不带路由键的元数据
+ *
+ * @author yefei
+ */
+public final class RequestMetadata {
+
+    private static final int FLAG_JSON_ARGS = 0x01;
+
+    private static final int FLAG_ROUTE = 0x02;
+
+    private static final int FLAG_TYPED_ARGS = 0x04;
+
+    private static final char ROUTE_KEY_SEPARATOR = '\0';
+
+    private RequestMetadata() {
+    }
+
+    /**
+     * 元数据和参数写入池化的 ByteBuf, 写出后由 encoder 释放
+     *
+     * @param peerV2 对端声明过支持 v2, 可以使用路由元数据和路由前缀
+     */
+    public static RequestCommand createRequestCommand(byte messageCode, Serializer serializer, RequestWrapper request,
+                                                      boolean peerV2) {
+        boolean meta = peerV2 || messageCode == ProtocolHead.STREAM_REQUEST;
+        ByteBuf body = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            if (!meta) {
+                serializer.writeObject(body, request);
+            } else {
+                write(body, request, peerV2);
+
+                if (peerV2 && request.getParameterTypes() != null) {
+                    body = TypedCodec.writeArgs(body, serializer, request.getParameterTypes(), request.getArgs());
+                } else {
+                    RequestWrapper args = new RequestWrapper();
+                    args.setArgs(request.getArgs());
+                    serializer.writeObject(body, args);
+                }
+            }
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+        RequestCommand requestCommand = new RequestCommand(messageCode, serializer.serializerType().value(), body);
+        if (!meta) {
+            return requestCommand;
+        }
+        requestCommand.setStatus((byte) ProtocolHead.REQUEST_META);
+        if (!peerV2) {
+            return requestCommand;
+        }
+        RequestRoute route = request.getRoute();
+        if (route == null) {
+            route = createRoute(request.getApplication(), request.getServiceMeta(), request.getMethodName(),
+                    request.getMethodSignature());
+        }
+        requestCommand.setRoute(route);
+        return requestCommand;
+    }
+
+    /**
+     * 消息体的 duplicate, 读取元数据之后 readerIndex 停在参数开头
+     */
+    public static ByteBuf body(RequestCommand request) {
+        return request.isBodyBuf() ? request.getBodyBuf().duplicate() : Unpooled.wrappedBuffer(request.getBody());
+    }
+
+    /**
+     * 消费端发出的请求参数是否按方法签名编码, 是的话 SUCCESS 响应的返回值也按签名编码; 需要在请求写出 (消息体释放) 之前调用
+     */
+    public static boolean isTypedArgs(RequestCommand request) {
+        if (!request.hasMeta()) {
+            return false;
+        }
+        int flags = request.isBodyBuf()
+                ? request.getBodyBuf().getByte(request.getBodyBuf().readerIndex())
+                : request.getBody()[0];
+        return (flags & FLAG_TYPED_ARGS) != 0;
+    }
+
+    /**
+     * @param routed 服务和方法作为路由键发送, 不写入元数据; 这时有参数类型的请求参数按方法签名编码
+     */
+    public static void write(ByteBuf out, RequestWrapper request, boolean routed) {
+        int flags = request.isJsonArgs() ? FLAG_JSON_ARGS : 0;
+        if (routed) {
+            if (request.getParameterTypes() != null) {
+                flags |= FLAG_TYPED_ARGS;
+            }
+            out.writeByte(flags | FLAG_ROUTE);
+        } else {
+            ServiceMeta serviceMeta = request.getServiceMeta();
+            out.writeByte(flags);
+            writeString(out, serviceMeta.getGroup());
+            writeString(out, serviceMeta.getServiceProviderName());
+            writeString(out, serviceMeta.getVersion());
+            writeString(out, request.getMethodName());
+            writeString(out, request.getApplication());
+        }
+        writeVarInt(out, request.getStreamWindow());
+
+        Map<String, String> attachment = request.getAttachment();
+        if (attachment == null) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, attachment.size());
+            for (Map.Entry<String, String> entry : attachment.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param route 请求的路由键, 元数据不带 FLAG_ROUTE 时不使用
+     * @return 不带参数的 RequestWrapper
+     */
+    public static RequestWrapper read(ByteBuf in, RequestRoute route) {
+        RequestWrapper request = new RequestWrapper();
+        int flags = readByte(in);
+        request.setJsonArgs((flags & FLAG_JSON_ARGS) != 0);
+        if ((flags & FLAG_ROUTE) != 0) {
+            if (route == null) {
+                throw new IllegalArgumentException("request route missing");
+            }
+            Target target = target(route);
+            request.setApplication(target.application);
+            request.setServiceMeta(target.serviceMeta);
+            request.setMethodName(target.methodName);
+            request.setMethodSignature(target.methodSignature);
+            request.setTypedArgs((flags & FLAG_TYPED_ARGS) != 0);
+        } else {
+            String group = readString(in);
+            String serviceProviderName = readString(in);
+            String version = readString(in);
+            request.setServiceMeta(new ServiceMeta(group, serviceProviderName, version));
+            request.setMethodName(readString(in));
+            request.setApplication(readString(in));
+        }
+        request.setStreamWindow(readVarInt(in));
+
+        int size = readVarInt(in);
+        if (size > 0) {
+            if (size > in.readableBytes() / 2) {
+                throw new IllegalArgumentException("invalid attachment size: " + size);
+            }
+            Map<String, String> attachment = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                attachment.put(readString(in), readString(in));
+            }
+            request.setAttachment(attachment);
+        }
+        return request;
+    }
+
+    /**
+     * 反序列化 read 之后剩下的参数, 不是按方法签名编码的参数
+     */
+    public static Object[] readArgs(Serializer serializer, ByteBuf in) {
+        return serializer.readObject(in, RequestWrapper.class).getArgs();
+    }
+
+    /**
+     * 路由键: application, group, serviceProviderName, version, methodName, methodSignature, '\0' 分隔, null 写成空串;
+     * 消费端可以为每个方法预先生成一个, 之后的调用直接复用
+     */
+    public static RequestRoute createRoute(String application, ServiceMeta serviceMeta, String methodName, String methodSignature) {
+        String key = new StringBuilder()
+                .append(nullToEmpty(application)).append(ROUTE_KEY_SEPARATOR)
+                .append(nullToEmpty(serviceMeta.getGroup())).append(ROUTE_KEY_SEPARATOR)
+                .append(nullToEmpty(serviceMeta.getServiceProviderName())).append(ROUTE_KEY_SEPARATOR)
+                .append(nullToEmpty(serviceMeta.getVersion())).append(ROUTE_KEY_SEPARATOR)
+                .append(nullToEmpty(methodName)).append(ROUTE_KEY_SEPARATOR)
+                .append(nullToEmpty(methodSignature))
+                .toString();
+        return new RequestRoute(key);
+    }
+
+    /**
+     * 同一个连接上相同的路由键是同一个 RequestRoute 实例, 只在第一次解析
+     */
+    private static Target target(RequestRoute route) {
+        Target target = (Target) route.getTarget();
+        if (target != null) {
+            return target;
+        }
+        String[] parts = route.getKey().split(String.valueOf(ROUTE_KEY_SEPARATOR), -1);
+        if (parts.length != 6) {
+            throw new IllegalArgumentException("invalid request route: " + route);
+        }
+        ServiceMeta serviceMeta = new ServiceMeta(emptyToNull(parts[1]), emptyToNull(parts[2]), emptyToNull(parts[3]));
+        // 提前算好服务目录, 之后的请求直接用缓存的字符串查找服务
+        serviceMeta.directory();
+        target = new Target(emptyToNull(parts[0]), serviceMeta, emptyToNull(parts[4]), emptyToNull(parts[5]));
+        route.setTarget(target);
+        return target;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, ByteBufUtil.utf8Bytes(value) + 1);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.readableBytes()) {
+            throw new IllegalArgumentException("invalid string length: " + length);
+        }
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuf in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new IllegalArgumentException("malformed varint");
+            }
+            b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static final class Target {
+
+        final String application;
+
+        final ServiceMeta serviceMeta;
+
+        final String methodName;
+
+        final String methodSignature;
+
+        Target(String application, ServiceMeta serviceMeta, String methodName, String methodSignature) {
+            this.application = application;
+            this.serviceMeta = serviceMeta;
+            this.methodName = methodName;
+            this.methodSignature = methodSignature;
+        }
+    }
+
+    private static byte readByte(ByteBuf in) {
+        if (!in.isReadable()) {
+            throw new IllegalArgumentException("truncated request metadata");
+        }
+        return in.readByte();
+    }
+}
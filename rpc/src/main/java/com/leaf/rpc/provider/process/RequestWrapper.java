@@ -1,6 +1,7 @@
 package com.leaf.rpc.provider.process;
 
 import com.leaf.common.model.ServiceMeta;
+import com.leaf.remoting.api.payload.RequestRoute;
 
 import java.io.Serializable;
 import java.util.Map;
@@ -25,6 +26,31 @@ public class RequestWrapper implements Serializable {
 
     private Map<String, String> attachment;
 
+    /**
+     * 流式调用的初始 credit, 非流式调用为 0; 只写入路由元数据, 不参与序列化 (老版本的服务端按原来的字段反序列化)
+     */
+    private transient int streamWindow;
+
+    /**
+     * 方法签名 (参数类型列表), 区分重载方法, 只写入路由键, 不参与序列化
+     */
+    private transient String methodSignature;
+
+    /**
+     * 消费端预先生成的路由键, 为 null 时发送请求时按服务和方法生成
+     */
+    private transient RequestRoute route;
+
+    /**
+     * 消费端: 方法的参数类型, 不为 null 时参数按方法签名编码; 不参与序列化
+     */
+    private transient Class<?>[] parameterTypes;
+
+    /**
+     * 服务端: 参数按方法签名编码, 需要先找到方法再解码参数; 不参与序列化
+     */
+    private transient boolean typedArgs;
+
     public boolean isJsonArgs() {
         return isJsonArgs;
     }
@@ -72,4 +98,44 @@ public class RequestWrapper implements Serializable {
     public void setAttachment(Map<String, String> attachment) {
         this.attachment = attachment;
     }
+
+    public String getMethodSignature() {
+        return methodSignature;
+    }
+
+    public void setMethodSignature(String methodSignature) {
+        this.methodSignature = methodSignature;
+    }
+
+    public RequestRoute getRoute() {
+        return route;
+    }
+
+    public void setRoute(RequestRoute route) {
+        this.route = route;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public void setParameterTypes(Class<?>[] parameterTypes) {
+        this.parameterTypes = parameterTypes;
+    }
+
+    public boolean isTypedArgs() {
+        return typedArgs;
+    }
+
+    public void setTypedArgs(boolean typedArgs) {
+        this.typedArgs = typedArgs;
+    }
+
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    public void setStreamWindow(int streamWindow) {
+        this.streamWindow = streamWindow;
+    }
 }
@@ -0,0 +1,447 @@
+package com.leaf.rpc.provider.process;
+
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.ResponseStatus;
+import com.leaf.remoting.api.payload.ByteHolder;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.serialization.api.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.internal.SystemPropertyUtil;
+
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按方法签名编码参数和返回值, 两端都知道声明类型, 只有声明类型不能确定实际类型时才写入类型信息
+ * <p>
+ * 每个值按声明类型编码:
+ * <ul>
+ * <li>基本类型: 直接写值, 没有标记 (int, long 为 zigzag varint)</li>
+ * <li>其他类型: 1 字节标记 + 值; NULL 没有值; TYPED 表示实际类型就是声明类型, 包装类型, String, byte[], 枚举直接写值,
+ * 其他类 (非 java.* 的具体类) 由序列化器按声明类型写入 (4 字节长度 + 数据, protostuff 不写类名);
+ * POLYMORPHIC 表示声明类型是接口, 抽象类, 集合等或者实际类型是子类, 由序列化器写入 ResponseWrapper (带类型信息)</li>
+ * <li>byte[] 和 ByteBuffer: TYPED + varint 长度 + 原始字节, 不经过序列化器; 默认拷贝进消息体.
+ * 设置了 leaf.raw.bytes.zero.copy.threshold (默认 0, 不开启) 时, 不小于该值的参数 (以及 byte[] 返回值) 不拷贝,
+ * 作为 CompositeByteBuf 的一段直接写出, 这时调用方 (返回 byte[] 的服务实现) 在消息写出之前不能修改它;
+ * 服务端的 ByteBuffer 参数是请求消息体的视图, 只在方法执行期间有效, 需要保留时自行拷贝</li>
+ * </ul>
+ * 请求元数据带 FLAG_TYPED_ARGS 时参数按这种方式编码, 服务端返回 SUCCESS 时返回值也按方法的返回值类型编码
+ *
+ * @author yefei
+ */
+public final class TypedCodec {
+
+    private static final byte NULL = 0;
+
+    private static final byte TYPED = 1;
+
+    private static final byte POLYMORPHIC = 2;
+
+    private static final int KIND_POLYMORPHIC = 0;
+    private static final int KIND_BEAN = 1;
+    private static final int KIND_BOOLEAN = 2;
+    private static final int KIND_BYTE = 3;
+    private static final int KIND_SHORT = 4;
+    private static final int KIND_CHAR = 5;
+    private static final int KIND_INT = 6;
+    private static final int KIND_LONG = 7;
+    private static final int KIND_FLOAT = 8;
+    private static final int KIND_DOUBLE = 9;
+    private static final int KIND_STRING = 10;
+    private static final int KIND_BYTES = 11;
+    private static final int KIND_ENUM = 12;
+    private static final int KIND_VOID = 13;
+    private static final int KIND_BYTE_BUFFER = 14;
+
+    /**
+     * 不拷贝的 byte[]/ByteBuffer 的最小字节数, <= 0 时总是拷贝; 开启后调用方需要保证消息写出之前不修改传入的数据
+     */
+    private static final int ZERO_COPY_THRESHOLD = SystemPropertyUtil.getInt("leaf.raw.bytes.zero.copy.threshold", 0);
+
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    private static final ClassValue<Integer> KINDS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return kind(type);
+        }
+    };
+
+    private TypedCodec() {
+    }
+
+    /**
+     * @return 消息体, 有不拷贝的 byte[]/ByteBuffer 参数时是由 out 和参数组成的 CompositeByteBuf;
+     * 失败时 out 仍由调用方释放
+     */
+    public static ByteBuf writeArgs(ByteBuf out, Serializer serializer, Class<?>[] parameterTypes, Object[] args) {
+        int length = args == null ? 0 : args.length;
+        if (length != parameterTypes.length) {
+            throw new IllegalArgumentException("args length mismatch, expect: " + parameterTypes.length + ", actual: " + length);
+        }
+        List<ByteBuf> parts = null;
+        ByteBuf current = out;
+        try {
+            for (int i = 0; i < length; i++) {
+                ByteBuf raw = zeroCopy(parameterTypes[i], args[i], true);
+                if (raw == null) {
+                    writeValue(current, serializer, parameterTypes[i], args[i]);
+                    continue;
+                }
+                current.writeByte(TYPED);
+                RequestMetadata.writeVarInt(current, raw.readableBytes());
+                if (parts == null) {
+                    parts = new ArrayList<>();
+                }
+                parts.add(current);
+                parts.add(raw);
+                current = current.alloc().ioBuffer();
+            }
+        } catch (RuntimeException e) {
+            if (parts != null) {
+                for (ByteBuf part : parts) {
+                    if (part != out) {
+                        part.release();
+                    }
+                }
+                current.release();
+            }
+            throw e;
+        }
+        if (parts == null) {
+            return out;
+        }
+        if (current.isReadable()) {
+            parts.add(current);
+        } else {
+            current.release();
+        }
+        return Unpooled.wrappedBuffer(parts.size(), parts.toArray(new ByteBuf[0]));
+    }
+
+    /**
+     * 服务端解码参数, ByteBuffer 参数直接引用 in 的内存, 不拷贝
+     */
+    public static Object[] readArgs(ByteBuf in, Serializer serializer, Class<?>[] parameterTypes) {
+        if (parameterTypes.length == 0) {
+            return EMPTY_ARGS;
+        }
+        Object[] args = new Object[parameterTypes.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readValue(in, serializer, parameterTypes[i], true);
+        }
+        return args;
+    }
+
+    /**
+     * 返回值按 type 编码的 SUCCESS 响应, 写出后由 encoder 释放
+     */
+    public static ResponseCommand createResponseCommand(Serializer serializer, Class<?> type, Object result, long invokeId) {
+        ByteBuf body = ByteBufAllocator.DEFAULT.ioBuffer();
+        try {
+            // 返回的 ByteBuffer 可能是请求消息体的视图, 请求在响应写出之前就释放了, 只有 byte[] 不拷贝
+            ByteBuf raw = zeroCopy(type, result, false);
+            if (raw == null) {
+                writeValue(body, serializer, type, result);
+            } else {
+                body.writeByte(TYPED);
+                RequestMetadata.writeVarInt(body, raw.readableBytes());
+                body = Unpooled.wrappedBuffer(body, raw);
+            }
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+        return new ResponseCommand(ProtocolHead.PRC_RESPONSE, serializer.serializerType().value(), body, invokeId);
+    }
+
+    /**
+     * @param resultType 请求的参数按签名编码时为方法的返回值类型, SUCCESS 响应按它解码; 为 null 时按 ResponseWrapper 解码
+     */
+    public static ResponseWrapper readResponse(Serializer serializer, ResponseCommand response, Class<?> resultType) {
+        if (resultType == null || response.getStatus() != ResponseStatus.SUCCESS.value()) {
+            return response.readBody(serializer, ResponseWrapper.class);
+        }
+        ResponseWrapper responseWrapper = new ResponseWrapper();
+        responseWrapper.setResult(readValue(body(response), serializer, resultType));
+        return responseWrapper;
+    }
+
+    public static void writeValue(ByteBuf out, Serializer serializer, Class<?> type, Object value) {
+        int kind = KINDS.get(type);
+        if (type.isPrimitive()) {
+            if (kind != KIND_VOID) {
+                writeScalar(out, kind, value);
+            }
+            return;
+        }
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        // ByteBuffer 的实际类型总是子类 (HeapByteBuffer 等), 按声明类型写入字节
+        if ((value.getClass() == type && kind != KIND_POLYMORPHIC) || kind == KIND_BYTE_BUFFER) {
+            out.writeByte(TYPED);
+            if (kind == KIND_BEAN) {
+                writeSized(out, serializer, value);
+            } else if (kind == KIND_ENUM) {
+                writeString(out, ((Enum<?>) value).name());
+            } else {
+                writeScalar(out, kind, value);
+            }
+            return;
+        }
+        ResponseWrapper holder = new ResponseWrapper();
+        holder.setResult(value);
+        out.writeByte(POLYMORPHIC);
+        writeSized(out, serializer, holder);
+    }
+
+    public static Object readValue(ByteBuf in, Serializer serializer, Class<?> type) {
+        return readValue(in, serializer, type, false);
+    }
+
+    /**
+     * @param view ByteBuffer 是否直接引用 in 的内存; 否则拷贝到新的堆内存 ByteBuffer
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readValue(ByteBuf in, Serializer serializer, Class<?> type, boolean view) {
+        int kind = KINDS.get(type);
+        if (type.isPrimitive()) {
+            return kind == KIND_VOID ? null : readScalar(in, kind);
+        }
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TYPED:
+                if (kind == KIND_BEAN) {
+                    return serializer.readObject(readSized(in), type);
+                }
+                if (kind == KIND_ENUM) {
+                    return Enum.valueOf((Class<Enum>) type, readString(in));
+                }
+                if (kind == KIND_POLYMORPHIC) {
+                    throw new IllegalArgumentException("typed value for polymorphic type: " + type.getName());
+                }
+                if (kind == KIND_BYTE_BUFFER && view) {
+                    int length = readLength(in);
+                    ByteBuffer buffer = in.nioBuffer(in.readerIndex(), length);
+                    in.skipBytes(length);
+                    return buffer;
+                }
+                return readScalar(in, kind);
+            case POLYMORPHIC:
+                return serializer.readObject(readSized(in), ResponseWrapper.class).getResult();
+            default:
+                throw new IllegalArgumentException("invalid value tag: " + tag);
+        }
+    }
+
+    private static ByteBuf body(ByteHolder holder) {
+        return holder.isBodyBuf() ? holder.getBodyBuf().duplicate() : Unpooled.wrappedBuffer(holder.getBody());
+    }
+
+    private static int kind(Class<?> type) {
+        if (type == boolean.class || type == Boolean.class) {
+            return KIND_BOOLEAN;
+        } else if (type == byte.class || type == Byte.class) {
+            return KIND_BYTE;
+        } else if (type == short.class || type == Short.class) {
+            return KIND_SHORT;
+        } else if (type == char.class || type == Character.class) {
+            return KIND_CHAR;
+        } else if (type == int.class || type == Integer.class) {
+            return KIND_INT;
+        } else if (type == long.class || type == Long.class) {
+            return KIND_LONG;
+        } else if (type == float.class || type == Float.class) {
+            return KIND_FLOAT;
+        } else if (type == double.class || type == Double.class) {
+            return KIND_DOUBLE;
+        } else if (type == String.class) {
+            return KIND_STRING;
+        } else if (type == byte[].class) {
+            return KIND_BYTES;
+        } else if (type == ByteBuffer.class) {
+            return KIND_BYTE_BUFFER;
+        } else if (type == void.class || type == Void.class) {
+            return KIND_VOID;
+        } else if (type.isEnum()) {
+            return KIND_ENUM;
+        }
+        // jdk 的类 (集合, BigDecimal 等) 序列化器不一定能按声明类型直接处理, 仍然带类型信息
+        String name = type.getName();
+        if (type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+                || name.startsWith("java.") || name.startsWith("javax.")) {
+            return KIND_POLYMORPHIC;
+        }
+        return KIND_BEAN;
+    }
+
+    private static void writeScalar(ByteBuf out, int kind, Object value) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case KIND_BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case KIND_SHORT:
+                out.writeShort((Short) value);
+                break;
+            case KIND_CHAR:
+                out.writeChar((Character) value);
+                break;
+            case KIND_INT:
+                int i = (Integer) value;
+                RequestMetadata.writeVarInt(out, (i << 1) ^ (i >> 31));
+                break;
+            case KIND_LONG:
+                long l = (Long) value;
+                writeVarLong(out, (l << 1) ^ (l >> 63));
+                break;
+            case KIND_FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case KIND_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case KIND_STRING:
+                writeString(out, (String) value);
+                break;
+            case KIND_BYTES:
+                byte[] bytes = (byte[]) value;
+                RequestMetadata.writeVarInt(out, bytes.length);
+                out.writeBytes(bytes);
+                break;
+            case KIND_BYTE_BUFFER:
+                ByteBuffer buffer = (ByteBuffer) value;
+                RequestMetadata.writeVarInt(out, buffer.remaining());
+                out.writeBytes(buffer.duplicate());
+                break;
+            default:
+                throw new IllegalArgumentException("not a scalar kind: " + kind);
+        }
+    }
+
+    private static Object readScalar(ByteBuf in, int kind) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+                return in.readBoolean();
+            case KIND_BYTE:
+                return in.readByte();
+            case KIND_SHORT:
+                return in.readShort();
+            case KIND_CHAR:
+                return in.readChar();
+            case KIND_INT:
+                int i = RequestMetadata.readVarInt(in);
+                return (i >>> 1) ^ -(i & 1);
+            case KIND_LONG:
+                long l = readVarLong(in);
+                return (l >>> 1) ^ -(l & 1);
+            case KIND_FLOAT:
+                return in.readFloat();
+            case KIND_DOUBLE:
+                return in.readDouble();
+            case KIND_STRING:
+                return readString(in);
+            case KIND_BYTES:
+                byte[] bytes = new byte[readLength(in)];
+                in.readBytes(bytes);
+                return bytes;
+            case KIND_BYTE_BUFFER:
+                ByteBuffer buffer = ByteBuffer.allocate(readLength(in));
+                in.readBytes(buffer);
+                buffer.flip();
+                return buffer;
+            default:
+                throw new IllegalArgumentException("not a scalar kind: " + kind);
+        }
+    }
+
+    /**
+     * 不小于 ZERO_COPY_THRESHOLD 的 byte[] (byteBuffer 为 true 时还有 ByteBuffer) 包装成 ByteBuf, 不拷贝; 其他值返回 null
+     */
+    private static ByteBuf zeroCopy(Class<?> type, Object value, boolean byteBuffer) {
+        if (ZERO_COPY_THRESHOLD <= 0 || value == null) {
+            return null;
+        }
+        int kind = KINDS.get(type);
+        if (kind == KIND_BYTES && ((byte[]) value).length >= ZERO_COPY_THRESHOLD) {
+            return Unpooled.wrappedBuffer((byte[]) value);
+        }
+        if (byteBuffer && kind == KIND_BYTE_BUFFER && ((ByteBuffer) value).remaining() >= ZERO_COPY_THRESHOLD) {
+            return Unpooled.wrappedBuffer(((ByteBuffer) value).duplicate());
+        }
+        return null;
+    }
+
+    /**
+     * 4 字节长度 + 序列化器写入的数据
+     */
+    private static void writeSized(ByteBuf out, Serializer serializer, Object value) {
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        serializer.writeObject(out, value);
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+
+    private static ByteBuf readSized(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0 || length > in.readableBytes()) {
+            throw new IllegalArgumentException("invalid value length: " + length);
+        }
+        return in.readSlice(length);
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        RequestMetadata.writeVarInt(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = readLength(in);
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    private static int readLength(ByteBuf in) {
+        int length = RequestMetadata.readVarInt(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new IllegalArgumentException("invalid value length: " + length);
+        }
+        return length;
+    }
+
+    private static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("malformed varlong");
+            }
+            b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,116 @@
+package com.leaf.rpc.stub;
+
+import com.leaf.common.utils.AnyThrow;
+import com.leaf.rpc.local.ServiceDispatchTable;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.MethodDelegation;
+import net.bytebuddy.implementation.bind.annotation.AllArguments;
+import net.bytebuddy.implementation.bind.annotation.FieldValue;
+import net.bytebuddy.implementation.bind.annotation.RuntimeType;
+import net.bytebuddy.matcher.ElementMatchers;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 接口没有编译期生成的 stub 时, 运行时生成结构相同的类: 每个方法按下标调用 StubInvoker,
+ * 方法下标在生成类时确定, 调用时没有 Method 查找
+ * <p>
+ * 每个接口只生成一次, StubInvoker 保存在实例字段中
+ *
+ * @author yefei
+ */
+final class RuntimeStubs {
+
+    private static final String INVOKER_FIELD = "invoker";
+
+    private static final ClassValue<RuntimeStub> STUBS = new ClassValue<RuntimeStub>() {
+        @Override
+        protected RuntimeStub computeValue(Class<?> interfaceClass) {
+            return new RuntimeStub(interfaceClass);
+        }
+    };
+
+    private RuntimeStubs() {
+    }
+
+    static <T> T newStub(Class<T> interfaceClass, StubInvoker invoker) {
+        RuntimeStub stub = STUBS.get(interfaceClass);
+        Object obj = null;
+        try {
+            obj = stub.stubClass.newInstance();
+            stub.stubClass.getField(INVOKER_FIELD).set(obj, invoker);
+        } catch (Exception e) {
+            AnyThrow.throwUnchecked(e);
+        }
+        return interfaceClass.cast(obj);
+    }
+
+    /**
+     * @return 生成类的方法下标对应的接口方法
+     */
+    static Method[] methods(Class<?> interfaceClass) {
+        return STUBS.get(interfaceClass).methods.clone();
+    }
+
+    /**
+     * 接口的方法 (不含静态方法), 子接口覆盖的方法只保留一个
+     */
+    private static Method[] interfaceMethods(Class<?> interfaceClass) {
+        List<Method> methods = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Method method : interfaceClass.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())
+                    && keys.add(method.getName() + "(" + ServiceDispatchTable.signature(method) + ")")) {
+                methods.add(method);
+            }
+        }
+        return methods.toArray(new Method[0]);
+    }
+
+    static final class RuntimeStub {
+
+        final Method[] methods;
+
+        final Class<?> stubClass;
+
+        RuntimeStub(Class<?> interfaceClass) {
+            this.methods = interfaceMethods(interfaceClass);
+            DynamicType.Builder<?> builder = new ByteBuddy().subclass(Object.class)
+                    .implement(interfaceClass)
+                    .defineField(INVOKER_FIELD, StubInvoker.class, Visibility.PUBLIC);
+            for (int i = 0; i < methods.length; i++) {
+                builder = builder.method(ElementMatchers.named(methods[i].getName())
+                        .and(ElementMatchers.takesArguments(methods[i].getParameterTypes())))
+                        .intercept(MethodDelegation.to(new SlotInterceptor(i)));
+            }
+            this.stubClass = builder.make()
+                    .load(interfaceClass.getClassLoader(), ClassLoadingStrategy.Default.INJECTION)
+                    .getLoaded();
+        }
+    }
+
+    /**
+     * 一个方法下标的调用入口, 生成类的每个方法各一个
+     */
+    public static final class SlotInterceptor {
+
+        private final int methodIndex;
+
+        SlotInterceptor(int methodIndex) {
+            this.methodIndex = methodIndex;
+        }
+
+        @RuntimeType
+        public Object invoke(@FieldValue(INVOKER_FIELD) StubInvoker invoker, @AllArguments Object[] args) {
+            return invoker.invoke(methodIndex, args);
+        }
+    }
+}
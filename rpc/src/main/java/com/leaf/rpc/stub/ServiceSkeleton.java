@@ -0,0 +1,16 @@
+package com.leaf.rpc.stub;
+
+/**
+ * 编译期生成的服务端 skeleton, 按方法下标 switch 直接调用服务对象的方法, 参数按声明类型强制转换
+ *
+ * @author yefei
+ */
+public interface ServiceSkeleton {
+
+    /**
+     * 业务方法抛出的异常原样抛出
+     *
+     * @param methodIndex 方法在生成类 METHODS 中的下标
+     */
+    Object invoke(int methodIndex, Object[] args) throws Throwable;
+}
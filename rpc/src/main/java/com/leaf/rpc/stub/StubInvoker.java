@@ -0,0 +1,16 @@
+package com.leaf.rpc.stub;
+
+/**
+ * stub (编译期或者运行时生成) 的调用入口, stub 的每个方法按下标调用, 没有 Method 查找和反射
+ *
+ * @author yefei
+ */
+public interface StubInvoker {
+
+    /**
+     * 调用异常 (包括受检异常) 原样抛出
+     *
+     * @param methodIndex 方法在生成类 METHODS 中的下标
+     */
+    Object invoke(int methodIndex, Object[] args);
+}
@@ -0,0 +1,170 @@
+package com.leaf.rpc.stub;
+
+import com.leaf.common.utils.AnyThrow;
+import com.leaf.rpc.local.ServiceDispatchTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 查找 processor 模块在编译期为 @ServiceInterface 接口生成的类:
+ * <ul>
+ * <li>接口二进制名 + STUB_SUFFIX: 消费端 stub, 构造参数为 StubInvoker</li>
+ * <li>接口二进制名 + SKELETON_SUFFIX: 服务端 skeleton (ServiceSkeleton), 构造参数为服务对象</li>
+ * </ul>
+ * 两个类都带 METHODS 常量, 按下标列出方法 (方法名(参数类型列表)), 参数类型列表和 ServiceDispatchTable.signature 一致
+ * <p>
+ * 每个接口只查找一次; 没有生成的 stub 时运行时生成结构相同的类 (见 RuntimeStubs), 没有 skeleton 时返回 null,
+ * 由服务端退回到 MethodHandle 调用
+ *
+ * @author yefei
+ */
+public final class Stubs {
+
+    private static final Logger logger = LoggerFactory.getLogger(Stubs.class);
+
+    public static final String STUB_SUFFIX = "$$LeafStub";
+
+    public static final String SKELETON_SUFFIX = "$$LeafSkeleton";
+
+    public static final String METHODS_FIELD = "METHODS";
+
+    private static final ClassValue<Generated> GENERATED = new ClassValue<Generated>() {
+        @Override
+        protected Generated computeValue(Class<?> interfaceClass) {
+            return new Generated(
+                    interfaceClass,
+                    load(interfaceClass, STUB_SUFFIX, StubInvoker.class),
+                    load(interfaceClass, SKELETON_SUFFIX, Object.class));
+        }
+    };
+
+    private Stubs() {
+    }
+
+    /**
+     * 没有编译期生成的 stub 时使用运行时生成的类, 方法下标见 stubMethods
+     */
+    public static <T> T newStub(Class<T> interfaceClass, StubInvoker invoker) {
+        Generated generated = GENERATED.get(interfaceClass);
+        if (generated.stub == null) {
+            return RuntimeStubs.newStub(interfaceClass, invoker);
+        }
+        return interfaceClass.cast(newInstance(generated.stub, invoker));
+    }
+
+    /**
+     * @return newStub 返回的 stub 的方法下标对应的接口方法
+     */
+    public static Method[] stubMethods(Class<?> interfaceClass) {
+        Generated generated = GENERATED.get(interfaceClass);
+        if (generated.stub == null) {
+            return RuntimeStubs.methods(interfaceClass);
+        }
+        return generated.methods.clone();
+    }
+
+    /**
+     * @return 没有生成的 skeleton 时返回 null
+     */
+    public static ServiceSkeleton newSkeleton(Class<?> interfaceClass, Object serviceProvider) {
+        Generated generated = GENERATED.get(interfaceClass);
+        if (generated.skeleton == null) {
+            return null;
+        }
+        return (ServiceSkeleton) newInstance(generated.skeleton, serviceProvider);
+    }
+
+    /**
+     * @return stub 和 skeleton 的方法下标对应的接口方法, 都没有生成时返回 null
+     */
+    public static Method[] methods(Class<?> interfaceClass) {
+        Generated generated = GENERATED.get(interfaceClass);
+        return generated.methods == null ? null : generated.methods.clone();
+    }
+
+    private static Constructor<?> load(Class<?> interfaceClass, String suffix, Class<?> parameterType) {
+        try {
+            Class<?> cls = Class.forName(interfaceClass.getName() + suffix, false, interfaceClass.getClassLoader());
+            Constructor<?> constructor = cls.getConstructor(parameterType);
+            logger.debug("use generated {} for {}", cls.getName(), interfaceClass.getName());
+            return constructor;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            logger.warn("ignore generated class without constructor({}): {}{}",
+                    parameterType.getSimpleName(), interfaceClass.getName(), suffix);
+            return null;
+        }
+    }
+
+    private static Object newInstance(Constructor<?> constructor, Object arg) {
+        try {
+            return constructor.newInstance(arg);
+        } catch (Exception e) {
+            AnyThrow.throwUnchecked(e);
+            return null;
+        }
+    }
+
+    /**
+     * METHODS 中的每一项对应到接口的方法, 有对应不上的 (接口改动之后没有重新编译) 返回 null
+     */
+    private static Method[] resolveMethods(Class<?> interfaceClass, Class<?> generatedClass) {
+        String[] keys;
+        try {
+            keys = (String[]) generatedClass.getField(METHODS_FIELD).get(null);
+        } catch (Exception e) {
+            logger.warn("ignore generated class without {}: {}", METHODS_FIELD, generatedClass.getName());
+            return null;
+        }
+
+        Map<String, Method> interfaceMethods = new HashMap<>();
+        for (Method method : interfaceClass.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                String key = method.getName() + "(" + ServiceDispatchTable.signature(method) + ")";
+                if (!interfaceMethods.containsKey(key)) {
+                    interfaceMethods.put(key, method);
+                }
+            }
+        }
+
+        Method[] methods = new Method[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            methods[i] = interfaceMethods.get(keys[i]);
+            if (methods[i] == null) {
+                logger.warn("ignore stale generated class {}, no method {} in {}",
+                        generatedClass.getName(), keys[i], interfaceClass.getName());
+                return null;
+            }
+        }
+        return methods;
+    }
+
+    static final class Generated {
+
+        final Constructor<?> stub;
+
+        final Constructor<?> skeleton;
+
+        final Method[] methods;
+
+        Generated(Class<?> interfaceClass, Constructor<?> stub, Constructor<?> skeleton) {
+            Method[] methods = null;
+            if (stub != null) {
+                methods = resolveMethods(interfaceClass, stub.getDeclaringClass());
+            } else if (skeleton != null) {
+                methods = resolveMethods(interfaceClass, skeleton.getDeclaringClass());
+            }
+            // stub 和 skeleton 由同一次编译生成, 方法下标相同
+            this.stub = methods == null ? null : stub;
+            this.skeleton = methods == null ? null : skeleton;
+            this.methods = methods;
+        }
+    }
+}
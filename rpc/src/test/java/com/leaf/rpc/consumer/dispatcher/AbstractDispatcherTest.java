@@ -0,0 +1,73 @@
+package com.leaf.rpc.consumer.dispatcher;
+
+import com.leaf.common.UnresolvedAddress;
+import com.leaf.remoting.api.channel.ChannelGroup;
+import com.leaf.remoting.channel.NettyChannelGroup;
+import com.leaf.serialization.api.SerializerType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按服务端声明的序列化类型协商, 测试时本地加载了 protostuff 和 java 两个序列化器
+ */
+public class AbstractDispatcherTest {
+
+    private final AbstractDispatcher dispatcher = new DefaultRoundDispatcher(null, null, SerializerType.PROTO_STUFF);
+
+    @Test
+    public void testFirstCommonType() {
+        // kryo 本地没有加载, 按服务端的顺序选 java
+        ChannelGroup group = group(SerializerType.KRYO, SerializerType.JAVA, SerializerType.PROTO_STUFF);
+        assertEquals(SerializerType.JAVA, dispatcher.serializer(group).serializerType());
+
+        group = group(SerializerType.PROTO_STUFF, SerializerType.JAVA);
+        assertEquals(SerializerType.PROTO_STUFF, dispatcher.serializer(group).serializerType());
+    }
+
+    @Test
+    public void testFallback() {
+        // 旧版本的服务端没有声明, 或者没有双方都支持的类型, 使用创建时指定的类型
+        AbstractDispatcher dispatcher = new DefaultRoundDispatcher(null, null, SerializerType.JAVA);
+        assertEquals(SerializerType.JAVA, dispatcher.serializer(group()).serializerType());
+        assertEquals(SerializerType.JAVA, dispatcher.serializer(group(SerializerType.KRYO)).serializerType());
+
+        // 不协商时总是使用指定的类型
+        dispatcher.negotiateSerializer(false);
+        assertEquals(SerializerType.JAVA, dispatcher.serializer(group(SerializerType.PROTO_STUFF)).serializerType());
+    }
+
+    @Test
+    public void testBroadcast() {
+        ChannelGroup[] groups = {
+                group(SerializerType.JAVA, SerializerType.PROTO_STUFF),
+                group(SerializerType.PROTO_STUFF, SerializerType.JAVA),
+                group(SerializerType.KRYO, SerializerType.PROTO_STUFF)
+        };
+        // 按第一个服务端的顺序, 选所有服务端都支持的第一个
+        assertEquals(SerializerType.PROTO_STUFF, dispatcher.serializer(groups).serializerType());
+
+        groups[2] = group(SerializerType.JAVA);
+        assertEquals(SerializerType.JAVA, dispatcher.serializer(groups).serializerType());
+
+        // 有一个服务端没有声明时使用指定的类型
+        AbstractDispatcher dispatcher = new DefaultRoundDispatcher(null, null, SerializerType.JAVA);
+        groups[2] = group();
+        assertEquals(SerializerType.JAVA, dispatcher.serializer(groups).serializerType());
+    }
+
+    /**
+     * 没有参数时为没有声明序列化类型的旧版本服务端
+     */
+    private static ChannelGroup group(SerializerType... types) {
+        ChannelGroup group = new NettyChannelGroup(new UnresolvedAddress("127.0.0.1", 9180));
+        if (types.length > 0) {
+            byte[] values = new byte[types.length];
+            for (int i = 0; i < types.length; i++) {
+                values[i] = types[i].value();
+            }
+            group.setSerializerTypes(values);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,284 @@
+package com.leaf.rpc.consumer.stream;
+
+import com.leaf.common.UnresolvedAddress;
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.RemotingClient;
+import com.leaf.remoting.api.RemotingCommandFactory;
+import com.leaf.remoting.api.RemotingServer;
+import com.leaf.remoting.api.RequestCommandProcessor;
+import com.leaf.remoting.api.ResponseStatus;
+import com.leaf.remoting.api.exception.RemotingException;
+import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.remoting.api.stream.ResponseStream;
+import com.leaf.remoting.api.stream.StreamSubscription;
+import com.leaf.remoting.netty.NettyClient;
+import com.leaf.remoting.netty.NettyClientConfig;
+import com.leaf.remoting.netty.NettyServer;
+import com.leaf.remoting.netty.NettyServerConfig;
+import com.leaf.rpc.provider.process.ResponseWrapper;
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.protostuff.ProtoStuffSerializer;
+import io.netty.channel.ChannelHandlerContext;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 服务端 ResponseStream 按 credit 写出元素, 消费端 StreamIterator 按消费进度发放 credit
+ * <p>
+ * 请求消息体为 元素个数(4) | 写出几个元素之后失败(4, -1 表示不失败)
+ */
+public class StreamIteratorTest {
+
+    private static final Serializer SERIALIZER = new ProtoStuffSerializer();
+
+    private static final int PORT = 9190;
+
+    private static final int WINDOW = 4;
+
+    private static final long TIMEOUT_MILLIS = 3000;
+
+    /**
+     * 服务端已经写出的元素个数
+     */
+    private static final AtomicInteger written = new AtomicInteger();
+
+    private static RemotingServer server;
+
+    private static RemotingClient client;
+
+    private static ExecutorService executor;
+
+    private static UnresolvedAddress address;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setPort(PORT);
+        server = new NettyServer(serverConfig);
+        executor = Executors.newCachedThreadPool();
+        server.registerRequestProcess(new StreamProcessor(), executor);
+        server.start();
+
+        client = new NettyClient(new NettyClientConfig());
+        client.start();
+        address = new UnresolvedAddress("127.0.0.1", PORT);
+        client.connect(address);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        client.shutdownGracefully();
+        server.shutdownGracefully();
+        executor.shutdownNow();
+    }
+
+    @Before
+    public void before() {
+        written.set(0);
+    }
+
+    @Test
+    public void testCredits() throws Exception {
+        StreamIterator<Integer> iterator = invoke(20, -1);
+
+        // 消费端还没有消费, 服务端写出 window 个元素之后等待 credit
+        waitWritten(WINDOW);
+        Thread.sleep(200);
+        assertEquals(WINDOW, written.get());
+
+        List<Integer> elements = new ArrayList<>();
+        while (iterator.hasNext()) {
+            elements.add(iterator.next());
+            // 每消费 window 的一半发放一次 credit, 服务端最多领先 window 个元素
+            assertTrue(written.get() <= elements.size() + WINDOW);
+        }
+        assertEquals(20, elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            assertEquals(Integer.valueOf(i), elements.get(i));
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        StreamIterator<Integer> iterator = invoke(0, -1);
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        StreamIterator<Integer> iterator = invoke(10, 3);
+        assertEquals(Integer.valueOf(0), iterator.next());
+        assertEquals(Integer.valueOf(1), iterator.next());
+        assertEquals(Integer.valueOf(2), iterator.next());
+        try {
+            iterator.hasNext();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed after 3", e.getMessage());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testWindowOverflow() {
+        RecordingSubscription subscription = new RecordingSubscription();
+        StreamIterator<Integer> iterator = new StreamIterator<>(SERIALIZER, 1, TIMEOUT_MILLIS);
+        iterator.subscribe(subscription);
+        // 队列容量为 window + 2, 放不下的元素变成终止信号, 不会因为队列已满而丢失
+        for (int i = 0; i < 4; i++) {
+            iterator.onResponse(element(i, 1L));
+        }
+        try {
+            iterator.hasNext();
+            fail();
+        } catch (Exception e) {
+            // hasNext 原样抛出受检异常
+            assertTrue(e instanceof RemotingException);
+            assertTrue(e.getMessage().startsWith("stream window overflow"));
+        }
+        assertTrue(subscription.cancelled);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testFailureOnFullQueue() {
+        RecordingSubscription subscription = new RecordingSubscription();
+        StreamIterator<Integer> iterator = new StreamIterator<>(SERIALIZER, 1, TIMEOUT_MILLIS);
+        iterator.subscribe(subscription);
+        for (int i = 0; i < 3; i++) {
+            iterator.onResponse(element(i, 1L));
+        }
+        IllegalStateException cause = new IllegalStateException("closed");
+        iterator.onFailure(cause);
+        try {
+            iterator.hasNext();
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(cause, e);
+        }
+        assertTrue(subscription.cancelled);
+    }
+
+    @Test
+    public void testRequestCredits() {
+        RecordingSubscription subscription = new RecordingSubscription();
+        StreamIterator<Integer> iterator = new StreamIterator<>(SERIALIZER, WINDOW, TIMEOUT_MILLIS);
+        iterator.subscribe(subscription);
+        for (int i = 0; i < WINDOW; i++) {
+            iterator.onResponse(element(i, 1L));
+        }
+        iterator.onResponse(end(null, ResponseStatus.STREAM_COMPLETE, 1L));
+
+        for (int i = 0; i < WINDOW; i++) {
+            assertEquals(Integer.valueOf(i), iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+        assertEquals(2, subscription.requests.size());
+        assertEquals(Integer.valueOf(WINDOW / 2), subscription.requests.get(0));
+        assertEquals(Integer.valueOf(WINDOW / 2), subscription.requests.get(1));
+        assertFalse(subscription.cancelled);
+    }
+
+    private static StreamIterator<Integer> invoke(int count, int failAfter) throws Exception {
+        byte[] body = ByteBuffer.allocate(8).putInt(count).putInt(failAfter).array();
+        RequestCommand request = new RequestCommand(ProtocolHead.STREAM_REQUEST, SERIALIZER.serializerType().value(), body);
+        StreamIterator<Integer> iterator = new StreamIterator<>(SERIALIZER, WINDOW, TIMEOUT_MILLIS);
+        iterator.subscribe(client.invokeStream(address, request, TIMEOUT_MILLIS, iterator));
+        return iterator;
+    }
+
+    private static void waitWritten(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (written.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, written.get());
+    }
+
+    private static ResponseCommand element(int value, long invokeId) {
+        ResponseWrapper wrapper = new ResponseWrapper();
+        wrapper.setResult(value);
+        return RemotingCommandFactory.createResponseCommand(ProtocolHead.STREAM_RESPONSE, SERIALIZER, wrapper, invokeId);
+    }
+
+    private static ResponseCommand end(Throwable cause, ResponseStatus status, long invokeId) {
+        ResponseWrapper wrapper = new ResponseWrapper();
+        wrapper.setCase(cause);
+        ResponseCommand response = RemotingCommandFactory.createResponseCommand(
+                ProtocolHead.STREAM_RESPONSE, SERIALIZER, wrapper, invokeId);
+        response.setStatus(status.value());
+        return response;
+    }
+
+    /**
+     * 和 DefaultRequestProcessor 的流式分支一样: 逐个写出元素, 返回结束帧
+     */
+    static final class StreamProcessor implements RequestCommandProcessor {
+
+        @Override
+        public ResponseCommand process(ChannelHandlerContext context, RequestCommand request) {
+            ByteBuffer body = request.isBodyBuf()
+                    ? request.getBodyBuf().nioBuffer()
+                    : ByteBuffer.wrap(request.getBody());
+            int count = body.getInt();
+            int failAfter = body.getInt();
+
+            ResponseStream stream = server.openStream(context.channel(), request.getInvokeId(), WINDOW);
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (i == failAfter) {
+                        return end(new IllegalStateException("failed after " + i), ResponseStatus.SERVER_ERROR,
+                                request.getInvokeId());
+                    }
+                    stream.write(element(i, request.getInvokeId()), TIMEOUT_MILLIS);
+                    written.incrementAndGet();
+                }
+            } catch (Exception e) {
+                return end(e, ResponseStatus.SERVER_ERROR, request.getInvokeId());
+            }
+            return end(null, ResponseStatus.STREAM_COMPLETE, request.getInvokeId());
+        }
+
+        @Override
+        public ResponseCommand process(ChannelHandlerContext context, RequestCommand request, Throwable e) {
+            return null;
+        }
+    }
+
+    static final class RecordingSubscription implements StreamSubscription {
+
+        final List<Integer> requests = new ArrayList<>();
+
+        boolean cancelled;
+
+        @Override
+        public void request(int n) {
+            requests.add(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public long invokeId() {
+            return 1L;
+        }
+    }
+}
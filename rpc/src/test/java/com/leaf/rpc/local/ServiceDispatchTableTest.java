@@ -0,0 +1,163 @@
+package com.leaf.rpc.local;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按方法签名和按参数运行时类型查找重载方法
+ */
+public class ServiceDispatchTableTest {
+
+    private final ServiceDispatchTable table = new ServiceDispatchTable(EchoService.class, new EchoServiceImpl());
+
+    @Test
+    public void testLookupBySignature() throws Throwable {
+        assertEquals("int", invoke("echo", "int", 1));
+        assertEquals("Integer", invoke("echo", "java.lang.Integer", 1));
+        assertEquals("String", invoke("echo", "java.lang.String", "a"));
+        assertEquals("String,long", invoke("echo", "java.lang.String,long", "a", 1L));
+        assertEquals("", invoke("echo", ""));
+    }
+
+    @Test
+    public void testLookupByArgs() throws Throwable {
+        assertEquals("String", invoke("echo", null, "a"));
+        assertEquals("String,long", invoke("echo", null, "a", 1L));
+        assertEquals("", invoke("echo", null));
+        assertEquals("List", invoke("echo", null, new ArrayList<String>()));
+        // 基本类型参数匹配包装类型
+        assertEquals("short", invoke("echo", null, (short) 1));
+        // null 可以匹配任意引用类型
+        assertEquals("char,Object", invoke("echo", null, 'c', null));
+    }
+
+    @Test
+    public void testSingleMethod() throws Throwable {
+        // 只有一个同名方法时不检查参数
+        assertEquals(3, invoke("sum", null, 1, 2));
+        assertEquals(3, invoke("sum", "int,int", 1, 2));
+    }
+
+    @Test
+    public void testSignature() throws NoSuchMethodException {
+        assertEquals("java.lang.String,long",
+                ServiceDispatchTable.signature(EchoService.class.getMethod("echo", String.class, long.class)));
+        assertEquals("[B,[Ljava.lang.String;",
+                ServiceDispatchTable.signature(EchoService.class.getMethod("bytes", byte[].class, String[].class)));
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testUnknownMethod() throws NoSuchMethodException {
+        table.lookup("missing", null, null);
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testUnknownSignature() throws NoSuchMethodException {
+        table.lookup("echo", "double", new Object[]{1d});
+    }
+
+    /**
+     * null 不能匹配基本类型
+     */
+    @Test(expected = NoSuchMethodException.class)
+    public void testNullForPrimitive() throws NoSuchMethodException {
+        table.lookup("echo", null, new Object[]{"a", null});
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testStaticMethod() throws NoSuchMethodException {
+        table.lookup("version", null, null);
+    }
+
+    private Object invoke(String methodName, String signature, Object... args) throws Throwable {
+        return lookup(methodName, signature, args).invoke(args);
+    }
+
+    private MethodInvoker lookup(String methodName, String signature, Object... args) throws NoSuchMethodException {
+        return table.lookup(methodName, signature, args);
+    }
+
+    public interface EchoService {
+
+        String echo();
+
+        String echo(int value);
+
+        String echo(Integer value);
+
+        String echo(short value);
+
+        String echo(String value);
+
+        String echo(List<String> value);
+
+        String echo(String value, long time);
+
+        String echo(char c, Object value);
+
+        String bytes(byte[] bytes, String[] names);
+
+        int sum(int a, int b);
+
+        static String version() {
+            return "1";
+        }
+    }
+
+    static class EchoServiceImpl implements EchoService {
+
+        @Override
+        public String echo() {
+            return "";
+        }
+
+        @Override
+        public String echo(int value) {
+            return "int";
+        }
+
+        @Override
+        public String echo(Integer value) {
+            return "Integer";
+        }
+
+        @Override
+        public String echo(short value) {
+            return "short";
+        }
+
+        @Override
+        public String echo(String value) {
+            return "String";
+        }
+
+        @Override
+        public String echo(List<String> value) {
+            return "List";
+        }
+
+        @Override
+        public String echo(String value, long time) {
+            return "String,long";
+        }
+
+        @Override
+        public String echo(char c, Object value) {
+            return "char,Object";
+        }
+
+        @Override
+        public String bytes(byte[] bytes, String[] names) {
+            return "bytes";
+        }
+
+        @Override
+        public int sum(int a, int b) {
+            return a + b;
+        }
+    }
+}
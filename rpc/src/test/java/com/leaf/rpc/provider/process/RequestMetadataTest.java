@@ -0,0 +1,217 @@
+package com.leaf.rpc.provider.process;
+
+import com.leaf.common.model.ServiceMeta;
+import com.leaf.remoting.api.ProtocolHead;
+import com.leaf.remoting.api.payload.RequestCommand;
+import com.leaf.remoting.api.payload.RequestRoute;
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.protostuff.ProtoStuffSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 元数据的编码和解析, 路由键, 以及对端不支持 v2 时的完整 RequestWrapper 消息体
+ */
+public class RequestMetadataTest {
+
+    private static final Serializer SERIALIZER = new ProtoStuffSerializer();
+
+    private static final ServiceMeta SERVICE_META = new ServiceMeta("group", "com.leaf.HelloService", "1.0.0");
+
+    @Test
+    public void testMetadata() {
+        RequestWrapper request = request();
+        request.setJsonArgs(true);
+        request.setStreamWindow(300);
+
+        ByteBuf out = Unpooled.buffer();
+        RequestMetadata.write(out, request, false);
+        RequestWrapper decoded = RequestMetadata.read(out, null);
+
+        assertFalse(out.isReadable());
+        assertTrue(decoded.isJsonArgs());
+        assertEquals(SERVICE_META, decoded.getServiceMeta());
+        assertEquals("sayHello", decoded.getMethodName());
+        assertEquals("app", decoded.getApplication());
+        assertEquals(300, decoded.getStreamWindow());
+        assertEquals(request.getAttachment(), decoded.getAttachment());
+        assertNull(decoded.getArgs());
+        assertFalse(decoded.isTypedArgs());
+    }
+
+    @Test
+    public void testNullStrings() {
+        RequestWrapper request = request();
+        request.setServiceMeta(new ServiceMeta("com.leaf.HelloService"));
+        request.setApplication(null);
+        request.setAttachment(null);
+
+        ByteBuf out = Unpooled.buffer();
+        RequestMetadata.write(out, request, false);
+        RequestWrapper decoded = RequestMetadata.read(out, null);
+
+        assertEquals(request.getServiceMeta(), decoded.getServiceMeta());
+        assertNull(decoded.getApplication());
+        assertNull(decoded.getAttachment());
+    }
+
+    @Test
+    public void testRoute() {
+        RequestRoute route = RequestMetadata.createRoute("app", SERVICE_META, "sayHello", "java.lang.String");
+        RequestWrapper request = request();
+        request.setParameterTypes(new Class<?>[]{String.class});
+
+        ByteBuf out = Unpooled.buffer();
+        RequestMetadata.write(out, request, true);
+        RequestWrapper decoded = RequestMetadata.read(out, route);
+
+        assertEquals(SERVICE_META, decoded.getServiceMeta());
+        assertEquals("sayHello", decoded.getMethodName());
+        assertEquals("java.lang.String", decoded.getMethodSignature());
+        assertEquals("app", decoded.getApplication());
+        assertTrue(decoded.isTypedArgs());
+        assertEquals(request.getAttachment(), decoded.getAttachment());
+
+        // 解析结果缓存在路由键上
+        Object target = route.getTarget();
+        assertNotNull(target);
+        out.readerIndex(0);
+        assertEquals(SERVICE_META, RequestMetadata.read(out, route).getServiceMeta());
+        assertSame(target, route.getTarget());
+    }
+
+    @Test
+    public void testRouteNullParts() {
+        RequestRoute route = RequestMetadata.createRoute(null, new ServiceMeta("com.leaf.HelloService"), "sayHello", null);
+        ByteBuf out = Unpooled.buffer();
+        RequestMetadata.write(out, request(), true);
+        RequestWrapper decoded = RequestMetadata.read(out, route);
+
+        assertNull(decoded.getApplication());
+        assertEquals(new ServiceMeta("com.leaf.HelloService"), decoded.getServiceMeta());
+        assertNull(decoded.getMethodSignature());
+        assertFalse(decoded.isTypedArgs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRouteMissing() {
+        ByteBuf out = Unpooled.buffer();
+        RequestMetadata.write(out, request(), true);
+        RequestMetadata.read(out, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        ByteBuf out = Unpooled.buffer();
+        RequestMetadata.write(out, request(), false);
+        RequestMetadata.read(out.slice(0, out.readableBytes() - 1), null);
+    }
+
+    @Test
+    public void testVarInt() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        ByteBuf out = Unpooled.buffer();
+        for (int value : values) {
+            RequestMetadata.writeVarInt(out, value);
+        }
+        for (int value : values) {
+            assertEquals(value, RequestMetadata.readVarInt(out));
+        }
+    }
+
+    @Test
+    public void testPeerV2Request() {
+        RequestWrapper request = request();
+        request.setMethodSignature("java.lang.String");
+        request.setParameterTypes(new Class<?>[]{String.class});
+        RequestCommand command = RequestMetadata.createRequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, request, true);
+        try {
+            assertTrue(command.hasMeta());
+            assertTrue(RequestMetadata.isTypedArgs(command));
+            assertNotNull(command.getRoute());
+
+            ByteBuf body = RequestMetadata.body(command);
+            RequestWrapper decoded = RequestMetadata.read(body, command.getRoute());
+            assertEquals("java.lang.String", decoded.getMethodSignature());
+            assertArrayEquals(request.getArgs(), TypedCodec.readArgs(body, SERIALIZER, request.getParameterTypes()));
+        } finally {
+            command.release();
+        }
+    }
+
+    @Test
+    public void testPeerV2RequestUntyped() {
+        RequestWrapper request = request();
+        RequestCommand command = RequestMetadata.createRequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, request, true);
+        try {
+            assertFalse(RequestMetadata.isTypedArgs(command));
+            ByteBuf body = RequestMetadata.body(command);
+            RequestMetadata.read(body, command.getRoute());
+            assertArrayEquals(request.getArgs(), RequestMetadata.readArgs(SERIALIZER, body));
+        } finally {
+            command.release();
+        }
+    }
+
+    @Test
+    public void testLegacyRequest() {
+        RequestWrapper request = request();
+        request.setParameterTypes(new Class<?>[]{String.class});
+        RequestCommand command = RequestMetadata.createRequestCommand(ProtocolHead.RPC_REQUEST, SERIALIZER, request, false);
+        try {
+            // 老版本的服务端: 没有 status, 没有路由键, 消息体是完整的 RequestWrapper
+            assertFalse(command.hasMeta());
+            assertEquals(0, command.getStatus());
+            assertNull(command.getRoute());
+            assertFalse(RequestMetadata.isTypedArgs(command));
+
+            RequestWrapper decoded = SERIALIZER.readObject(RequestMetadata.body(command), RequestWrapper.class);
+            assertEquals(SERVICE_META, decoded.getServiceMeta());
+            assertEquals("sayHello", decoded.getMethodName());
+            assertArrayEquals(request.getArgs(), decoded.getArgs());
+        } finally {
+            command.release();
+        }
+    }
+
+    @Test
+    public void testLegacyStreamRequest() {
+        RequestWrapper request = request();
+        request.setParameterTypes(new Class<?>[]{String.class});
+        request.setStreamWindow(16);
+        RequestCommand command = RequestMetadata.createRequestCommand(ProtocolHead.STREAM_REQUEST, SERIALIZER, request, false);
+        try {
+            // 流式请求总是带元数据, 但不带路由键, 参数不按签名编码
+            assertTrue(command.hasMeta());
+            assertNull(command.getRoute());
+            assertFalse(RequestMetadata.isTypedArgs(command));
+
+            ByteBuf body = RequestMetadata.body(command);
+            RequestWrapper decoded = RequestMetadata.read(body, null);
+            assertEquals(SERVICE_META, decoded.getServiceMeta());
+            assertEquals(16, decoded.getStreamWindow());
+            assertArrayEquals(request.getArgs(), RequestMetadata.readArgs(SERIALIZER, body));
+        } finally {
+            command.release();
+        }
+    }
+
+    private static RequestWrapper request() {
+        RequestWrapper request = new RequestWrapper();
+        request.setServiceMeta(SERVICE_META);
+        request.setMethodName("sayHello");
+        request.setApplication("app");
+        request.setArgs(new Object[]{"leaf"});
+        Map<String, String> attachment = new HashMap<>();
+        attachment.put("traceId", "t1");
+        attachment.put("empty", "");
+        request.setAttachment(attachment);
+        return request;
+    }
+}
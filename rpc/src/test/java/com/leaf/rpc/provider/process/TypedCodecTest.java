@@ -0,0 +1,218 @@
+package com.leaf.rpc.provider.process;
+
+import com.leaf.remoting.api.payload.ResponseCommand;
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.protostuff.ProtoStuffSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.Assert.*;
+
+/**
+ * 参数按签名编码之后再按同样的签名解码; surefire 配置 leaf.raw.bytes.zero.copy.threshold=1024
+ */
+public class TypedCodecTest {
+
+    private static final Serializer SERIALIZER = new ProtoStuffSerializer();
+
+    private static final int THRESHOLD = 1024;
+
+    @Test
+    public void testPrimitives() {
+        Class<?>[] types = {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class};
+        Object[] args = {true, (byte) -1, (short) 300, 'x', -123456, Long.MIN_VALUE, 1.5f, -2.25d};
+
+        ByteBuf out = Unpooled.buffer();
+        assertSame(out, TypedCodec.writeArgs(out, SERIALIZER, types, args));
+        assertArrayEquals(args, TypedCodec.readArgs(out, SERIALIZER, types));
+        assertFalse(out.isReadable());
+    }
+
+    @Test
+    public void testTags() {
+        assertEquals(0, tag(Integer.class, null));
+        assertEquals(1, tag(Integer.class, 7));
+        assertEquals(1, tag(String.class, "leaf"));
+        assertEquals(1, tag(Bean.class, new Bean("a", 1)));
+        // 声明类型是接口, 或者实际类型是子类
+        assertEquals(2, tag(List.class, new ArrayList<String>()));
+        assertEquals(2, tag(Bean.class, new SubBean("b", 2)));
+        assertEquals(2, tag(Object.class, "leaf"));
+    }
+
+    @Test
+    public void testBoxedEnumAndBean() {
+        Class<?>[] types = {Integer.class, Long.class, String.class, Color.class, Bean.class, Integer.class};
+        Object[] args = {42, -7L, "leaf", Color.GREEN, new Bean("a", 1), null};
+
+        assertArrayEquals(args, roundTrip(types, args));
+    }
+
+    @Test
+    public void testPolymorphic() {
+        Class<?>[] types = {List.class, Bean.class, Object.class};
+        Object[] args = {new ArrayList<>(Arrays.asList("a", "b")), new SubBean("b", 2), 3};
+
+        Object[] decoded = roundTrip(types, args);
+        assertEquals(args[0], decoded[0]);
+        assertEquals(SubBean.class, decoded[1].getClass());
+        assertEquals(args[1], decoded[1]);
+        assertEquals(3, decoded[2]);
+    }
+
+    @Test
+    public void testRawBytesBelowThreshold() {
+        byte[] bytes = bytes(THRESHOLD - 1);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(THRESHOLD - 1));
+        Class<?>[] types = {byte[].class, ByteBuffer.class};
+
+        ByteBuf out = Unpooled.buffer();
+        ByteBuf body = TypedCodec.writeArgs(out, SERIALIZER, types, new Object[]{bytes, buffer});
+        // 拷贝进消息体
+        assertSame(out, body);
+
+        Object[] decoded = TypedCodec.readArgs(body, SERIALIZER, types);
+        assertArrayEquals(bytes, (byte[]) decoded[0]);
+        assertEquals(buffer, decoded[1]);
+        body.release();
+    }
+
+    @Test
+    public void testRawBytesAboveThreshold() {
+        byte[] bytes = bytes(THRESHOLD);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(THRESHOLD * 2));
+        Class<?>[] types = {byte[].class, int.class, ByteBuffer.class, String.class};
+        Object[] args = {bytes, 1, buffer, "tail"};
+
+        ByteBuf body = TypedCodec.writeArgs(Unpooled.buffer(), SERIALIZER, types, args);
+        assertTrue(body instanceof CompositeByteBuf);
+        // 参数不拷贝, 消息写出之前的修改会被发出去
+        bytes[0] = 42;
+
+        Object[] decoded = TypedCodec.readArgs(body, SERIALIZER, types);
+        assertArrayEquals(bytes, (byte[]) decoded[0]);
+        assertEquals(1, decoded[1]);
+        assertEquals(buffer, decoded[2]);
+        assertEquals("tail", decoded[3]);
+        // 调用方的 ByteBuffer 位置不变
+        assertEquals(0, buffer.position());
+        body.release();
+    }
+
+    @Test
+    public void testResponse() {
+        byte[] small = bytes(16);
+        assertArrayEquals(small, (byte[]) response(byte[].class, small));
+
+        byte[] large = bytes(THRESHOLD * 4);
+        assertArrayEquals(large, (byte[]) response(byte[].class, large));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(THRESHOLD * 4));
+        assertEquals(buffer, response(ByteBuffer.class, buffer));
+
+        assertEquals(new Bean("a", 1), response(Bean.class, new Bean("a", 1)));
+        assertEquals(3L, response(long.class, 3L));
+        assertNull(response(void.class, null));
+        assertNull(response(String.class, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArgsLengthMismatch() {
+        TypedCodec.writeArgs(Unpooled.buffer(), SERIALIZER, new Class<?>[]{int.class, String.class}, new Object[]{1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTag() {
+        ByteBuf in = Unpooled.buffer().writeByte(9);
+        TypedCodec.readArgs(in, SERIALIZER, new Class<?>[]{String.class});
+    }
+
+    private static Object[] roundTrip(Class<?>[] types, Object[] args) {
+        ByteBuf body = TypedCodec.writeArgs(Unpooled.buffer(), SERIALIZER, types, args);
+        try {
+            Object[] decoded = TypedCodec.readArgs(body, SERIALIZER, types);
+            assertFalse(body.isReadable());
+            return decoded;
+        } finally {
+            body.release();
+        }
+    }
+
+    private static int tag(Class<?> type, Object value) {
+        ByteBuf out = Unpooled.buffer();
+        TypedCodec.writeValue(out, SERIALIZER, type, value);
+        assertEquals(value, TypedCodec.readValue(out.duplicate(), SERIALIZER, type));
+        return out.getByte(0);
+    }
+
+    private static Object response(Class<?> type, Object result) {
+        ResponseCommand response = TypedCodec.createResponseCommand(SERIALIZER, type, result, 1L);
+        try {
+            return TypedCodec.readResponse(SERIALIZER, response, type).getResult();
+        } finally {
+            response.release();
+        }
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    enum Color {
+        RED, GREEN
+    }
+
+    static class Bean {
+
+        String name;
+
+        int age;
+
+        Bean() {
+        }
+
+        Bean(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Bean bean = (Bean) o;
+            return age == bean.age && Objects.equals(name, bean.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, age);
+        }
+    }
+
+    static class SubBean extends Bean {
+
+        SubBean() {
+        }
+
+        SubBean(String name, int age) {
+            super(name, age);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.leaf.rpc.stub;
+
+import com.leaf.common.annotation.ServiceInterface;
+
+import java.io.IOException;
+
+/**
+ * 编译 rpc 模块的测试时由 processor 生成 stub 和 skeleton
+ */
+@ServiceInterface(group = "test")
+public interface CalcService {
+
+    int add(int a, int b);
+
+    Integer add(Integer a, Integer b);
+
+    void reset();
+
+    String echo(String value) throws IOException;
+
+    default String name() {
+        return "calc";
+    }
+}
@@ -0,0 +1,13 @@
+package com.leaf.rpc.stub;
+
+/**
+ * 没有 @ServiceInterface, 使用运行时生成的 stub
+ */
+public interface PlainCalcService {
+
+    int add(int a, int b);
+
+    Integer add(Integer a, Integer b);
+
+    void reset();
+}
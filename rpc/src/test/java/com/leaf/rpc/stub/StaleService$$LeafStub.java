@@ -0,0 +1,22 @@
+package com.leaf.rpc.stub;
+
+/**
+ * 模拟旧版本接口生成的 stub, METHODS 中的方法在接口中已经不存在
+ */
+public final class StaleService$$LeafStub implements StaleService {
+
+    public static final String[] METHODS = {
+            "hello(java.lang.String,int)"
+    };
+
+    private final StubInvoker invoker;
+
+    public StaleService$$LeafStub(StubInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    @Override
+    public String hello(String name) {
+        return (String) invoker.invoke(0, new Object[]{name});
+    }
+}
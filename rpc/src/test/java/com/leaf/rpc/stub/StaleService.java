@@ -0,0 +1,9 @@
+package com.leaf.rpc.stub;
+
+/**
+ * 接口改动之后没有重新生成的 stub, 见 StaleService$$LeafStub
+ */
+public interface StaleService {
+
+    String hello(String name);
+}
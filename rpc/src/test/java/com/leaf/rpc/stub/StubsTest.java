@@ -0,0 +1,205 @@
+package com.leaf.rpc.stub;
+
+import com.leaf.common.utils.AnyThrow;
+import com.leaf.rpc.local.MethodInvoker;
+import com.leaf.rpc.local.ServiceDispatchTable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编译期生成的 stub/skeleton (CalcService), 运行时生成的 stub (PlainCalcService), 以及 METHODS 过期时的回退 (StaleService)
+ */
+public class StubsTest {
+
+    @Test
+    public void testGeneratedMethods() throws Exception {
+        Method[] methods = Stubs.methods(CalcService.class);
+        assertNotNull(methods);
+        assertArrayEquals(methods, Stubs.stubMethods(CalcService.class));
+        assertEquals(new HashSet<>(Arrays.asList(CalcService.class.getMethods())), new HashSet<>(Arrays.asList(methods)));
+
+        // METHODS 的每一项和 ServiceDispatchTable.signature 一致
+        Class<?> stubClass = Class.forName(CalcService.class.getName() + Stubs.STUB_SUFFIX);
+        Class<?> skeletonClass = Class.forName(CalcService.class.getName() + Stubs.SKELETON_SUFFIX);
+        String[] keys = (String[]) stubClass.getField(Stubs.METHODS_FIELD).get(null);
+        assertArrayEquals(keys, (String[]) skeletonClass.getField(Stubs.METHODS_FIELD).get(null));
+        for (int i = 0; i < methods.length; i++) {
+            assertEquals(methods[i].getName() + "(" + ServiceDispatchTable.signature(methods[i]) + ")", keys[i]);
+        }
+    }
+
+    @Test
+    public void testGeneratedStub() throws IOException {
+        RecordingInvoker invoker = new RecordingInvoker();
+        CalcService stub = Stubs.newStub(CalcService.class, invoker);
+        assertEquals(CalcService.class.getName() + Stubs.STUB_SUFFIX, stub.getClass().getName());
+
+        Method[] methods = Stubs.stubMethods(CalcService.class);
+        invoker.result = 3;
+        assertEquals(3, stub.add(1, 2));
+        invoker.assertCalled(methods, "add", "int,int", 1, 2);
+
+        // 包装类型的重载是另一个下标, null 参数原样传递
+        assertEquals(Integer.valueOf(3), stub.add(null, 2));
+        invoker.assertCalled(methods, "add", "java.lang.Integer,java.lang.Integer", null, 2);
+
+        invoker.result = null;
+        stub.reset();
+        invoker.assertCalled(methods, "reset", "");
+
+        // default 方法也走远程调用
+        invoker.result = "remote";
+        assertEquals("remote", stub.name());
+        invoker.assertCalled(methods, "name", "");
+    }
+
+    @Test(expected = IOException.class)
+    public void testCheckedException() throws IOException {
+        CalcService stub = Stubs.newStub(CalcService.class, new StubInvoker() {
+            @Override
+            public Object invoke(int methodIndex, Object[] args) {
+                AnyThrow.throwUnchecked(new IOException("remote"));
+                return null;
+            }
+        });
+        stub.echo("leaf");
+    }
+
+    @Test
+    public void testGeneratedSkeleton() throws Throwable {
+        CalcServiceImpl service = new CalcServiceImpl();
+        ServiceSkeleton skeleton = Stubs.newSkeleton(CalcService.class, service);
+        assertNotNull(skeleton);
+        assertEquals(CalcService.class.getName() + Stubs.SKELETON_SUFFIX, skeleton.getClass().getName());
+
+        Method[] methods = Stubs.methods(CalcService.class);
+        assertEquals(3, skeleton.invoke(index(methods, "add", "int,int"), new Object[]{1, 2}));
+        assertEquals(-1, skeleton.invoke(index(methods, "add", "java.lang.Integer,java.lang.Integer"), new Object[]{null, 2}));
+        assertNull(skeleton.invoke(index(methods, "reset", ""), new Object[0]));
+        assertEquals(1, service.resets);
+        assertEquals("calc", skeleton.invoke(index(methods, "name", ""), new Object[0]));
+
+        try {
+            skeleton.invoke(index(methods, "echo", "java.lang.String"), new Object[]{null});
+            fail();
+        } catch (IOException e) {
+            assertEquals("null value", e.getMessage());
+        }
+
+        // 服务端的分派表通过 skeleton 调用
+        ServiceDispatchTable table = new ServiceDispatchTable(CalcService.class, service);
+        MethodInvoker invoker = table.lookup("add", "java.lang.Integer,java.lang.Integer", new Object[]{1, 2});
+        assertEquals(3, invoker.invoke(new Object[]{1, 2}));
+        assertEquals(3, table.lookup("add", "int,int", null).invoke(new Object[]{1, 2}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSkeletonUnknownIndex() throws Throwable {
+        Stubs.newSkeleton(CalcService.class, new CalcServiceImpl()).invoke(100, new Object[0]);
+    }
+
+    @Test
+    public void testRuntimeStub() {
+        assertNull(Stubs.methods(PlainCalcService.class));
+        assertNull(Stubs.newSkeleton(PlainCalcService.class, new Object()));
+
+        RecordingInvoker invoker = new RecordingInvoker();
+        PlainCalcService stub = Stubs.newStub(PlainCalcService.class, invoker);
+        assertNotEquals(PlainCalcService.class.getName() + Stubs.STUB_SUFFIX, stub.getClass().getName());
+
+        Method[] methods = Stubs.stubMethods(PlainCalcService.class);
+        assertEquals(3, methods.length);
+
+        invoker.result = 3;
+        assertEquals(3, stub.add(1, 2));
+        invoker.assertCalled(methods, "add", "int,int", 1, 2);
+        assertEquals(Integer.valueOf(3), stub.add(1, null));
+        invoker.assertCalled(methods, "add", "java.lang.Integer,java.lang.Integer", 1, null);
+
+        invoker.result = null;
+        stub.reset();
+        invoker.assertCalled(methods, "reset", "");
+
+        // 每个接口只生成一次
+        assertSame(stub.getClass(), Stubs.newStub(PlainCalcService.class, invoker).getClass());
+    }
+
+    @Test
+    public void testStaleGeneratedStub() {
+        assertNull(Stubs.methods(StaleService.class));
+
+        RecordingInvoker invoker = new RecordingInvoker();
+        StaleService stub = Stubs.newStub(StaleService.class, invoker);
+        assertNotEquals(StaleService$$LeafStub.class, stub.getClass());
+
+        invoker.result = "hi";
+        assertEquals("hi", stub.hello("leaf"));
+        invoker.assertCalled(Stubs.stubMethods(StaleService.class), "hello", "java.lang.String", "leaf");
+    }
+
+    private static int index(Method[] methods, String name, String signature) {
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].getName().equals(name) && ServiceDispatchTable.signature(methods[i]).equals(signature)) {
+                return i;
+            }
+        }
+        throw new AssertionError("no method " + name + "(" + signature + ")");
+    }
+
+    static final class RecordingInvoker implements StubInvoker {
+
+        private final List<Object[]> calls = new ArrayList<>();
+
+        Object result;
+
+        @Override
+        public Object invoke(int methodIndex, Object[] args) {
+            calls.add(new Object[]{methodIndex, args});
+            return result;
+        }
+
+        void assertCalled(Method[] methods, String name, String signature, Object... args) {
+            assertEquals(1, calls.size());
+            Object[] call = calls.remove(0);
+            assertEquals(index(methods, name, signature), call[0]);
+            assertArrayEquals(args, (Object[]) call[1]);
+        }
+    }
+
+    static final class CalcServiceImpl implements CalcService {
+
+        int resets;
+
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override
+        public Integer add(Integer a, Integer b) {
+            return a == null || b == null ? -1 : a + b;
+        }
+
+        @Override
+        public void reset() {
+            resets++;
+        }
+
+        @Override
+        public String echo(String value) throws IOException {
+            if (value == null) {
+                throw new IOException("null value");
+            }
+            return value;
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.leaf.serialization.api;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.lang.reflect.Type;
+
 public interface Serializer {
 
     SerializerType serializerType();
@@ -7,4 +12,32 @@ public interface Serializer {
     <T> byte[] serialize(T object);
 
     <T> T deserialize(byte[] data, Class<T> clazz);
+
+    /**
+     * 序列化直接写入 out, 默认实现经过一次 byte[] 中转, 具体实现可覆盖以避免拷贝
+     */
+    default <T> void writeObject(ByteBuf out, T object) {
+        out.writeBytes(serialize(object));
+    }
+
+    /**
+     * 从 in 的全部可读字节反序列化, 读取完成后 readerIndex 移动到 writerIndex
+     */
+    default <T> T readObject(ByteBuf in, Class<T> clazz) {
+        int length = in.readableBytes();
+        // 只有底层数组正好是全部可读字节时才直接使用, slice 的底层数组是原 ByteBuf 的
+        byte[] data = in.hasArray() && in.arrayOffset() == 0 && in.readerIndex() == 0 && in.array().length == length
+                ? in.array()
+                : ByteBufUtil.getBytes(in, in.readerIndex(), length);
+        in.skipBytes(length);
+        return deserialize(data, clazz);
+    }
+
+    /**
+     * 提前准备 type 的序列化元数据 (例如 protostuff 的 schema), 避免第一次调用时在请求路径上构建, 默认不做任何事
+     *
+     * @param type 方法的参数或返回值类型, 可以是带泛型参数的类型
+     */
+    default void warmUp(Type type) {
+    }
 }
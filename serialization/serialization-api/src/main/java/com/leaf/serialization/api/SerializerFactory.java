@@ -1,9 +1,16 @@
 package com.leaf.serialization.api;
 
+import io.netty.util.internal.SystemPropertyUtil;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 
 public class SerializerFactory {
 
@@ -11,13 +18,36 @@ public class SerializerFactory {
 
     private static Map<SerializerType, Serializer> serializerMap = new HashMap<>();
 
+    /**
+     * 按 SerializerType 的值索引, 协商时按对端声明的值查找
+     */
+    private static final Serializer[] serializerTable = new Serializer[8];
+
+    /**
+     * 没有配置优先顺序时按编解码速度从快到慢排列; protobuf 只对生成的消息类有优势, 排在最后
+     */
+    private static final SerializerType[] DEFAULT_PREFERENCE = {
+            SerializerType.PROTO_STUFF,
+            SerializerType.KRYO,
+            SerializerType.HESSIAN,
+            SerializerType.FAST_JSON,
+            SerializerType.JAVA,
+            SerializerType.PROTOBUF
+    };
+
+    private static final byte[] supportedTypes;
+
     static {
         serializers = ServiceLoader.load(Serializer.class);
         Iterator<Serializer> iterator = serializers.iterator();
         while (iterator.hasNext()) {
             Serializer serializer = iterator.next();
             serializerMap.put(serializer.serializerType(), serializer);
+            serializerTable[serializer.serializerType().value()] = serializer;
         }
+        supportedTypes = supportedTypes(
+                SystemPropertyUtil.get("serializer.preference", ""),
+                (byte) SystemPropertyUtil.getInt("serializer.serializerType", SerializerType.PROTO_STUFF.value()));
     }
 
     public static Serializer serializer(SerializerType serializerType) {
@@ -28,4 +58,72 @@ public class SerializerFactory {
             return serializer;
         }
     }
+
+    /**
+     * 按 SerializerType 的值查找, 本进程没有加载时返回 null
+     */
+    public static Serializer find(byte value) {
+        return value >= 0 && value < serializerTable.length ? serializerTable[value] : null;
+    }
+
+    /**
+     * 本进程加载的序列化类型 (SerializerType 的值), 按优先顺序: 系统属性 serializer.preference 列出的类型
+     * (类型名, 逗号分隔) 在前, 然后是默认的 serializer.serializerType, 其余按编解码速度;
+     * 服务端注册时带上, 调用方按服务端的顺序选择双方都支持的第一个
+     */
+    public static byte[] supportedTypes() {
+        return supportedTypes.clone();
+    }
+
+    private static byte[] supportedTypes(String preference, byte defaultType) {
+        Set<SerializerType> types = new LinkedHashSet<>();
+        for (String name : preference.split(",")) {
+            SerializerType type = SerializerType.parse(name.trim());
+            if (type != null && serializerMap.containsKey(type)) {
+                types.add(type);
+            }
+        }
+        SerializerType type = SerializerType.parse(defaultType);
+        if (type != null && serializerMap.containsKey(type)) {
+            types.add(type);
+        }
+        for (SerializerType t : DEFAULT_PREFERENCE) {
+            if (serializerMap.containsKey(t)) {
+                types.add(t);
+            }
+        }
+        // 以后新增的类型
+        types.addAll(serializerMap.keySet());
+
+        byte[] values = new byte[types.size()];
+        int i = 0;
+        for (SerializerType t : types) {
+            values[i++] = t.value();
+        }
+        return values;
+    }
+
+    /**
+     * 所有序列化器提前准备 type 的序列化元数据
+     */
+    public static void warmUp(Type type) {
+        for (Serializer serializer : serializerMap.values()) {
+            serializer.warmUp(type);
+        }
+    }
+
+    /**
+     * 所有序列化器提前准备接口每个方法的参数和返回值类型, 注册服务和创建代理时调用
+     */
+    public static void warmUpInterface(Class<?> interfaceClass) {
+        for (Method method : interfaceClass.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            for (Type type : method.getGenericParameterTypes()) {
+                warmUp(type);
+            }
+            warmUp(method.getGenericReturnType());
+        }
+    }
 }
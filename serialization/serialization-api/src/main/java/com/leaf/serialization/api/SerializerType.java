@@ -6,6 +6,7 @@ public enum SerializerType {
     KRYO        ((byte) 0x02),
     JAVA        ((byte) 0x03),
     FAST_JSON   ((byte) 0x04),
+    PROTOBUF    ((byte) 0x05),
     // ...
     ;
 
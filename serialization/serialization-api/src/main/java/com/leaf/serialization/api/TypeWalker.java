@@ -0,0 +1,67 @@
+package com.leaf.serialization.api;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 遍历一个类型中会被序列化的类: 泛型参数, 数组元素, 以及类的非 static, 非 transient 字段的类型 (递归),
+ * 供序列化器 {@link Serializer#warmUp} 提前准备元数据
+ *
+ * @author yefei
+ */
+public final class TypeWalker {
+
+    private TypeWalker() {
+    }
+
+    /**
+     * @param visited 已经访问过的类, 每个类只访问一次 (字段类型循环引用时也能结束)
+     * @param visitor 访问一个类, 返回 true 时继续遍历它的字段
+     */
+    public static void walk(Type type, Set<Class<?>> visited, Predicate<Class<?>> visitor) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (clazz.isArray()) {
+                walk(clazz.getComponentType(), visited, visitor);
+                return;
+            }
+            if (clazz.isPrimitive() || !visited.add(clazz) || !visitor.test(clazz)) {
+                return;
+            }
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        walk(field.getGenericType(), visited, visitor);
+                    }
+                }
+            }
+        } else if (type instanceof ParameterizedType) {
+            walk(((ParameterizedType) type).getRawType(), visited, visitor);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                walk(argument, visited, visitor);
+            }
+        } else if (type instanceof GenericArrayType) {
+            walk(((GenericArrayType) type).getGenericComponentType(), visited, visitor);
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                walk(bound, visited, visitor);
+            }
+        }
+        // 类型变量在运行时才知道实际类型, 不遍历
+    }
+
+    /**
+     * jdk 自带的类, 由序列化器内置的方式处理, 一般不需要遍历字段
+     */
+    public static boolean isJdkType(Class<?> clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.");
+    }
+}
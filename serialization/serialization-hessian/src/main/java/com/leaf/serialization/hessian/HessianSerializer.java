@@ -2,23 +2,57 @@ package com.leaf.serialization.hessian;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
 import com.leaf.common.utils.AnyThrow;
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.api.SerializerType;
+import com.leaf.serialization.api.TypeWalker;
+import io.netty.buffer.ByteBuf;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
+/**
+ * Hessian2 序列化, 每个线程复用一组 Hessian2Output/Hessian2Input 和流, 每次使用前重置引用表,
+ * 出现异常的实例直接丢弃; 所有实例共享一个 SerializerFactory, 各个类的 (反) 序列化器只创建一次
+ */
 public class HessianSerializer implements Serializer {
 
-    private static final ThreadLocal<ByteArrayOutputStream> threadLocal = new ThreadLocal<ByteArrayOutputStream>() {
+    private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * 已经预热过的类
+     */
+    private static final Set<Class<?>> warmedTypes = ConcurrentHashMap.newKeySet();
+
+    private static final ThreadLocal<HessianHolder> holderThreadLocal = new ThreadLocal<HessianHolder>() {
         @Override
-        protected ByteArrayOutputStream initialValue() {
-            return new ByteArrayOutputStream();
+        protected HessianHolder initialValue() {
+            return new HessianHolder();
         }
     };
 
+    static {
+        // 常用的 jdk 类型
+        for (Class<?> type : new Class<?>[]{String.class, Integer.class, Long.class, Boolean.class, Double.class,
+                Date.class, ArrayList.class, HashMap.class, Object[].class}) {
+            warmUpClass(type);
+        }
+    }
+
     @Override
     public SerializerType serializerType() {
         return SerializerType.HESSIAN;
@@ -26,39 +60,229 @@ public class HessianSerializer implements Serializer {
 
     @Override
     public <T> byte[] serialize(T object) {
-        ByteArrayOutputStream buf = threadLocal.get();
-        Hessian2Output output = new Hessian2Output(buf);
+        HessianHolder holder = holderThreadLocal.get();
+        ByteArrayOutputStream buf = holder.bytesOut;
+        boolean success = false;
         try {
-            output.writeObject(object);
-            output.flush();
+            write(holder, buf, object);
+            success = true;
             return buf.toByteArray();
         } catch (IOException e) {
             AnyThrow.throwUnchecked(e);
         } finally {
+            holder.releaseOutput(success);
             buf.reset();
-            try {
-                output.close();
-            } catch (IOException e) {
-            }
         }
         return null;
     }
 
     @Override
     public <T> T deserialize(byte[] data, Class<T> clazz) {
-        Hessian2Input input = null;
-        try (ByteArrayInputStream buf = new ByteArrayInputStream(data)) {
-            input = new Hessian2Input(buf);
-            T t = (T) input.readObject(clazz);
+        HessianHolder holder = holderThreadLocal.get();
+        holder.bytesIn.setBuffer(data);
+        boolean success = false;
+        try {
+            T t = read(holder, holder.bytesIn, clazz);
+            success = true;
             return t;
         } catch (IOException e) {
             AnyThrow.throwUnchecked(e);
-            try {
-                if (input != null)
-                    input.close();
-            } catch (IOException e1) {
-            }
+        } finally {
+            holder.releaseInput(success);
+            holder.bytesIn.setBuffer(EMPTY_BYTES);
+        }
+        return null;
+    }
+
+    /**
+     * 序列化（对象 -> ByteBuf）, Hessian2Output 的缓冲区直接写入 out
+     */
+    @Override
+    public <T> void writeObject(ByteBuf out, T object) {
+        HessianHolder holder = holderThreadLocal.get();
+        holder.bufOut.buf = out;
+        boolean success = false;
+        try {
+            write(holder, holder.bufOut, object);
+            success = true;
+        } catch (IOException e) {
+            AnyThrow.throwUnchecked(e);
+        } finally {
+            holder.releaseOutput(success);
+            holder.bufOut.buf = null;
+        }
+    }
+
+    /**
+     * 反序列化（ByteBuf -> 对象）, Hessian2Input 直接从 in 读取
+     */
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        HessianHolder holder = holderThreadLocal.get();
+        holder.bufIn.buf = in;
+        boolean success = false;
+        try {
+            T t = read(holder, holder.bufIn, clazz);
+            success = true;
+            return t;
+        } catch (IOException e) {
+            AnyThrow.throwUnchecked(e);
+        } finally {
+            holder.releaseInput(success);
+            holder.bufIn.buf = null;
+            // Hessian2Input 会预读, 按约定读取全部可读字节
+            in.skipBytes(in.readableBytes());
         }
         return null;
     }
+
+    /**
+     * 提前创建 type 以及它的字段类型的 (反) 序列化器, 放入共享的 SerializerFactory
+     */
+    @Override
+    public void warmUp(Type type) {
+        TypeWalker.walk(type, warmedTypes, new Predicate<Class<?>>() {
+            @Override
+            public boolean test(Class<?> clazz) {
+                return warmUpClass(clazz) && !TypeWalker.isJdkType(clazz);
+            }
+        });
+    }
+
+    private static boolean warmUpClass(Class<?> type) {
+        try {
+            serializerFactory.getSerializer(type);
+            if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+                serializerFactory.getDeserializer(type);
+            }
+            return true;
+        } catch (Exception e) {
+            // 预热失败不影响注册, 第一次调用时再抛出
+            return false;
+        }
+    }
+
+    private static <T> void write(HessianHolder holder, OutputStream out, T object) throws IOException {
+        Hessian2Output output = holder.output;
+        output.init(out);
+        output.writeObject(object);
+        output.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T read(HessianHolder holder, InputStream in, Class<T> clazz) throws IOException {
+        Hessian2Input input = holder.input;
+        input.init(in);
+        return (T) input.readObject(clazz);
+    }
+
+    static final class HessianHolder {
+
+        Hessian2Output output = newOutput();
+
+        Hessian2Input input = newInput();
+
+        final ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+
+        final BytesInputStream bytesIn = new BytesInputStream();
+
+        final ByteBufOutputStream bufOut = new ByteBufOutputStream();
+
+        final ByteBufInputStream bufIn = new ByteBufInputStream();
+
+        void releaseOutput(boolean success) {
+            if (success) {
+                output.init(null);
+            } else {
+                // 缓冲区中可能还有没写出的数据, 不再复用
+                output = newOutput();
+            }
+        }
+
+        void releaseInput(boolean success) {
+            if (success) {
+                try {
+                    // 丢弃预读的数据
+                    input.resetBuffer();
+                } catch (IllegalStateException ignored) {
+                }
+                input.init(null);
+            } else {
+                input = newInput();
+            }
+        }
+
+        private static Hessian2Output newOutput() {
+            Hessian2Output output = new Hessian2Output();
+            output.setSerializerFactory(serializerFactory);
+            return output;
+        }
+
+        private static Hessian2Input newInput() {
+            Hessian2Input input = new Hessian2Input();
+            input.setSerializerFactory(serializerFactory);
+            return input;
+        }
+    }
+
+    /**
+     * 可以重新指定数组的 ByteArrayInputStream
+     */
+    static final class BytesInputStream extends ByteArrayInputStream {
+
+        BytesInputStream() {
+            super(EMPTY_BYTES);
+        }
+
+        void setBuffer(byte[] data) {
+            this.buf = data;
+            this.pos = 0;
+            this.count = data.length;
+            this.mark = 0;
+        }
+    }
+
+    static final class ByteBufOutputStream extends OutputStream {
+
+        ByteBuf buf;
+
+        @Override
+        public void write(int b) {
+            buf.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buf.writeBytes(b, off, len);
+        }
+    }
+
+    static final class ByteBufInputStream extends InputStream {
+
+        ByteBuf buf;
+
+        @Override
+        public int read() {
+            return buf.isReadable() ? buf.readByte() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int readable = buf.readableBytes();
+            if (readable == 0) {
+                return -1;
+            }
+            len = Math.min(len, readable);
+            buf.readBytes(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buf.readableBytes();
+        }
+    }
 }
@@ -2,6 +2,9 @@ package com.leaf.serialization.hessian.test;
 
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.hessian.HessianSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.Serializable;
@@ -19,6 +22,25 @@ public class HessianSerializerTest {
         System.out.println(deserializeUser);
     }
 
+    @Test
+    public void byteBuf() {
+        ByteBuf buf = Unpooled.directBuffer();
+        try {
+            // 同一个线程复用 Hessian2Output/Hessian2Input, 引用表不能带到下一次
+            for (int i = 0; i < 3; i++) {
+                User user = new User(i, "he he " + i);
+                serializer.writeObject(buf, user);
+
+                User deserializeUser = serializer.readObject(buf, User.class);
+                Assert.assertEquals(user.toString(), deserializeUser.toString());
+                Assert.assertFalse(buf.isReadable());
+                buf.clear();
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
     static class User implements Serializable {
 
         private int id;
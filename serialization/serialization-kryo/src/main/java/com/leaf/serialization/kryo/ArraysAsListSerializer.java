@@ -0,0 +1,38 @@
+package com.leaf.serialization.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Arrays.asList 返回的列表不支持 add, Kryo 默认的 CollectionSerializer 无法反序列化, 按数组写入
+ *
+ * @author yefei
+ */
+class ArraysAsListSerializer extends Serializer<List<?>> {
+
+    ArraysAsListSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, List<?> list) {
+        output.writeVarInt(list.size(), true);
+        for (Object element : list) {
+            kryo.writeClassAndObject(output, element);
+        }
+    }
+
+    @Override
+    public List<?> read(Kryo kryo, Input input, Class<List<?>> type) {
+        Object[] elements = new Object[input.readVarInt(true)];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = kryo.readClassAndObject(input);
+        }
+        return Arrays.asList(elements);
+    }
+}
@@ -0,0 +1,252 @@
+package com.leaf.serialization.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.JavaSerializer;
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.api.SerializerType;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.StringUtil;
+import io.netty.util.internal.SystemPropertyUtil;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Kryo 序列化, 每个线程一个 Kryo 以及复用的 Output/Input, 序列化时不再分配这些对象
+ * <p>
+ * 类可以按 id 注册 (两端的注册必须一致), 注册过的类写入 varint id 而不是类名, 消息更小:
+ * <ul>
+ * <li>系统属性 serializer.kryo.registrations, 例如 com.foo.User:100,com.foo.Order:101</li>
+ * <li>调用 {@link #register(Class, int)}, 对已经创建的 Kryo 在下一次使用时生效</li>
+ * </ul>
+ * 没有注册的类仍然可以序列化 (写入类名); id 小于 {@link #MIN_REGISTRATION_ID} 的保留给 Kryo 内置的类型
+ *
+ * @author yefei
+ */
+public class KryoSerializer implements Serializer {
+
+    public static final int MIN_REGISTRATION_ID = 100;
+
+    /**
+     * 是否支持循环引用, 打开后每个对象都要记录引用, 会变慢
+     */
+    private static final boolean REFERENCES = SystemPropertyUtil.getBoolean("serializer.kryo.references", false);
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * 超过这个大小的缓冲区用完之后不再缓存, 避免一次大消息之后一直占用内存
+     */
+    private static final int MAX_CACHED_BUFFER_SIZE = SystemPropertyUtil.getInt("serializer.kryo.max.cached.buffer.size", 1024 * 1024);
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private static final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    static {
+        String value = SystemPropertyUtil.get("serializer.kryo.registrations");
+        if (!StringUtil.isNullOrEmpty(value)) {
+            for (String entry : value.split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int index = entry.lastIndexOf(':');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("invalid kryo registration: " + entry + ", expect className:id");
+                }
+                try {
+                    Class<?> type = Class.forName(entry.substring(0, index).trim());
+                    register(type, Integer.parseInt(entry.substring(index + 1).trim()));
+                } catch (ClassNotFoundException | NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid kryo registration: " + entry, e);
+                }
+            }
+        }
+    }
+
+    private static final ThreadLocal<KryoHolder> holderThreadLocal = new ThreadLocal<KryoHolder>() {
+        @Override
+        protected KryoHolder initialValue() {
+            return new KryoHolder();
+        }
+    };
+
+    /**
+     * 按 id 注册类, 两端需要以相同的 id 注册相同的类
+     */
+    public static void register(Class<?> type, int id) {
+        if (type == null) {
+            throw new NullPointerException("type");
+        }
+        if (id < MIN_REGISTRATION_ID) {
+            throw new IllegalArgumentException("kryo registration id must be >= " + MIN_REGISTRATION_ID + ": " + id);
+        }
+        synchronized (registrations) {
+            for (Registration registration : registrations) {
+                if (registration.id == id && registration.type != type) {
+                    throw new IllegalArgumentException("kryo registration id " + id + " already used by "
+                            + registration.type.getName());
+                }
+            }
+            registrations.add(new Registration(type, id));
+        }
+    }
+
+    @Override
+    public SerializerType serializerType() {
+        return SerializerType.KRYO;
+    }
+
+    @Override
+    public <T> byte[] serialize(T object) {
+        KryoHolder holder = holder();
+        Output output = holder.output;
+        try {
+            holder.kryo.writeObject(output, object);
+            return output.toBytes();
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            holder.resetOutput();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> clazz) {
+        KryoHolder holder = holder();
+        Input input = holder.input;
+        try {
+            input.setBuffer(data);
+            return holder.kryo.readObject(input, clazz);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            input.setBuffer(EMPTY_BYTES);
+        }
+    }
+
+    /**
+     * 序列化（对象 -> ByteBuf）, 先写入线程复用的 Output, 再一次性拷贝到 out
+     */
+    @Override
+    public <T> void writeObject(ByteBuf out, T object) {
+        KryoHolder holder = holder();
+        Output output = holder.output;
+        try {
+            holder.kryo.writeObject(output, object);
+            out.writeBytes(output.getBuffer(), 0, output.position());
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            holder.resetOutput();
+        }
+    }
+
+    /**
+     * 反序列化（ByteBuf -> 对象）, 堆内存直接读取底层数组, 堆外内存先拷贝到线程复用的数组
+     */
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        KryoHolder holder = holder();
+        Input input = holder.input;
+        try {
+            int length = in.readableBytes();
+            if (in.hasArray()) {
+                input.setBuffer(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else {
+                byte[] bytes = holder.readBuffer(length);
+                in.getBytes(in.readerIndex(), bytes, 0, length);
+                input.setBuffer(bytes, 0, length);
+            }
+            T object = holder.kryo.readObject(input, clazz);
+            in.skipBytes(length);
+            return object;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            input.setBuffer(EMPTY_BYTES);
+        }
+    }
+
+    private static KryoHolder holder() {
+        KryoHolder holder = holderThreadLocal.get();
+        holder.applyRegistrations();
+        return holder;
+    }
+
+    static Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(REFERENCES);
+        kryo.setRegistrationRequired(false);
+        // 优先使用无参构造方法, 没有的话不调用构造方法直接创建实例
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        // 异常的 suppressedExceptions 等字段是不可修改的集合, 按字段反序列化会失败
+        kryo.addDefaultSerializer(Throwable.class, JavaSerializer.class);
+        kryo.register(Arrays.asList().getClass(), new ArraysAsListSerializer());
+        return kryo;
+    }
+
+    static final class Registration {
+
+        final Class<?> type;
+
+        final int id;
+
+        Registration(Class<?> type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    static final class KryoHolder {
+
+        final Kryo kryo = newKryo();
+
+        final Input input = new Input();
+
+        Output output = new Output(BUFFER_SIZE, -1);
+
+        /**
+         * 堆外内存反序列化时使用的数组
+         */
+        byte[] readBuffer = EMPTY_BYTES;
+
+        /**
+         * 已经注册到 kryo 的 registrations 个数
+         */
+        int registered;
+
+        void applyRegistrations() {
+            if (registered == registrations.size()) {
+                return;
+            }
+            for (Registration registration : registrations.subList(registered, registrations.size())) {
+                kryo.register(registration.type, registration.id);
+                registered++;
+            }
+        }
+
+        void resetOutput() {
+            if (output.getBuffer().length > MAX_CACHED_BUFFER_SIZE) {
+                output = new Output(BUFFER_SIZE, -1);
+            } else {
+                output.clear();
+            }
+        }
+
+        byte[] readBuffer(int length) {
+            if (length > MAX_CACHED_BUFFER_SIZE) {
+                return new byte[length];
+            }
+            if (readBuffer.length < length) {
+                readBuffer = new byte[Math.max(length, BUFFER_SIZE)];
+            }
+            return readBuffer;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.leaf.serialization.kryo.test;
+
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.kryo.KryoSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class KryoSerializerTest {
+
+    private static Serializer serializer = new KryoSerializer();
+
+    @Test
+    public void serialize() {
+        User user = new User(1, "he he");
+        user.setPermission(Arrays.asList("read", "write"));
+        byte[] bytes = serializer.serialize(user);
+
+        User deserializeUser = serializer.deserialize(bytes, User.class);
+        System.out.println(deserializeUser);
+        Assert.assertEquals(user.toString(), deserializeUser.toString());
+    }
+
+    @Test
+    public void writeObject() {
+        KryoSerializer.register(User.class, 100);
+        ByteBuf buf = ByteBufAllocator.DEFAULT.directBuffer();
+        try {
+            User user = new User(2, "ha ha");
+            serializer.writeObject(buf, user);
+
+            User deserializeUser = serializer.readObject(buf, User.class);
+            Assert.assertEquals(user.toString(), deserializeUser.toString());
+            Assert.assertFalse(buf.isReadable());
+        } finally {
+            buf.release();
+        }
+    }
+
+    static class User {
+
+        private int id;
+
+        private String name;
+
+        private List<String> permission;
+
+        public User(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getPermission() {
+            return permission;
+        }
+
+        public void setPermission(List<String> permission) {
+            this.permission = permission;
+        }
+
+        @Override
+        public String toString() {
+            return "User{" +
+                    "id=" + id +
+                    ", name='" + name + '\'' +
+                    ", permission=" + permission +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.leaf.serialization.protobuf;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.api.SerializerFactory;
+import com.leaf.serialization.api.SerializerType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.internal.SystemPropertyUtil;
+
+import java.lang.reflect.Type;
+
+/**
+ * protobuf 生成的消息 (MessageLite) 直接使用生成代码的 writeTo/parser 编解码, 不经过反射;
+ * 其他类型交给后备序列化器 (系统属性 serializer.protobuf.fallback, 默认 protostuff), 两端的后备序列化器必须相同
+ * <p>
+ * 参数和返回值按方法签名编码时 (见 rpc 的 TypedCodec), 声明类型就是生成的消息类的值直接写入 protobuf 编码;
+ * 包在 RequestWrapper/ResponseWrapper 中的值 (声明类型是接口, Object 等) 由后备序列化器处理
+ *
+ * @author yefei
+ */
+public class ProtobufSerializer implements Serializer {
+
+    private static final byte FALLBACK_TYPE =
+            (byte) SystemPropertyUtil.getInt("serializer.protobuf.fallback", SerializerType.PROTO_STUFF.value());
+
+    /**
+     * 生成的消息类的 parser, 通过 getDefaultInstance() 取得; 不是生成的消息类时为 null
+     */
+    private static final ClassValue<Parser<?>> parsers = new ClassValue<Parser<?>>() {
+        @Override
+        protected Parser<?> computeValue(Class<?> type) {
+            if (!MessageLite.class.isAssignableFrom(type)) {
+                return null;
+            }
+            try {
+                MessageLite defaultInstance = (MessageLite) type.getMethod("getDefaultInstance").invoke(null);
+                return defaultInstance.getParserForType();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("not a generated protobuf message: " + type.getName(), e);
+            }
+        }
+    };
+
+    /**
+     * 后备序列化器, 第一次使用时才从 SerializerFactory 取得 (ServiceLoader 加载本类时 SerializerFactory 还没有初始化完)
+     */
+    private volatile Serializer fallback;
+
+    @Override
+    public SerializerType serializerType() {
+        return SerializerType.PROTOBUF;
+    }
+
+    @Override
+    public <T> byte[] serialize(T object) {
+        if (object instanceof MessageLite) {
+            return ((MessageLite) object).toByteArray();
+        }
+        return fallback().serialize(object);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> clazz) {
+        Parser<T> parser = parser(clazz);
+        if (parser == null) {
+            return fallback().deserialize(data, clazz);
+        }
+        try {
+            return parser.parseFrom(data);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 序列化（对象 -> ByteBuf）, 消息的长度预先算出, 直接编码到 out 的底层数组或内存
+     */
+    @Override
+    public <T> void writeObject(ByteBuf out, T object) {
+        if (!(object instanceof MessageLite)) {
+            fallback().writeObject(out, object);
+            return;
+        }
+        MessageLite message = (MessageLite) object;
+        try {
+            int size = message.getSerializedSize();
+            out.ensureWritable(size);
+            int writerIndex = out.writerIndex();
+            if (out.hasArray()) {
+                CodedOutputStream output = CodedOutputStream.newInstance(out.array(), out.arrayOffset() + writerIndex, size);
+                message.writeTo(output);
+                output.checkNoSpaceLeft();
+                out.writerIndex(writerIndex + size);
+            } else if (out.nioBufferCount() == 1) {
+                CodedOutputStream output = CodedOutputStream.newInstance(out.internalNioBuffer(writerIndex, size));
+                message.writeTo(output);
+                output.flush();
+                out.writerIndex(writerIndex + size);
+            } else {
+                message.writeTo(new ByteBufOutputStream(out));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 反序列化（ByteBuf -> 对象）, 堆内存直接读取底层数组, 堆外内存直接读取 nio buffer
+     */
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        Parser<T> parser = parser(clazz);
+        if (parser == null) {
+            return fallback().readObject(in, clazz);
+        }
+        try {
+            int length = in.readableBytes();
+            T message;
+            if (in.hasArray()) {
+                message = parser.parseFrom(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else if (in.nioBufferCount() == 1) {
+                message = parser.parseFrom(in.nioBuffer());
+            } else {
+                message = parser.parseFrom(new ByteBufInputStream(in, length));
+            }
+            in.skipBytes(in.readableBytes());
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 生成的消息类提前取得 parser, 其他类型由后备序列化器自己通过 SerializerFactory 预热
+     */
+    @Override
+    public void warmUp(Type type) {
+        if (type instanceof Class) {
+            try {
+                parsers.get((Class<?>) type);
+            } catch (RuntimeException ignored) {
+                // 预热失败不影响注册, 第一次调用时再抛出
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Parser<T> parser(Class<T> clazz) {
+        return (Parser<T>) parsers.get(clazz);
+    }
+
+    private Serializer fallback() {
+        Serializer serializer = fallback;
+        if (serializer == null) {
+            SerializerType type = SerializerType.parse(FALLBACK_TYPE);
+            if (type == null || type == SerializerType.PROTOBUF) {
+                throw new IllegalArgumentException("invalid protobuf fallback serializer: " + FALLBACK_TYPE);
+            }
+            fallback = serializer = SerializerFactory.serializer(type);
+        }
+        return serializer;
+    }
+}
@@ -0,0 +1,69 @@
+package com.leaf.serialization.protobuf.test;
+
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Timestamp;
+import com.leaf.serialization.api.Serializer;
+import com.leaf.serialization.protobuf.ProtobufSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProtobufSerializerTest {
+
+    private static Serializer serializer = new ProtobufSerializer();
+
+    @Test
+    public void serialize() {
+        Timestamp timestamp = Timestamp.newBuilder().setSeconds(1234567890L).setNanos(42).build();
+        byte[] bytes = serializer.serialize(timestamp);
+        // 生成的消息直接使用 protobuf 编码
+        Assert.assertArrayEquals(timestamp.toByteArray(), bytes);
+
+        Timestamp deserializeTimestamp = serializer.deserialize(bytes, Timestamp.class);
+        Assert.assertEquals(timestamp, deserializeTimestamp);
+
+        // 其他类型交给后备序列化器
+        User user = new User(1, "he he");
+        User deserializeUser = serializer.deserialize(serializer.serialize(user), User.class);
+        System.out.println(deserializeUser);
+        Assert.assertEquals(user.toString(), deserializeUser.toString());
+    }
+
+    @Test
+    public void byteBuf() {
+        StringValue value = StringValue.of("he he");
+        ByteBuf[] bufs = {Unpooled.buffer(), Unpooled.directBuffer()};
+        for (ByteBuf buf : bufs) {
+            try {
+                serializer.writeObject(buf, value);
+                Assert.assertEquals(value.getSerializedSize(), buf.readableBytes());
+
+                Assert.assertEquals(value, serializer.readObject(buf, StringValue.class));
+                Assert.assertFalse(buf.isReadable());
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    static class User {
+
+        private int id;
+
+        private String name;
+
+        public User(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "User{" +
+                    "id=" + id +
+                    ", name='" + name + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.leaf.serialization.protostuff;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import io.protostuff.ByteString;
+import io.protostuff.Input;
+import io.protostuff.Output;
+import io.protostuff.ProtobufException;
+import io.protostuff.Schema;
+import io.protostuff.UninitializedMessageException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static io.protostuff.WireFormat.WIRETYPE_END_GROUP;
+import static io.protostuff.WireFormat.WIRETYPE_FIXED32;
+import static io.protostuff.WireFormat.WIRETYPE_FIXED64;
+import static io.protostuff.WireFormat.WIRETYPE_LENGTH_DELIMITED;
+import static io.protostuff.WireFormat.WIRETYPE_START_GROUP;
+import static io.protostuff.WireFormat.WIRETYPE_TAIL_DELIMITER;
+import static io.protostuff.WireFormat.WIRETYPE_VARINT;
+import static io.protostuff.WireFormat.getTagFieldNumber;
+import static io.protostuff.WireFormat.getTagWireType;
+import static io.protostuff.WireFormat.makeTag;
+
+/**
+ * 直接从 ByteBuf 读取的 protostuff Input, 堆外内存也不需要先拷贝到数组
+ * <p>
+ * 读取 ByteBufOutput 或 ProtostuffIOUtil 写入的数据 (嵌套消息按 group 编码), 读到 ByteBuf 的 writerIndex 为止
+ *
+ * @author yefei
+ */
+public final class ByteBufInput implements Input {
+
+    private final ByteBuf in;
+
+    private int lastTag;
+
+    public ByteBufInput(ByteBuf in) {
+        this.in = in;
+    }
+
+    /**
+     * 最后读到的 tag 必须是 value, 顶层消息读完之后应该是 0
+     */
+    public void checkLastTagWas(int value) throws ProtobufException {
+        if (lastTag != value) {
+            throw new ProtobufException("Protocol message end-group tag did not match expected tag.");
+        }
+    }
+
+    @Override
+    public <T> void handleUnknownField(int fieldNumber, Schema<T> schema) throws IOException {
+        skipField(lastTag);
+    }
+
+    @Override
+    public <T> int readFieldNumber(Schema<T> schema) throws IOException {
+        if (!in.isReadable()) {
+            lastTag = 0;
+            return 0;
+        }
+        int tag = readRawVarInt32();
+        int fieldNumber = getTagFieldNumber(tag);
+        if (fieldNumber == 0) {
+            if (getTagWireType(tag) == WIRETYPE_TAIL_DELIMITER) {
+                lastTag = 0;
+                return 0;
+            }
+            throw invalidTag();
+        }
+        if (getTagWireType(tag) == WIRETYPE_END_GROUP) {
+            // 嵌套消息结束
+            lastTag = 0;
+            return 0;
+        }
+        lastTag = tag;
+        return fieldNumber;
+    }
+
+    @Override
+    public int readInt32() throws IOException {
+        return readRawVarInt32();
+    }
+
+    @Override
+    public int readUInt32() throws IOException {
+        return readRawVarInt32();
+    }
+
+    @Override
+    public int readSInt32() throws IOException {
+        int value = readRawVarInt32();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public int readFixed32() throws IOException {
+        return in.readIntLE();
+    }
+
+    @Override
+    public int readSFixed32() throws IOException {
+        return in.readIntLE();
+    }
+
+    @Override
+    public long readInt64() throws IOException {
+        return readRawVarInt64();
+    }
+
+    @Override
+    public long readUInt64() throws IOException {
+        return readRawVarInt64();
+    }
+
+    @Override
+    public long readSInt64() throws IOException {
+        long value = readRawVarInt64();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public long readFixed64() throws IOException {
+        return in.readLongLE();
+    }
+
+    @Override
+    public long readSFixed64() throws IOException {
+        return in.readLongLE();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(in.readIntLE());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(in.readLongLE());
+    }
+
+    @Override
+    public boolean readBool() throws IOException {
+        return readRawVarInt32() != 0;
+    }
+
+    @Override
+    public int readEnum() throws IOException {
+        return readRawVarInt32();
+    }
+
+    @Override
+    public String readString() throws IOException {
+        int length = readLength();
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    @Override
+    public ByteString readBytes() throws IOException {
+        return ByteString.copyFrom(readByteArray());
+    }
+
+    @Override
+    public byte[] readByteArray() throws IOException {
+        byte[] bytes = new byte[readLength()];
+        in.readBytes(bytes);
+        return bytes;
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer() throws IOException {
+        return ByteBuffer.wrap(readByteArray());
+    }
+
+    @Override
+    public <T> T mergeObject(T value, Schema<T> schema) throws IOException {
+        if (value == null) {
+            value = schema.newMessage();
+        }
+        schema.mergeFrom(this, value);
+        if (!schema.isInitialized(value)) {
+            throw new UninitializedMessageException(value, schema);
+        }
+        // END_GROUP 之后 lastTag 为 0
+        checkLastTagWas(0);
+        return value;
+    }
+
+    @Override
+    public void transferByteRangeTo(Output output, boolean utf8String, int fieldNumber, boolean repeated)
+            throws IOException {
+        int length = readLength();
+        if (in.hasArray()) {
+            output.writeByteRange(utf8String, fieldNumber, in.array(), in.arrayOffset() + in.readerIndex(), length,
+                    repeated);
+            in.skipBytes(length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.readBytes(bytes);
+            output.writeByteRange(utf8String, fieldNumber, bytes, 0, length, repeated);
+        }
+    }
+
+    private boolean skipField(int tag) throws IOException {
+        switch (getTagWireType(tag)) {
+            case WIRETYPE_VARINT:
+                readRawVarInt64();
+                return true;
+            case WIRETYPE_FIXED64:
+                in.skipBytes(8);
+                return true;
+            case WIRETYPE_LENGTH_DELIMITED:
+                in.skipBytes(readLength());
+                return true;
+            case WIRETYPE_START_GROUP:
+                skipMessage();
+                checkLastTagWas(makeTag(getTagFieldNumber(tag), WIRETYPE_END_GROUP));
+                return true;
+            case WIRETYPE_END_GROUP:
+                return false;
+            case WIRETYPE_FIXED32:
+                in.skipBytes(4);
+                return true;
+            default:
+                throw new ProtobufException("Protocol message tag had invalid wire type.");
+        }
+    }
+
+    private void skipMessage() throws IOException {
+        while (true) {
+            if (!in.isReadable()) {
+                lastTag = 0;
+                return;
+            }
+            int tag = readRawVarInt32();
+            if (getTagFieldNumber(tag) == 0) {
+                throw invalidTag();
+            }
+            lastTag = tag;
+            if (!skipField(tag)) {
+                return;
+            }
+        }
+    }
+
+    private int readLength() throws IOException {
+        int length = readRawVarInt32();
+        if (length < 0 || length > in.readableBytes()) {
+            throw new ProtobufException("invalid length: " + length + ", readable: " + in.readableBytes());
+        }
+        return length;
+    }
+
+    private int readRawVarInt32() throws IOException {
+        byte b = in.readByte();
+        if (b >= 0) {
+            return b;
+        }
+        int value = b & 0x7F;
+        for (int shift = 7; shift < 32; shift += 7) {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        // 负的 int32 按 64 位写入, 丢弃高位
+        for (int i = 0; i < 5; i++) {
+            if (in.readByte() >= 0) {
+                return value;
+            }
+        }
+        throw new ProtobufException("CodedInput encountered a malformed varint.");
+    }
+
+    private long readRawVarInt64() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ProtobufException("CodedInput encountered a malformed varint.");
+    }
+
+    private static ProtobufException invalidTag() {
+        return new ProtobufException("Protocol message contained an invalid tag (zero).");
+    }
+}
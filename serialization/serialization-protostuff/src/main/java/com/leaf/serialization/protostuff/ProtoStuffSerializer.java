@@ -2,13 +2,36 @@ package com.leaf.serialization.protostuff;
 
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.api.SerializerType;
+import com.leaf.serialization.api.TypeWalker;
+import io.netty.buffer.ByteBuf;
 import io.protostuff.LinkedBuffer;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.runtime.RuntimeSchema;
 
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
 public class ProtoStuffSerializer implements Serializer {
 
+    /**
+     * 每个类的 schema, 比每次调用 RuntimeSchema.getSchema (按类名查找) 更快
+     */
+    private static final ClassValue<Schema<?>> schemas = new ClassValue<Schema<?>>() {
+        @Override
+        protected Schema<?> computeValue(Class<?> type) {
+            return RuntimeSchema.getSchema(type);
+        }
+    };
+
+    /**
+     * 已经预热过的类
+     */
+    private static final Set<Class<?>> warmedTypes = ConcurrentHashMap.newKeySet();
+
     private static final ThreadLocal<LinkedBuffer> bufThreadLocal = new ThreadLocal<LinkedBuffer>() {
         @Override
         protected LinkedBuffer initialValue() {
@@ -32,7 +55,7 @@ public class ProtoStuffSerializer implements Serializer {
     public <T> byte[] serialize(T object) {
         LinkedBuffer buffer = bufThreadLocal.get();
         try {
-            Schema<T> schema = RuntimeSchema.getSchema((Class<T>) object.getClass());
+            Schema<T> schema = schema((Class<T>) object.getClass());
             return ProtostuffIOUtil.toByteArray(object, schema, buffer);
         } catch (Exception e) {
             throw new IllegalStateException(e.getMessage(), e);
@@ -50,7 +73,7 @@ public class ProtoStuffSerializer implements Serializer {
      */
     public <T> T deserialize(byte[] data, Class<T> clazz) {
         try {
-            Schema<T> schema = RuntimeSchema.getSchema(clazz);
+            Schema<T> schema = schema(clazz);
             T message = schema.newMessage();
             ProtostuffIOUtil.mergeFrom(data, message, schema);
             return message;
@@ -59,4 +82,77 @@ public class ProtoStuffSerializer implements Serializer {
         }
     }
 
+    /**
+     * 序列化（对象 -> ByteBuf）, 直接写入 out, 编码和 serialize 相同
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void writeObject(ByteBuf out, T object) {
+        try {
+            Schema<T> schema = schema((Class<T>) object.getClass());
+            schema.writeTo(new ByteBufOutput(out), object);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 反序列化（ByteBuf -> 对象）, 堆内存直接读取底层数组, 堆外内存通过 ByteBufInput 直接读取
+     */
+    @Override
+    public <T> T readObject(ByteBuf in, Class<T> clazz) {
+        try {
+            Schema<T> schema = schema(clazz);
+            T message = schema.newMessage();
+            int length = in.readableBytes();
+            if (in.hasArray()) {
+                ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + in.readerIndex(), length, message, schema);
+                in.skipBytes(length);
+            } else {
+                ByteBufInput input = new ByteBufInput(in);
+                schema.mergeFrom(input, message);
+                input.checkLastTagWas(0);
+                in.skipBytes(in.readableBytes());
+            }
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 提前创建 type 以及它的字段类型 (包括泛型参数, 数组元素) 的 schema, 嵌套的 schema 也不会在第一次请求时才创建
+     */
+    @Override
+    public void warmUp(Type type) {
+        TypeWalker.walk(type, warmedTypes, new Predicate<Class<?>>() {
+            @Override
+            public boolean test(Class<?> clazz) {
+                if (!isMessageType(clazz)) {
+                    return false;
+                }
+                try {
+                    schema(clazz);
+                    return true;
+                } catch (RuntimeException e) {
+                    // 预热失败不影响注册, 第一次调用时再抛出
+                    return false;
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Schema<T> schema(Class<T> clazz) {
+        return (Schema<T>) schemas.get(clazz);
+    }
+
+    /**
+     * 基本类型, jdk 的类, 接口, 抽象类和枚举由 protostuff 内置的方式处理, 没有自己的 schema
+     */
+    private static boolean isMessageType(Class<?> clazz) {
+        return !clazz.isInterface() && !clazz.isEnum() && !Modifier.isAbstract(clazz.getModifiers())
+                && !TypeWalker.isJdkType(clazz);
+    }
+
 }
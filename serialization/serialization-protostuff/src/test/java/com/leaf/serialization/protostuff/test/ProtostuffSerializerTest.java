@@ -2,8 +2,15 @@ package com.leaf.serialization.protostuff.test;
 
 import com.leaf.serialization.api.Serializer;
 import com.leaf.serialization.protostuff.ProtoStuffSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class ProtostuffSerializerTest {
 
     private static Serializer serializer = new ProtoStuffSerializer();
@@ -17,6 +24,60 @@ public class ProtostuffSerializerTest {
         System.out.println(deserializeUser);
     }
 
+    @Test
+    public void byteBuf() {
+        Group group = new Group();
+        group.owner = new User(-1, "\uD83D\uDE00 owner");
+        group.members = Arrays.asList(new User(Integer.MIN_VALUE, "a"), new User(3, null));
+        group.extra = new User(4, "extra");
+        group.size = -123456789012L;
+        group.ratio = 0.5;
+        group.data = new byte[]{1, 2, 3};
+        serializer.warmUp(Group.class);
+
+        // ByteBufOutput 写入的数据和 serialize 相同
+        byte[] bytes = serializer.serialize(group);
+        ByteBuf direct = Unpooled.directBuffer();
+        try {
+            serializer.writeObject(direct, group);
+            Assert.assertArrayEquals(bytes, ByteBufUtil.getBytes(direct));
+
+            // 堆外内存通过 ByteBufInput 读取
+            Group read = serializer.readObject(direct, Group.class);
+            Assert.assertFalse(direct.isReadable());
+            Assert.assertEquals(group.toString(), read.toString());
+        } finally {
+            direct.release();
+        }
+    }
+
+    static class Group {
+
+        private User owner;
+
+        private List<User> members;
+
+        private Object extra;
+
+        private long size;
+
+        private double ratio;
+
+        private byte[] data;
+
+        @Override
+        public String toString() {
+            return "Group{" +
+                    "owner=" + owner +
+                    ", members=" + members +
+                    ", extra=" + extra +
+                    ", size=" + size +
+                    ", ratio=" + ratio +
+                    ", data=" + Arrays.toString(data) +
+                    '}';
+        }
+    }
+
     static class User {
 
         private int id;